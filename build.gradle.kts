@@ -99,6 +99,7 @@ dependencies {
     compile("com.nothome:javaxdelta:2.0.1") // GDIFF implementation for BinPatches
     compile("com.google.code.gson:gson:2.9.0") // Used instead of Argo for buuilding changelog.
     compile("com.github.tony19:named-regexp:0.2.6") // 1.7 Named regexp features
+    compile("org.apache.commons:commons-compress:1.21") // copying zip entries without inflating them
     compile("net.minecraftforge:forgeflower:1.0.342-SNAPSHOT") // Fernflower Forge edition
 
     shade("net.md-5:SpecialSource:1.11.0") // deobf and reobf
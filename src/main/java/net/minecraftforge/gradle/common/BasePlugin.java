@@ -550,6 +550,7 @@ public abstract class BasePlugin<K extends BaseExtension> implements Plugin<Proj
             genSrgs.setInStatics(delayedFile(MCP_DATA_STATICS));
             genSrgs.setMethodsCsv(delayedFile(CSV_METHOD));
             genSrgs.setFieldsCsv(delayedFile(CSV_FIELD));
+            genSrgs.setParamsCsv(delayedFile(CSV_PARAM));
             genSrgs.setNotchToSrg(delayedFile(Constants.SRG_NOTCH_TO_SRG));
             genSrgs.setNotchToMcp(delayedFile(Constants.SRG_NOTCH_TO_MCP));
             genSrgs.setSrgToMcp(delayedFile(SRG_SRG_TO_MCP));
@@ -133,6 +133,14 @@ public class Constants {
     public static final String CONFIG_FFI_DEPS = "forgeGradleFfiDeps"; // FernFlowerInvoker
     public static final String CONFIG_MC_DEPS_CLIENT = "forgeGradleMcDepsClient";
 
+    // shared caches of the gradle user home, see ArtifactCache and DecompileCache
+    public static final String CACHE_DEOBF_DEPS = "deobfDepCache";
+    public static final long CACHE_DEOBF_DEPS_SIZE = 2048; // megabytes
+    public static final String CACHE_REOBF_SRGS = "reobfSrgCache";
+    public static final long CACHE_REOBF_SRGS_SIZE = 64; // megabytes
+    public static final String CACHE_DECOMPILED_CLASSES = "decompiledClasses";
+    public static final long CACHE_DECOMPILED_CLASSES_SIZE = 1024; // megabytes
+
     // things in the cache dir.
     public static final String DIR_LOCAL_CACHE = REPLACE_PROJECT_CACHE_DIR + "/minecraft";
     public static final String DIR_MCP_DATA = REPLACE_CACHE_DIR + "/de/oceanlabs/mcp/mcp/" + REPLACE_MC_VERSION;
@@ -22,6 +22,7 @@ package net.minecraftforge.gradle.patcher;
 
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -42,8 +43,11 @@ import org.gradle.api.tasks.TaskAction;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.jar.*;
 import java.util.jar.Pack200.Packer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 class TaskGenBinPatches extends DefaultTask {
     //@formatter:off
@@ -68,7 +72,11 @@ class TaskGenBinPatches extends DefaultTask {
     private final HashMap<String, String> srgMapping = new HashMap<String, String>();
     private final Multimap<String, String> innerClasses = ArrayListMultimap.create();
     private final Set<String> patchedFiles = new HashSet<String>();
-    private final Delta delta = new Delta();
+    private final ThreadLocal<Delta> deltas = new ThreadLocal<Delta>();
+
+    private static final Logger PACK200_LOGGER = Logger.getLogger("java.util.jar.Pack200");
+    private static int packing = 0;
+    private static Level packerLogLevel;
 
     //@formatter:off
     public TaskGenBinPatches() {
@@ -95,24 +103,32 @@ class TaskGenBinPatches extends DefaultTask {
             }
         }
 
-        HashMap<String, byte[]> runtime = new HashMap<String, byte[]>();
-        HashMap<String, byte[]> devtime = new HashMap<String, byte[]>();
-
-        File dirtyJar = getDirtyJar();
-
-        createBinPatches(runtime, "client/", getCleanClient(), dirtyJar);
-        createBinPatches(runtime, "server/", getCleanServer(), dirtyJar);
-        createBinPatches(devtime, "merged/", getCleanMerged(), dirtyJar);
-
-        byte[] runtimedata = createPatchJar(runtime);
-        runtimedata = pack200(runtimedata);
-        runtimedata = compress(runtimedata);
-        Files.write(runtimedata, getRuntimeBinPatches());
-
-        byte[] devtimedata = createPatchJar(devtime);
-        devtimedata = pack200(devtimedata);
-        devtimedata = compress(devtimedata);
-        Files.write(devtimedata, getDevBinPatches());
+        // every class is read once, and shared by the client, server and merged patches
+        Map<String, byte[]> dirty = readClasses(getDirtyJar());
+        Map<String, byte[]> cleanClient = readClasses(getCleanClient());
+        Map<String, byte[]> cleanServer = readClasses(getCleanServer());
+        Map<String, byte[]> cleanMerged = readClasses(getCleanMerged());
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            TreeMap<String, Future<byte[]>> runtime = new TreeMap<String, Future<byte[]>>();
+            TreeMap<String, Future<byte[]>> devtime = new TreeMap<String, Future<byte[]>>();
+
+            createBinPatches(executor, runtime, "client/", cleanClient, dirty);
+            createBinPatches(executor, runtime, "server/", cleanServer, dirty);
+            createBinPatches(executor, devtime, "merged/", cleanMerged, dirty);
+
+            Future<?> runtimeArchive = writeArchive(executor, runtime, getRuntimeBinPatches());
+            Future<?> devtimeArchive = writeArchive(executor, devtime, getDevBinPatches());
+            runtimeArchive.get();
+            devtimeArchive.get();
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
     private void addInnerClasses(String parent, Set<String> patchList) {
@@ -153,51 +169,92 @@ class TaskGenBinPatches extends DefaultTask {
         });
     }
 
-    private void createBinPatches(HashMap<String, byte[]> patches, String root, File base, File target) throws Exception {
-        try (JarFile cleanJ = new JarFile(base);
-             JarFile dirtyJ = new JarFile(target)) {
-
-            for (Map.Entry<String, String> entry : obfMapping.entrySet()) {
-                String obf = entry.getKey();
-                String srg = entry.getValue();
-
+    /**
+     * @return obf name -&gt; bytes of every class in the jar that is patched
+     */
+    private Map<String, byte[]> readClasses(File jar) throws IOException {
+        Map<String, byte[]> classes = new HashMap<String, byte[]>();
+        try (JarFile jarFile = new JarFile(jar)) {
+            for (String obf : obfMapping.keySet()) {
                 if (!patchedFiles.contains(obf)) // Not in the list of patch files.. we didn't edit it.
                 {
                     continue;
                 }
 
-                JarEntry cleanE = cleanJ.getJarEntry(obf + ".class");
-                JarEntry dirtyE = dirtyJ.getJarEntry(obf + ".class");
-
-                if (dirtyE == null) //Something odd happened.. a base MC class wasn't in the obfed jar?
-                {
-                    continue;
+                JarEntry entry = jarFile.getJarEntry(obf + ".class");
+                if (entry != null) {
+                    try (InputStream in = jarFile.getInputStream(entry)) {
+                        classes.put(obf, ByteStreams.toByteArray(in));
+                    }
                 }
+            }
+        }
+        return classes;
+    }
 
-                byte[] clean = (cleanE != null ? ByteStreams.toByteArray(cleanJ.getInputStream(cleanE)) : null);
-                byte[] dirty = ByteStreams.toByteArray(dirtyJ.getInputStream(dirtyE));
-                byte[] patchBytes = BinPatches.getBinPatchBytesWithHeader(delta, obf, srg, clean, dirty);
+    private void createBinPatches(ExecutorService executor, Map<String, Future<byte[]>> patches, String root, final Map<String, byte[]> clean, Map<String, byte[]> dirty) {
+        for (Map.Entry<String, String> entry : obfMapping.entrySet()) {
+            final String obf = entry.getKey();
+            final String srg = entry.getValue();
+            final byte[] dirtyBytes = dirty.get(obf);
 
-                patches.put(root + srg.replace('/', '.') + ".binpatch", patchBytes);
+            if (dirtyBytes == null) //Something odd happened.. a base MC class wasn't in the obfed jar? Or we didn't edit it.
+            {
+                continue;
             }
+
+            patches.put(root + srg.replace('/', '.') + ".binpatch", executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return BinPatches.getBinPatchBytesWithHeader(getDelta(), obf, srg, clean.get(obf), dirtyBytes);
+                }
+            }));
         }
     }
 
-    private byte[] createPatchJar(HashMap<String, byte[]> patches) throws Exception {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try (JarOutputStream jar = new JarOutputStream(out)) {
-            for (Map.Entry<String, byte[]> entry : patches.entrySet()) {
+    private Delta getDelta() {
+        // a Delta keeps its tables between calls, so every thread gets its own
+        Delta delta = deltas.get();
+        if (delta == null) {
+            delta = new Delta();
+            deltas.set(delta);
+        }
+        return delta;
+    }
+
+    /**
+     * Writes the patches to a jar, and packs and compresses that straight into the output file.
+     */
+    private Future<?> writeArchive(ExecutorService executor, final Map<String, Future<byte[]>> patches, final File output) throws IOException {
+        final File jar = File.createTempFile(output.getName(), ".jar", getTemporaryDir());
+        return executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    createPatchJar(patches, jar);
+                    output.getParentFile().mkdirs();
+                    try (JarFile in = new JarFile(jar);
+                         LzmaOutputStream out = new LzmaOutputStream.Builder(new BufferedOutputStream(new FileOutputStream(output))).useEndMarkerMode(true).build()) {
+                        pack200(in, out);
+                    }
+                } finally {
+                    jar.delete();
+                }
+                return null;
+            }
+        });
+    }
+
+    private void createPatchJar(Map<String, Future<byte[]>> patches, File output) throws Exception {
+        try (JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
+            for (Map.Entry<String, Future<byte[]>> entry : patches.entrySet()) {
                 jar.putNextEntry(new JarEntry("binpatch/" + entry.getKey()));
-                jar.write(entry.getValue());
+                jar.write(entry.getValue().get());
             }
         }
-        return out.toByteArray();
     }
 
-    private byte[] pack200(byte[] data) throws Exception {
-        JarInputStream in = new JarInputStream(new ByteArrayInputStream(data));
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-
+    private void pack200(JarFile in, OutputStream out) throws IOException {
         Packer packer = Pack200.newPacker();
 
         SortedMap<String, String> props = packer.properties();
@@ -205,23 +262,23 @@ class TaskGenBinPatches extends DefaultTask {
         props.put(Packer.KEEP_FILE_ORDER, Packer.TRUE);
         props.put(Packer.UNKNOWN_ATTRIBUTE, Packer.PASS);
 
-        final PrintStream err = new PrintStream(System.err);
-        System.setErr(new PrintStream(ByteStreams.nullOutputStream()));
-        packer.pack(in, out);
-        System.setErr(err);
-
-        in.close();
-        out.close();
-
-        return out.toByteArray();
-    }
-
-    private byte[] compress(byte[] data) throws Exception {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try (LzmaOutputStream lzma = new LzmaOutputStream.Builder(out).useEndMarkerMode(true).build()) {
-            lzma.write(data);
+        // the packer warns about every class it passes through, through this logger.
+        // quieting it leaves System.err alone for everything else that runs at the same time.
+        synchronized (PACK200_LOGGER) {
+            if (packing++ == 0) {
+                packerLogLevel = PACK200_LOGGER.getLevel();
+                PACK200_LOGGER.setLevel(Level.SEVERE);
+            }
+        }
+        try {
+            packer.pack(in, out);
+        } finally {
+            synchronized (PACK200_LOGGER) {
+                if (--packing == 0) {
+                    PACK200_LOGGER.setLevel(packerLogLevel);
+                }
+            }
         }
-        return out.toByteArray();
     }
 
     public File getCleanClient() {
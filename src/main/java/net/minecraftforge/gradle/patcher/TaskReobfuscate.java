@@ -21,22 +21,19 @@
 package net.minecraftforge.gradle.patcher;
 
 import com.google.common.collect.Lists;
-import com.google.common.io.Files;
 import net.md_5.specialsource.Jar;
 import net.md_5.specialsource.JarMapping;
 import net.md_5.specialsource.JarRemapper;
-import net.md_5.specialsource.provider.ClassLoaderProvider;
 import net.md_5.specialsource.provider.JarProvider;
 import net.md_5.specialsource.provider.JointProvider;
-import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.MappingCache;
 import net.minecraftforge.gradle.util.mcp.ReobfExceptor;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.*;
 
 import java.io.*;
-import java.net.URLClassLoader;
-import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -85,8 +82,7 @@ class TaskReobfuscate extends DefaultTask {
 
             File outSrg = new File(this.getTemporaryDir(), "reobf_cls.srg");
 
-            exceptor.doFirstThings();
-            exceptor.buildSrg(srg, outSrg);
+            exceptor.buildSrg(getProject(), srg, outSrg);
 
             srg = outSrg;
         }
@@ -104,21 +100,19 @@ class TaskReobfuscate extends DefaultTask {
 
     private void obfuscate(File inJar, FileCollection classpath, File srg) throws IOException {
         // load mapping
-        JarMapping mapping = new JarMapping();
-        mapping.loadMappings(Files.newReader(srg, Charset.defaultCharset()), null, null, false);
+        JarMapping mapping = MappingCache.getJarMapping(getProject(), Collections.singletonList(srg));
 
         // make remapper
         JarRemapper remapper = new JarRemapper(null, mapping);
 
         // load jar
-        URLClassLoader classLoader = null;
         try (Jar input = Jar.init(inJar)) {
             // ensure that inheritance provider is used
             JointProvider inheritanceProviders = new JointProvider();
             inheritanceProviders.add(new JarProvider(input));
 
             if (classpath != null && !classpath.isEmpty())
-                inheritanceProviders.add(new ClassLoaderProvider(classLoader = new URLClassLoader(Constants.toUrls(classpath))));
+                inheritanceProviders.add(MappingCache.getClasspathProvider(getProject(), classpath.getFiles()));
 
             mapping.setFallbackInheritanceProvider(inheritanceProviders);
 
@@ -130,9 +124,6 @@ class TaskReobfuscate extends DefaultTask {
 
             // remap jar
             remapper.remapJar(input, getOutJar());
-        } finally {
-            if (classLoader != null)
-                classLoader.close();
         }
     }
 
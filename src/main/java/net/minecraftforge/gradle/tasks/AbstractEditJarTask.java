@@ -20,30 +20,37 @@
  */
 package net.minecraftforge.gradle.tasks;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.FilenameUtils;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Map;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
 
 public abstract class AbstractEditJarTask extends CachedTask {
     private Object inJar;
     private Object outJar;
+    private long maxBufferedBytes = 64L * 1024 * 1024;
 
     protected File resolvedInJar;
     protected File resolvedOutJar;
@@ -111,20 +118,20 @@ public abstract class AbstractEditJarTask extends CachedTask {
     /**
      * Called immediately after every file is written to the jar.
      *
-     * @param jarOut    The jar output stream
+     * @param jarOut    The jar being written
      * @param entryName The path to the file in the jar
      * @throws IOException IOException
      */
-    protected void postWriteEntry(JarOutputStream jarOut, String entryName) throws IOException {
+    protected void postWriteEntry(JarWriter jarOut, String entryName) throws IOException {
     }
 
     /**
      * Called after all entries have been written to the jar. This can be useful for adding any additional entries
      *
-     * @param jarOut The jar output stream
+     * @param jarOut The jar being written
      * @throws IOException IOException
      */
-    protected void postWrite(JarOutputStream jarOut) throws IOException {
+    protected void postWrite(JarWriter jarOut) throws IOException {
     }
 
     /**
@@ -135,6 +142,17 @@ public abstract class AbstractEditJarTask extends CachedTask {
      */
     protected abstract boolean storeJarInRam();
 
+    /**
+     * Whether {@link #asRead(String, String)} may be called for several files at once.
+     * If this returns true, and the jar is not stored in RAM, the sources are processed on all cores,
+     * with at most {@link #getMaxBufferedBytes()} of them waiting to be written at a time.
+     *
+     * @return asRead is thread safe
+     */
+    protected boolean canReadInParallel() {
+        return false;
+    }
+
     final void readAndStoreJarInRam(File jar, Map<String, String> sourceMap, Map<String, byte[]> resourceMap) throws Exception {
         try (ZipInputStream zin = new ZipInputStream(new FileInputStream(jar))) {
             ZipEntry entry;
@@ -164,28 +182,26 @@ public abstract class AbstractEditJarTask extends CachedTask {
     protected void saveJar(File output, Map<String, String> sourceMap, Map<String, byte[]> resourceMap) throws IOException {
         output.getParentFile().mkdirs();
 
-        try (JarOutputStream zout = new JarOutputStream(new FileOutputStream(output))) {
-
-            // write in resources
-            for (Map.Entry<String, byte[]> entry : resourceMap.entrySet()) {
-                zout.putNextEntry(new JarEntry(entry.getKey()));
-                zout.write(entry.getValue());
-                zout.closeEntry();
-                postWriteEntry(zout, entry.getKey());
-            }
+        // sorted, so the jar is the same every time
+        Set<String> names = new TreeSet<String>(resourceMap.keySet());
+        names.addAll(sourceMap.keySet());
 
-            // write in sources
-            for (Map.Entry<String, String> entry : sourceMap.entrySet()) {
-                zout.putNextEntry(new JarEntry(entry.getKey()));
-                zout.write(entry.getValue().getBytes());
-                zout.closeEntry();
-                postWriteEntry(zout, entry.getKey());
+        try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(output)) {
+            ZipJarWriter zout = new ZipJarWriter(zip);
+            for (String name : names) {
+                String source = sourceMap.get(name);
+                writeEntry(zout, name, source != null ? source.getBytes(Constants.CHARSET) : resourceMap.get(name));
             }
 
             postWrite(zout);
         }
     }
 
+    private void writeEntry(ZipJarWriter zout, String name, byte[] data) throws IOException {
+        zout.addEntry(name, data);
+        postWriteEntry(zout, name);
+    }
+
     /**
      * Checks whether the given entry should be treated as a source file
      * <p>
@@ -209,32 +225,32 @@ public abstract class AbstractEditJarTask extends CachedTask {
     }
 
     private void copyJar(File input, File output) throws Exception {
-        // begin reading jar
-        try (ZipInputStream zin = new ZipInputStream(new FileInputStream(input));
-             JarOutputStream zout = new JarOutputStream(new FileOutputStream(output))) {
-            ZipEntry entry;
-            while ((entry = zin.getNextEntry()) != null) {
-                // no META or dirs. wel take care of dirs later.
+        try (ZipFile zin = new ZipFile(input);
+             ZipArchiveOutputStream zip = new ZipArchiveOutputStream(output)) {
+            ZipJarWriter zout = new ZipJarWriter(zip);
+            // no META or dirs. wel take care of dirs later.
+            // entries are written sorted by name, keeping the first of any duplicates.
+            Map<String, ZipArchiveEntry> entries = new TreeMap<String, ZipArchiveEntry>();
+            for (ZipArchiveEntry entry : Collections.list(zin.getEntries())) {
                 if (entry.getName().contains("META-INF")) {
                     continue;
                 }
+                if (entries.containsKey(entry.getName())) {
+                    getLogger().debug("Duplicate zip entry " + entry.getName() + " in " + input + " writing " + output);
+                    continue;
+                }
+                entries.put(entry.getName(), entry);
+            }
 
-                // resources or directories.
-                try {
+            if (canReadInParallel()) {
+                copyEntriesParallel(zin, entries.values(), zout);
+            } else {
+                for (ZipArchiveEntry entry : entries.values()) {
                     if (!isSourceFile(entry)) {
-                        zout.putNextEntry(new JarEntry(entry));
-                        ByteStreams.copy(zin, zout);
-                        zout.closeEntry();
-                        postWriteEntry(zout, entry.getName());
+                        copyRaw(zin, entry, zout);
                     } else {
-                        // source
-                        zout.putNextEntry(new JarEntry(entry.getName()));
-                        zout.write(asRead(entry.getName(), new String(ByteStreams.toByteArray(zin), Constants.CHARSET)).getBytes());
-                        zout.closeEntry();
-                        postWriteEntry(zout, entry.getName());
+                        writeEntry(zout, entry.getName(), readSource(zin, entry));
                     }
-                } catch (ZipException ex) {
-                    getLogger().debug("Duplicate zip entry " + entry.getName() + " in " + input + " writing " + output);
                 }
             }
 
@@ -242,6 +258,76 @@ public abstract class AbstractEditJarTask extends CachedTask {
         }
     }
 
+    private void copyEntriesParallel(final ZipFile zin, Collection<ZipArchiveEntry> entries, ZipJarWriter zout) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            // everything between the entry being written and the last one read, in order. Resources are not read ahead.
+            Deque<ZipArchiveEntry> pendingEntries = new ArrayDeque<ZipArchiveEntry>();
+            Deque<Future<byte[]>> pendingSources = new ArrayDeque<Future<byte[]>>();
+            long buffered = 0;
+            long maxBuffered = getMaxBufferedBytes();
+
+            for (final ZipArchiveEntry entry : entries) {
+                if (!isSourceFile(entry)) {
+                    pendingEntries.add(entry);
+                    continue;
+                }
+
+                // the size of the source is a good guess of the memory its processing holds on to
+                long size = Math.max(entry.getSize(), 0);
+                while (buffered + size > maxBuffered && !pendingEntries.isEmpty()) {
+                    buffered -= writePending(zin, pendingEntries, pendingSources, zout);
+                }
+
+                pendingEntries.add(entry);
+                pendingSources.add(executor.submit(() -> readSource(zin, entry)));
+                buffered += size;
+            }
+
+            while (!pendingEntries.isEmpty()) {
+                writePending(zin, pendingEntries, pendingSources, zout);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes the first pending entry, waiting for it to be processed if its a source.
+     *
+     * @return the size of the source that was written, or 0 for resources
+     */
+    private long writePending(ZipFile zin, Deque<ZipArchiveEntry> pendingEntries, Deque<Future<byte[]>> pendingSources, ZipJarWriter zout) throws Exception {
+        ZipArchiveEntry entry = pendingEntries.poll();
+        if (!isSourceFile(entry)) {
+            copyRaw(zin, entry, zout);
+            return 0;
+        }
+
+        try {
+            writeEntry(zout, entry.getName(), pendingSources.poll().get());
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), Exception.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+        return Math.max(entry.getSize(), 0);
+    }
+
+    private byte[] readSource(ZipFile zin, ZipArchiveEntry entry) throws Exception {
+        String source;
+        try (InputStream in = zin.getInputStream(entry)) {
+            source = new String(ByteStreams.toByteArray(in), Constants.CHARSET);
+        }
+        return asRead(entry.getName(), source).getBytes(Constants.CHARSET);
+    }
+
+    private void copyRaw(ZipFile zin, ZipArchiveEntry entry, ZipJarWriter zout) throws IOException {
+        // resources are never changed, so they dont need to be inflated and deflated again.
+        zout.zip.addRawArchiveEntry(entry, zin.getRawInputStream(entry));
+        postWriteEntry(zout, entry.getName());
+    }
+
     @InputFile
     public File getInJar() {
         return getProject().file(inJar);
@@ -260,4 +346,47 @@ public abstract class AbstractEditJarTask extends CachedTask {
     public void setOutJar(Object outJar) {
         this.outJar = outJar;
     }
+
+    /**
+     * How many bytes of sources may be read ahead of the one being written, when processing them in parallel.
+     *
+     * @return the limit in bytes
+     */
+    @Internal
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    public void setMaxBufferedBytes(long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    /**
+     * The jar being written, as the write hooks see it.
+     */
+    public interface JarWriter {
+        /**
+         * Adds a file to the jar.
+         *
+         * @param name The path to the file in the jar
+         * @param data The contents of the file
+         * @throws IOException IOException
+         */
+        void addEntry(String name, byte[] data) throws IOException;
+    }
+
+    private static final class ZipJarWriter implements JarWriter {
+        final ZipArchiveOutputStream zip;
+
+        ZipJarWriter(ZipArchiveOutputStream zip) {
+            this.zip = zip;
+        }
+
+        @Override
+        public void addEntry(String name, byte[] data) throws IOException {
+            zip.putArchiveEntry(new ZipArchiveEntry(name));
+            zip.write(data);
+            zip.closeArchiveEntry();
+        }
+    }
 }
@@ -20,7 +20,6 @@
  */
 package net.minecraftforge.gradle.tasks;
 
-import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -35,9 +34,11 @@ import net.md_5.specialsource.provider.JointProvider;
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import net.minecraftforge.gradle.util.caching.MappingCache;
 import net.minecraftforge.gradle.util.json.JsonFactory;
 import net.minecraftforge.gradle.util.json.MCInjectorStruct;
 import net.minecraftforge.gradle.util.json.MCInjectorStruct.InnerClass;
+import net.minecraftforge.gradle.util.mcp.CompiledMappings;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.*;
@@ -47,6 +48,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.function.Function;
 import java.util.zip.ZipFile;
 
 import static org.objectweb.asm.Opcodes.*;
@@ -111,11 +113,20 @@ public class DeobfuscateJar extends CachedTask {
 
     private void deobfJar(File inJar, File outJar, File srg, Collection<File> ats) throws IOException {
         // load mapping
-        JarMapping mapping = new JarMapping();
-        mapping.loadMappings(srg);
+        JarMapping mapping = MappingCache.getJarMapping(getProject(), Collections.singletonList(srg));
 
         // load in ATs
-        ErroringRemappingAccessMap accessMap = new ErroringRemappingAccessMap(new File[]{getMethodCsv(), getFieldCsv()});
+        Function<String, String> renames;
+        final CompiledMappings names = getMethodCsv() == null || getFieldCsv() == null ? null : CompiledMappings.open(getProject(), getMethodCsv(), getFieldCsv(), null);
+        if (names != null) {
+            renames = name -> {
+                String rename = names.getMethod(name);
+                return rename != null ? rename : names.getField(name);
+            };
+        } else {
+            renames = MappingCache.getCsvRenames(getProject(), getMethodCsv(), getFieldCsv())::get;
+        }
+        ErroringRemappingAccessMap accessMap = new ErroringRemappingAccessMap(renames);
 
         getLogger().info("Using AccessTransformers...");
         //Make SS shutup about access maps
@@ -434,32 +445,12 @@ public class DeobfuscateJar extends CachedTask {
     }
 
     private static final class ErroringRemappingAccessMap extends AccessMap {
-        private final Map<String, String> renames = Maps.newHashMap();
+        private final Function<String, String> renames;
         public final Map<String, String> brokenLines = Maps.newTreeMap();
 
-        public ErroringRemappingAccessMap(File[] renameCsvs) throws IOException {
+        public ErroringRemappingAccessMap(Function<String, String> renames) {
             super();
-
-            for (File f : renameCsvs) {
-                if (f == null)
-                    continue;
-                Files.readLines(f, Charsets.UTF_8, new LineProcessor<String>() {
-                    @Override
-                    public boolean processLine(String line) throws IOException {
-                        String[] pts = line.split(",");
-                        if (!"searge".equals(pts[0])) {
-                            renames.put(pts[0], pts[1]);
-                        }
-
-                        return true;
-                    }
-
-                    @Override
-                    public String getResult() {
-                        return null;
-                    }
-                });
-            }
+            this.renames = renames;
         }
 
         @Override
@@ -484,7 +475,7 @@ public class DeobfuscateJar extends CachedTask {
                     end = pts[1].substring(idx);
                 }
 
-                String rename = renames.get(start);
+                String rename = renames.apply(start);
                 if (rename != null) {
                     pts[1] = rename + end;
                 }
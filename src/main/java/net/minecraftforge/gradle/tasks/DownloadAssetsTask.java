@@ -20,15 +20,24 @@
  */
 package net.minecraftforge.gradle.tasks;
 
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import groovy.lang.Closure;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
 import net.minecraftforge.gradle.util.json.JsonFactory;
 import net.minecraftforge.gradle.util.json.version.AssetIndex;
 import net.minecraftforge.gradle.util.json.version.AssetIndex.AssetEntry;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
 import org.slf4j.Logger;
@@ -37,15 +46,19 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.URL;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DownloadAssetsTask extends DefaultTask {
     DelayedFile assetsDir;
@@ -53,9 +66,14 @@ public class DownloadAssetsTask extends DefaultTask {
     Closure<File> assetIndex;
 
     private File virtualRoot = null;
-    private final File minecraftDir = new File(Constants.getMinecraftDirectory(), "assets/objects");
+    private File minecraftDir = new File(Constants.getMinecraftDirectory(), "assets/objects");
+    private String assetsUrl = Constants.URL_ASSETS;
+    private int maxConnections = Runtime.getRuntime().availableProcessors() * 2;
 
     private static final int MAX_TRIES = 5;
+    // doubled after every failed try
+    private static final long RETRY_DELAY = 500;
+    private static final int TIMEOUT = 30000;
 
     @TaskAction
     public void doTask() throws IOException, InterruptedException {
@@ -73,22 +91,50 @@ public class DownloadAssetsTask extends DefaultTask {
             virtualRoot.mkdirs();
         }
 
-        // make thread pool
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2);
-
+        // several names can share an object, which should only be fetched once
+        Map<String, List<Asset>> byHash = new LinkedHashMap<String, List<Asset>>();
         for (Entry<String, AssetEntry> e : index.objects.entrySet()) {
             Asset asset = new Asset(e.getKey(), e.getValue().hash, e.getValue().size);
-            executor.submit(new GetAssetTask(asset, outDir, minecraftDir, virtualRoot));
+            byHash.computeIfAbsent(asset.hash, k -> new ArrayList<Asset>()).add(asset);
         }
 
-        executor.shutdown(); // complete all the tasks then shutdown.
+        // remembers which files were already checked, so they aren't hashed again while untouched
+        FileHashIndex hashes = FileHashIndex.get(new File(getProject().getGradle().getGradleUserHomeDir(), "caches/minecraft/assetHashes.bin"), "SHA1");
+        Progress progress = new Progress(byHash.size());
+
+        PoolingHttpClientConnectionManager connections = new PoolingHttpClientConnectionManager();
+        connections.setMaxTotal(maxConnections);
+        connections.setDefaultMaxPerRoute(maxConnections);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(TIMEOUT)
+                .setSocketTimeout(TIMEOUT)
+                .build();
+
+        try (CloseableHttpClient client = HttpClients.custom()
+                .setConnectionManager(connections)
+                .setDefaultRequestConfig(requestConfig)
+                .setUserAgent(Constants.USER_AGENT)
+                .build()) {
+            // no more threads than connections, so none of them wait on the pool
+            ExecutorService executor = Executors.newFixedThreadPool(maxConnections);
+
+            for (List<Asset> assets : byHash.values()) {
+                executor.submit(new GetAssetTask(assets, outDir, minecraftDir, virtualRoot, client, assetsUrl, hashes, progress));
+            }
+
+            executor.shutdown(); // complete all the tasks then shutdown.
 
-        int max = (int) executor.getTaskCount(); // its gonna be somewhere around 600-700 I think
+            // as long as the excutor isnt dead yet.
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                getLogger().lifecycle("Current status: {}", progress);
+            }
+        } finally {
+            hashes.save();
+        }
 
-        // as long as the excutor isnt dead yet.
-        while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
-            int done = (int) executor.getCompletedTaskCount();
-            getLogger().lifecycle("Current status: {}/{}   {}%", done, max, (int) ((double) done / max * 100));
+        getLogger().lifecycle("Assets done: {}", progress);
+        if (progress.failed.get() > 0) {
+            getLogger().error("{} assets could not be downloaded, see the log above", progress.failed.get());
         }
     }
 
@@ -110,6 +156,39 @@ public class DownloadAssetsTask extends DefaultTask {
         this.assetIndex = index;
     }
 
+    /**
+     * @return where the assets of the vanilla launcher are, which are copied instead of downloaded if they match
+     */
+    @Internal
+    public File getMinecraftDir() {
+        return minecraftDir;
+    }
+
+    public void setMinecraftDir(File minecraftDir) {
+        this.minecraftDir = minecraftDir;
+    }
+
+    @Internal
+    public String getAssetsUrl() {
+        return assetsUrl;
+    }
+
+    public void setAssetsUrl(String assetsUrl) {
+        this.assetsUrl = assetsUrl;
+    }
+
+    /**
+     * @return how many assets are downloaded at the same time
+     */
+    @Internal
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
     private static class Asset {
         public final String name;
         public final String path;
@@ -124,76 +203,147 @@ public class DownloadAssetsTask extends DefaultTask {
         }
     }
 
-    private static boolean checkFileCorrupt(File file, long size, String expectedHash) {
-        if (!file.exists())
+    /**
+     * Counts what happened to the assets so far. Safe to update from all the download threads.
+     */
+    private static class Progress {
+        final int total;
+        final AtomicInteger verified = new AtomicInteger();
+        final AtomicInteger copied = new AtomicInteger();
+        final AtomicInteger downloaded = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger retries = new AtomicInteger();
+        final AtomicLong bytesDownloaded = new AtomicLong();
+
+        Progress(int total) {
+            this.total = total;
+        }
+
+        @Override
+        public String toString() {
+            int done = verified.get() + copied.get() + downloaded.get() + failed.get();
+            return String.format("%d/%d   %d%% (%d up to date, %d copied, %d downloaded %.1f MB, %d retries, %d failed)",
+                    done, total, (int) ((double) done / total * 100),
+                    verified.get(), copied.get(), downloaded.get(), bytesDownloaded.get() / (1024.0 * 1024.0), retries.get(), failed.get());
+        }
+    }
+
+    private static boolean checkFileCorrupt(FileHashIndex hashes, File file, long size, String expectedHash) {
+        if (!file.isFile())
             return true;
 
         if (file.length() != size)
             return true;
 
-        return !expectedHash.equalsIgnoreCase(Constants.hash(file, "SHA1"));
+        return !expectedHash.equalsIgnoreCase(hashes.hash(file));
     }
 
     private static class GetAssetTask implements Callable<Boolean> {
         private static final Logger LOGGER = LoggerFactory.getLogger(GetAssetTask.class);
+        private final List<Asset> assets;
         private final Asset asset;
         private final File assetDir, minecraftDir, virtualRoot;
-
-        private GetAssetTask(Asset asset, File assetDir, File minecraftDir, File virtualRoot) {
-            this.asset = asset;
+        private final CloseableHttpClient client;
+        private final String assetsUrl;
+        private final FileHashIndex hashes;
+        private final Progress progress;
+
+        private GetAssetTask(List<Asset> assets, File assetDir, File minecraftDir, File virtualRoot, CloseableHttpClient client, String assetsUrl, FileHashIndex hashes, Progress progress) {
+            this.assets = assets;
+            this.asset = assets.get(0);
             this.assetDir = assetDir;
             this.minecraftDir = minecraftDir;
             this.virtualRoot = virtualRoot;
+            this.client = client;
+            this.assetsUrl = assetsUrl;
+            this.hashes = hashes;
+            this.progress = progress;
         }
 
         @Override
         public Boolean call() {
-            boolean worked = true;
-
-            for (int tryNum = 1; tryNum < MAX_TRIES + 1; tryNum++) {
+            for (int tryNum = 1; ; tryNum++) {
                 try {
-                    File file = new File(assetDir, asset.path);
-
-                    if (checkFileCorrupt(file, asset.size, asset.hash)) {
-                        file.delete();
+                    fetch().incrementAndGet();
+                    return true;
+                } catch (Exception e) {
+                    if (tryNum >= MAX_TRIES) {
+                        LOGGER.error("Error downloading asset {} after {} tries", asset.name, tryNum, e);
+                        progress.failed.incrementAndGet();
+                        return false;
                     }
 
-                    // if it exists, its good, so we dont do this stuff...
-                    if (!file.exists()) {
-                        file.getParentFile().mkdirs();
-                        File localMc = new File(minecraftDir, asset.path);
-
-                        if (checkFileCorrupt(localMc, asset.size, asset.hash)) {
-                            // download
-                            ReadableByteChannel channel = Channels.newChannel(new URL(Constants.URL_ASSETS + "/" + asset.path).openStream());
-                            try (FileOutputStream fout = new FileOutputStream(file);
-                                 FileChannel fileChannel = fout.getChannel()) {
-                                fileChannel.transferFrom(channel, 0, asset.size);
-                            }
-                        } else {
-                            // copy from MC
-                            Constants.copyFile(localMc, file, asset.size);
-                        }
+                    LOGGER.warn("Error downloading asset (try {}) : {} ({})", tryNum, asset.name, e.toString());
+                    progress.retries.incrementAndGet();
+                    try {
+                        Thread.sleep(RETRY_DELAY << (tryNum - 1));
+                    } catch (InterruptedException e1) {
+                        Thread.currentThread().interrupt();
+                        progress.failed.incrementAndGet();
+                        return false;
                     }
+                }
+            }
+        }
 
+        /**
+         * Makes sure the object and its virtual copies are there and intact.
+         *
+         * @return the counter for what had to be done
+         */
+        private AtomicInteger fetch() throws IOException {
+            AtomicInteger result = progress.verified;
+            File file = new File(assetDir, asset.path);
+
+            // if it exists, its good, so we dont do this stuff...
+            if (checkFileCorrupt(hashes, file, asset.size, asset.hash)) {
+                file.delete();
+                file.getParentFile().mkdirs();
+                File localMc = new File(minecraftDir, asset.path);
+
+                if (checkFileCorrupt(hashes, localMc, asset.size, asset.hash)) {
+                    download(file);
+                    result = progress.downloaded;
+                } else {
+                    // copy from MC
+                    Constants.copyFile(localMc, file, asset.size);
+                    result = progress.copied;
+                }
 
-                    if (virtualRoot != null) {
-                        File virtual = new File(virtualRoot, asset.name);
+                if (checkFileCorrupt(hashes, file, asset.size, asset.hash)) {
+                    file.delete();
+                    throw new IOException("Asset " + asset.name + " does not match its hash " + asset.hash);
+                }
+            }
 
-                        if (checkFileCorrupt(virtual, asset.size, asset.hash)) {
-                            virtual.delete();
-                            Constants.copyFile(file, virtual);
-                        }
-                    }
+            if (virtualRoot != null) {
+                for (Asset named : assets) {
+                    File virtual = new File(virtualRoot, named.name);
 
-                } catch (Exception e) {
-                    LOGGER.error("Error downloading asset (try {}) : {}", tryNum, asset.name);
-                    e.printStackTrace();
-                    worked = false;
+                    if (checkFileCorrupt(hashes, virtual, named.size, named.hash)) {
+                        virtual.delete();
+                        Constants.copyFile(file, virtual);
+                    }
                 }
             }
 
-            return worked;
+            return result;
+        }
+
+        private void download(File file) throws IOException {
+            String url = assetsUrl + "/" + asset.path;
+            try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+                int status = response.getStatusLine().getStatusCode();
+                if (status != 200) {
+                    throw new IOException("Server returned " + status + " for " + url);
+                }
+
+                // reading the whole entity hands the connection back to the pool
+                try (InputStream in = response.getEntity().getContent();
+                     OutputStream out = new FileOutputStream(file)) {
+                    progress.bytesDownloaded.addAndGet(ByteStreams.copy(in, out));
+                }
+            }
         }
     }
 }
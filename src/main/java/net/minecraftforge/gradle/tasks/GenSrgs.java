@@ -31,11 +31,13 @@ import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
+import net.minecraftforge.gradle.util.mcp.CompiledMappings;
 import net.minecraftforge.srg2source.rangeapplier.MethodData;
 import net.minecraftforge.srg2source.rangeapplier.SrgContainer;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.objectweb.asm.Type;
@@ -58,6 +60,9 @@ public class GenSrgs extends CachedTask {
     private DelayedFile methodsCsv;
     @InputFile
     private DelayedFile fieldsCsv;
+    @InputFile
+    @Optional
+    private DelayedFile paramsCsv;
     @Cached
     @OutputFile
     private DelayedFile notchToSrg;
@@ -101,6 +106,8 @@ public class GenSrgs extends CachedTask {
         // do EXC stuff
         writeOutExcs(inSrg, excRemap, methods);
 
+        // the CSVs again, for everything that would otherwise parse them itself
+        CompiledMappings.compile(getProject(), getMethodsCsv(), getFieldsCsv(), getParamsCsv(), getCompiledMappings());
     }
 
     private static void readCSVs(File methodCsv, File fieldCsv, Map<String, String> methodMap, Map<String, String> fieldMap) throws IOException {
@@ -451,6 +458,24 @@ public class GenSrgs extends CachedTask {
         this.fieldsCsv = fieldsCsv;
     }
 
+    public File getParamsCsv() {
+        return paramsCsv == null ? null : paramsCsv.call();
+    }
+
+    public void setParamsCsv(DelayedFile paramsCsv) {
+        this.paramsCsv = paramsCsv;
+    }
+
+    /**
+     * @return the compiled CSVs, which live next to them
+     * @see CompiledMappings
+     */
+    @Cached
+    @OutputFile
+    public File getCompiledMappings() {
+        return new File(getMethodsCsv().getParentFile(), CompiledMappings.FILE_NAME);
+    }
+
     public File getNotchToSrg() {
         return notchToSrg.call();
     }
@@ -0,0 +1,330 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Builds the manifest, signature file and signature block jarsigner adds to a jar, from the digests of its entries.
+ * Entries are digested with SHA-256, and the signature block is a PKCS#7 SignedData without signed attributes,
+ * like jarsigner makes when it isn't asked for a timestamp.
+ */
+final class JarSignature {
+    static final String MANIFEST = "META-INF/MANIFEST.MF";
+    private static final String DIGEST = "SHA-256";
+    private static final byte[] NEWLINE = {'\r', '\n'};
+
+    // ASN.1 tags
+    private static final int INTEGER = 0x02;
+    private static final int OCTET_STRING = 0x04;
+    private static final int NULL = 0x05;
+    private static final int OID = 0x06;
+    private static final int SEQUENCE = 0x30;
+    private static final int SET = 0x31;
+    private static final int CONTEXT_0 = 0xA0;
+
+    private static final String OID_DATA = "1.2.840.113549.1.7.1";
+    private static final String OID_SIGNED_DATA = "1.2.840.113549.1.7.2";
+    private static final String OID_SHA256 = "2.16.840.1.101.3.4.2.1";
+    private static final String OID_RSA = "1.2.840.113549.1.1.1";
+    private static final String OID_DSA = "1.2.840.10040.4.1";
+    private static final String OID_EC = "1.2.840.10045.2.1";
+
+    private final String name;
+    private final PrivateKey key;
+    private final X509Certificate[] chain;
+
+    private byte[] manifest;
+    private byte[] signatureFile;
+    private byte[] signatureBlock;
+
+    /**
+     * @param alias the alias of the key, which the signature files are named after
+     * @param key   the key to sign with
+     * @param chain the certificate chain of the key, starting with its own
+     */
+    JarSignature(String alias, PrivateKey key, Certificate[] chain) {
+        this.name = getBaseName(alias);
+        this.key = key;
+        this.chain = new X509Certificate[chain.length];
+        for (int i = 0; i < chain.length; i++)
+            this.chain[i] = (X509Certificate) chain[i];
+
+        if (!key.getAlgorithm().equals("RSA") && !key.getAlgorithm().equals("DSA") && !key.getAlgorithm().equals("EC"))
+            throw new IllegalArgumentException("Can't sign jars with " + key.getAlgorithm() + " keys");
+    }
+
+    /**
+     * @return the digest of the data, as the manifest holds it
+     */
+    static String digest(InputStream in) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            digest.update(buffer, 0, read);
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    /**
+     * @return if the entry belongs to the signature of the jar, and so isn't signed itself
+     */
+    static boolean isSignatureRelated(String entryName) {
+        String name = entryName.toUpperCase(Locale.ENGLISH);
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) != -1)
+            return false;
+
+        return name.equals(MANIFEST) || name.endsWith(".SF") || name.endsWith(".DSA") || name.endsWith(".RSA") ||
+                name.endsWith(".EC") || name.startsWith("META-INF/SIG-");
+    }
+
+    /**
+     * Adds the digests to the manifest, and signs it.
+     *
+     * @param original the manifest of the jar, which isn't changed
+     * @param digests  entry name -&gt; digest of every entry to sign, in the order they should be listed
+     */
+    void sign(Manifest original, Map<String, String> digests) throws IOException, GeneralSecurityException {
+        Map<String, Attributes> sections = new LinkedHashMap<String, Attributes>();
+        for (Map.Entry<String, Attributes> e : original.getEntries().entrySet())
+            sections.put(e.getKey(), (Attributes) e.getValue().clone());
+        for (Map.Entry<String, String> e : digests.entrySet())
+            sections.computeIfAbsent(e.getKey(), k -> new Attributes()).putValue(DIGEST + "-Digest", e.getValue());
+
+        ByteArrayOutputStream mf = new ByteArrayOutputStream();
+        ByteArrayOutputStream sf = new ByteArrayOutputStream();
+
+        // main attributes
+        Attributes main = original.getMainAttributes();
+        writeAttribute(mf, Attributes.Name.MANIFEST_VERSION.toString(), main.getValue(Attributes.Name.MANIFEST_VERSION) == null ? "1.0" : main.getValue(Attributes.Name.MANIFEST_VERSION));
+        for (Map.Entry<Object, Object> e : main.entrySet()) {
+            if (!Attributes.Name.MANIFEST_VERSION.equals(e.getKey()))
+                writeAttribute(mf, e.getKey().toString(), e.getValue().toString());
+        }
+        mf.write(NEWLINE);
+        String mainDigest = digest(mf.toByteArray(), 0, mf.size());
+
+        // the sections, which the signature file holds the digests of
+        ByteArrayOutputStream sfSections = new ByteArrayOutputStream();
+        for (Map.Entry<String, Attributes> section : sections.entrySet()) {
+            int start = mf.size();
+            writeAttribute(mf, "Name", section.getKey());
+            for (Map.Entry<Object, Object> e : section.getValue().entrySet())
+                writeAttribute(mf, e.getKey().toString(), e.getValue().toString());
+            mf.write(NEWLINE);
+
+            writeAttribute(sfSections, "Name", section.getKey());
+            writeAttribute(sfSections, DIGEST + "-Digest", digest(mf.toByteArray(), start, mf.size() - start));
+            sfSections.write(NEWLINE);
+        }
+        manifest = mf.toByteArray();
+
+        writeAttribute(sf, Attributes.Name.SIGNATURE_VERSION.toString(), "1.0");
+        writeAttribute(sf, DIGEST + "-Digest-Manifest-Main-Attributes", mainDigest);
+        writeAttribute(sf, DIGEST + "-Digest-Manifest", digest(manifest, 0, manifest.length));
+        writeAttribute(sf, "Created-By", System.getProperty("java.version") + " (" + System.getProperty("java.vendor") + ")");
+        sf.write(NEWLINE);
+        sfSections.writeTo(sf);
+        signatureFile = sf.toByteArray();
+
+        signatureBlock = buildBlock(signatureFile);
+    }
+
+    String getSignatureFileName() {
+        return "META-INF/" + name + ".SF";
+    }
+
+    String getSignatureBlockName() {
+        return "META-INF/" + name + "." + key.getAlgorithm();
+    }
+
+    byte[] getManifest() {
+        return manifest;
+    }
+
+    byte[] getSignatureFile() {
+        return signatureFile;
+    }
+
+    byte[] getSignatureBlock() {
+        return signatureBlock;
+    }
+
+    private byte[] buildBlock(byte[] content) throws IOException, GeneralSecurityException {
+        String encryption;
+        String signatureAlgorithm;
+        switch (key.getAlgorithm()) {
+            case "RSA":
+                encryption = OID_RSA;
+                signatureAlgorithm = "SHA256withRSA";
+                break;
+            case "DSA":
+                encryption = OID_DSA;
+                signatureAlgorithm = "SHA256withDSA";
+                break;
+            default:
+                encryption = OID_EC;
+                signatureAlgorithm = "SHA256withECDSA";
+                break;
+        }
+
+        Signature signature = Signature.getInstance(signatureAlgorithm);
+        signature.initSign(key);
+        signature.update(content);
+        byte[] signed = signature.sign();
+
+        byte[] digestAlgorithm = der(SEQUENCE, oid(OID_SHA256), der(NULL));
+        // RSA keys carry NULL parameters, the others none
+        byte[] encryptionAlgorithm = encryption.equals(OID_RSA) ? der(SEQUENCE, oid(encryption), der(NULL)) : der(SEQUENCE, oid(encryption));
+
+        ByteArrayOutputStream certificates = new ByteArrayOutputStream();
+        for (X509Certificate cert : chain)
+            certificates.write(cert.getEncoded());
+
+        X509Certificate cert = chain[0];
+        byte[] signerInfo = der(SEQUENCE,
+                integer(BigInteger.ONE),
+                der(SEQUENCE, cert.getIssuerX500Principal().getEncoded(), integer(cert.getSerialNumber())),
+                digestAlgorithm,
+                encryptionAlgorithm,
+                der(OCTET_STRING, signed));
+
+        byte[] signedData = der(SEQUENCE,
+                integer(BigInteger.ONE),
+                der(SET, digestAlgorithm),
+                der(SEQUENCE, oid(OID_DATA)),
+                der(CONTEXT_0, certificates.toByteArray()),
+                der(SET, signerInfo));
+
+        return der(SEQUENCE, oid(OID_SIGNED_DATA), der(CONTEXT_0, signedData));
+    }
+
+    /**
+     * Writes the attribute, breaking it into lines of at most 72 bytes without splitting any character.
+     */
+    private static void writeAttribute(ByteArrayOutputStream out, String name, String value) {
+        byte[] line = (name + ": " + value).getBytes(StandardCharsets.UTF_8);
+        int pos = 0;
+        int width = 72;
+        while (line.length - pos > width) {
+            int end = pos + width;
+            while ((line[end] & 0xC0) == 0x80)
+                end--;
+            out.write(line, pos, end - pos);
+            out.write('\r');
+            out.write('\n');
+            out.write(' ');
+            pos = end;
+            width = 71; // the continuation lines start with a space
+        }
+        out.write(line, pos, line.length - pos);
+        out.write('\r');
+        out.write('\n');
+    }
+
+    private static String digest(byte[] data, int offset, int length) {
+        MessageDigest digest = newDigest();
+        digest.update(data, offset, length);
+        return Base64.getEncoder().encodeToString(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // every JRE has SHA-256
+        }
+    }
+
+    /**
+     * The name jarsigner gives the signature files of the alias.
+     */
+    private static String getBaseName(String alias) {
+        String base = alias.toUpperCase(Locale.ENGLISH);
+        if (base.length() > 8)
+            base = base.substring(0, 8);
+
+        StringBuilder builder = new StringBuilder(base.length());
+        for (char c : base.toCharArray()) {
+            boolean valid = (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '_';
+            builder.append(valid ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    // DER encoding
+
+    private static byte[] der(int tag, byte[]... contents) {
+        int length = 0;
+        for (byte[] content : contents)
+            length += content.length;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + 6);
+        out.write(tag);
+        if (length < 0x80) {
+            out.write(length);
+        } else {
+            int bytes = (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+            out.write(0x80 | bytes);
+            for (int i = bytes - 1; i >= 0; i--)
+                out.write(length >>> (i * 8));
+        }
+        for (byte[] content : contents)
+            out.write(content, 0, content.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] integer(BigInteger value) {
+        return der(INTEGER, value.toByteArray());
+    }
+
+    private static byte[] oid(String oid) {
+        String[] parts = oid.split("\\.");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBase128(out, Long.parseLong(parts[0]) * 40 + Long.parseLong(parts[1]));
+        for (int i = 2; i < parts.length; i++)
+            writeBase128(out, Long.parseLong(parts[i]));
+        return der(OID, out.toByteArray());
+    }
+
+    private static void writeBase128(ByteArrayOutputStream out, long value) {
+        int groups = Math.max(1, (64 - Long.numberOfLeadingZeros(value) + 6) / 7);
+        for (int i = groups - 1; i >= 0; i--)
+            out.write((int) ((value >>> (i * 7)) & 0x7F) | (i == 0 ? 0 : 0x80));
+    }
+}
@@ -23,6 +23,7 @@ package net.minecraftforge.gradle.tasks;
 import com.google.common.base.Function;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.ByteStreams;
@@ -31,20 +32,18 @@ import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Type;
+import org.objectweb.asm.*;
 import org.objectweb.asm.tree.*;
 
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.*;
 
 public class MergeJars extends CachedTask {
     @InputFile
@@ -70,58 +69,64 @@ public class MergeJars extends CachedTask {
     private void processJar(File clientInFile, File serverInFile, File outFile) throws IOException {
         try (ZipFile cInJar = new ZipFile(clientInFile);
              ZipFile sInJar = new ZipFile(serverInFile);
-             ZipOutputStream outJar = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outFile)))) {
+             ZipArchiveOutputStream outJar = new ZipArchiveOutputStream(outFile)) {
             // read in the jars, and initalize some variables
             HashSet<String> resources = new HashSet<String>();
-            HashMap<String, ZipEntry> cClasses = getClassEntries(cInJar, outJar, resources);
-            HashMap<String, ZipEntry> sClasses = getClassEntries(sInJar, outJar, resources);
-            HashSet<String> cAdded = new HashSet<String>();
-
-            // start processing
-            for (Entry<String, ZipEntry> entry : cClasses.entrySet()) {
-                String name = entry.getKey();
-                ZipEntry cEntry = entry.getValue();
-                ZipEntry sEntry = sClasses.get(name);
-
-                if (sEntry == null) {
-                    copyClass(cInJar, cEntry, outJar, true);
-                    cAdded.add(name);
-                    continue;
-                }
+            TreeMap<String, ZipArchiveEntry> cClasses = getClassEntries(cInJar, outJar, resources);
+            TreeMap<String, ZipArchiveEntry> sClasses = getClassEntries(sInJar, outJar, resources);
+
+            // every class, in the order they are written
+            TreeSet<String> names = new TreeSet<String>(cClasses.keySet());
+            names.addAll(sClasses.keySet());
+
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                // classes are merged in parallel, but only a few are kept in memory ahead of the one being written
+                int window = Runtime.getRuntime().availableProcessors() * 4;
+                Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+                Deque<String> pendingNames = new ArrayDeque<String>();
+
+                for (final String name : names) {
+                    final ZipArchiveEntry cEntry = cClasses.get(name);
+                    final ZipArchiveEntry sEntry = sClasses.get(name);
+
+                    pending.add(executor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws Exception {
+                            if (sEntry == null) {
+                                return copyClass(readEntry(cInJar, cEntry), true);
+                            } else if (cEntry == null) {
+                                if (DEBUG) {
+                                    System.out.println("Copy class s->c : " + name);
+                                }
+                                return copyClass(readEntry(sInJar, sEntry), false);
+                            } else {
+                                return processClass(readEntry(cInJar, cEntry), readEntry(sInJar, sEntry));
+                            }
+                        }
+                    }));
+                    pendingNames.add(name);
 
-                sClasses.remove(name);
-                byte[] cData = readEntry(cInJar, entry.getValue());
-                byte[] sData = readEntry(sInJar, sEntry);
-                byte[] data = processClass(cData, sData);
-
-                ZipEntry newEntry = new ZipEntry(cEntry.getName());
-                try {
-                    outJar.putNextEntry(newEntry);
-                    outJar.write(data);
-                } finally {
-                    outJar.closeEntry();
+                    if (pending.size() >= window) {
+                        writeClass(outJar, pendingNames.poll(), pending.poll());
+                    }
                 }
-                cAdded.add(name);
-            }
 
-            for (Entry<String, ZipEntry> entry : sClasses.entrySet()) {
-                if (DEBUG) {
-                    System.out.println("Copy class s->c : " + entry.getKey());
+                while (!pending.isEmpty()) {
+                    writeClass(outJar, pendingNames.poll(), pending.poll());
                 }
-                copyClass(sInJar, entry.getValue(), outJar, false);
+            } finally {
+                executor.shutdownNow();
             }
 
             for (String name : new String[]{sideOnlyClass.getName(), sideClass.getName()}) {
                 String eName = name.replace(".", "/");
                 String classPath = eName + ".class";
-                ZipEntry newEntry = new ZipEntry(classPath);
-                if (!cAdded.contains(eName)) {
-                    try {
-                        outJar.putNextEntry(newEntry);
-                        outJar.write(getClassBytes(name));
-                    } finally {
-                        outJar.closeEntry();
-                    }
+                ZipArchiveEntry newEntry = new ZipArchiveEntry(classPath);
+                if (!names.contains(eName)) {
+                    outJar.putArchiveEntry(newEntry);
+                    outJar.write(getClassBytes(name));
+                    outJar.closeArchiveEntry();
                 }
             }
 
@@ -130,29 +135,85 @@ public class MergeJars extends CachedTask {
         }
     }
 
-    private void copyClass(ZipFile inJar, ZipEntry entry, ZipOutputStream outJar, boolean isClientOnly) throws IOException {
-        ClassReader reader = new ClassReader(readEntry(inJar, entry));
-        ClassNode classNode = new ClassNode();
+    private void writeClass(ZipArchiveOutputStream outJar, String name, Future<byte[]> data) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while merging " + name);
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
 
-        reader.accept(classNode, 0);
+        outJar.putArchiveEntry(new ZipArchiveEntry(name + ".class"));
+        outJar.write(bytes);
+        outJar.closeArchiveEntry();
+    }
 
-        if (classNode.visibleAnnotations == null) {
-            classNode.visibleAnnotations = new ArrayList<AnnotationNode>();
-        }
-        classNode.visibleAnnotations.add(getSideAnn(isClientOnly));
+    /**
+     * Marks a class that only exists on one side. Nothing else about the class changes,
+     * so this is done while streaming it through, without building a tree.
+     */
+    private byte[] copyClass(byte[] data, final boolean isClientOnly) {
+        ClassReader reader = new ClassReader(data);
+        ClassWriter writer = new ClassWriter(reader, 0);
 
-        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-        classNode.accept(writer);
-        byte[] data = writer.toByteArray();
+        reader.accept(new ClassVisitor(Opcodes.ASM6, writer) {
+            private boolean added = false;
 
-        ZipEntry newEntry = new ZipEntry(entry.getName());
-        if (outJar != null) {
-            outJar.putNextEntry(newEntry);
-            outJar.write(data);
-        }
+            // the annotation goes after all existing visible annotations, which are visited first.
+            private void addSideOnly() {
+                if (!added) {
+                    added = true;
+                    AnnotationNode ann = getSideAnn(isClientOnly);
+                    ann.accept(cv.visitAnnotation(ann.desc, true));
+                }
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String desc, boolean visible) {
+                addSideOnly();
+                return super.visitTypeAnnotation(typeRef, typePath, desc, visible);
+            }
+
+            @Override
+            public void visitAttribute(Attribute attr) {
+                addSideOnly();
+                super.visitAttribute(attr);
+            }
+
+            @Override
+            public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                addSideOnly();
+                super.visitInnerClass(name, outerName, innerName, access);
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                addSideOnly();
+                return super.visitField(access, name, desc, signature, value);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                addSideOnly();
+                return super.visitMethod(access, name, desc, signature, exceptions);
+            }
+
+            @Override
+            public void visitEnd() {
+                addSideOnly();
+                super.visitEnd();
+            }
+        }, 0);
+
+        return writer.toByteArray();
     }
 
-    private byte[] readEntry(ZipFile inFile, ZipEntry entry) throws IOException {
+    private byte[] readEntry(ZipFile inFile, ZipArchiveEntry entry) throws IOException {
         try (InputStream is = inFile.getInputStream(entry)) {
             return ByteStreams.toByteArray(is);
         }
@@ -170,13 +231,13 @@ public class MergeJars extends CachedTask {
      * @param inFile    From which to read classes and resources
      * @param outFile   The place to write resources and ignored classes
      * @param resources The registry to add resources to, and to check against.
-     * @return HashMap of all the desired Classes and their ZipEntrys
+     * @return All the desired Classes and their ZipEntrys, sorted by name
      * @throws IOException
      */
-    private HashMap<String, ZipEntry> getClassEntries(ZipFile inFile, ZipOutputStream outFile, HashSet<String> resources) throws IOException {
-        HashMap<String, ZipEntry> ret = new HashMap<String, ZipEntry>();
+    private TreeMap<String, ZipArchiveEntry> getClassEntries(ZipFile inFile, ZipArchiveOutputStream outFile, HashSet<String> resources) throws IOException {
+        TreeMap<String, ZipArchiveEntry> ret = new TreeMap<String, ZipArchiveEntry>();
 
-        for (ZipEntry entry : Collections.list(inFile.entries())) {
+        for (ZipArchiveEntry entry : Collections.list(inFile.getEntries())) {
             String entryName = entry.getName();
             // Always skip the manifest
             if ("META-INF/MANIFEST.MF".equals(entryName)) {
@@ -194,9 +255,8 @@ public class MergeJars extends CachedTask {
 
             if (!entryName.endsWith(".class") || entryName.startsWith(".")) {
                 if (!resources.contains(entryName)) {
-                    ZipEntry newEntry = new ZipEntry(entryName);
-                    outFile.putNextEntry(newEntry);
-                    outFile.write(readEntry(inFile, entry));
+                    // resources are not touched, so copy them without inflating them
+                    outFile.addRawArchiveEntry(entry, inFile.getRawInputStream(entry));
                     resources.add(entryName);
                 }
             } else {
@@ -23,7 +23,9 @@ package net.minecraftforge.gradle.tasks;
 import com.cloudbees.diff.PatchException;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.io.Files;
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
@@ -42,18 +44,15 @@ import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class PatchSourcesTask extends AbstractEditJarTask {
-    /*
-     * TODO: optimization plans
-     * 1) doStufBefore> read all the patch files into a map as strings stored by relative path.
-     * 2) doStufBefore> Create a threaded Executor to patch the files
-     * 3) AsRead > kick off the patching threads
-     * 4) ????
-     * 5) profit from multithreaded oatching. Its CPU bound anyways.
-     */
     private int maxFuzz = 0;
     private int patchStrip = 3;
     private boolean makeRejects = true;
@@ -121,6 +120,9 @@ public class PatchSourcesTask extends AbstractEditJarTask {
         // apply patches
         getLogger().info("Applying patches");
         applyPatches();
+
+        // write the patched files back
+        context.flush();
     }
 
     private void inject(FileCollection injects, final Map<String, String> sourceMap, final Map<String, byte[]> resourceMap) throws IOException {
@@ -162,13 +164,38 @@ public class PatchSourcesTask extends AbstractEditJarTask {
         }
     }
 
-    private void applyPatches() throws IOException, PatchException {
+    private void applyPatches() throws IOException, PatchException, InterruptedException {
+        // patches that touch the same file have to run in order, everything else is independent.
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<ForkJoinTask<?>> tasks = Lists.newArrayList();
+            for (final List<PatchedFile> group : groupByTarget()) {
+                tasks.add(pool.submit(() -> {
+                    for (PatchedFile patch : group) {
+                        patch.reports = patch.patch.patch(false);
+                    }
+                    return null;
+                }));
+            }
+
+            for (ForkJoinTask<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    Throwables.propagateIfPossible(e.getCause(), IOException.class, PatchException.class);
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        // report in the order the patches were loaded, not the order they finished in
         boolean fuzzed = false;
         Throwable failure = null;
 
         for (PatchedFile patch : loadedPatches) {
-            List<ContextualPatch.PatchReport> errors = patch.patch.patch(false);
-            for (ContextualPatch.PatchReport report : errors) {
+            for (ContextualPatch.PatchReport report : patch.reports) {
                 // catch failed patches
                 if (!report.getStatus().isSuccess()) {
                     StringBuilder rejectBuilder = new StringBuilder();
@@ -241,6 +268,53 @@ public class PatchSourcesTask extends AbstractEditJarTask {
         }
     }
 
+    /**
+     * Splits the loaded patches into groups that share no target file, keeping the load order inside each group.
+     */
+    private List<List<PatchedFile>> groupByTarget() throws IOException, PatchException {
+        Map<String, List<PatchedFile>> groupByFile = Maps.newHashMap();
+        List<List<PatchedFile>> groups = Lists.newArrayList();
+
+        for (PatchedFile patch : loadedPatches) {
+            List<PatchedFile> group = null;
+
+            for (String target : patch.patch.getTargetPaths()) {
+                if (target == null)
+                    continue;
+
+                List<PatchedFile> other = groupByFile.get(context.strip(target));
+                if (other == null || other == group)
+                    continue;
+
+                if (group == null) {
+                    group = other;
+                } else {
+                    // this patch joins two groups, merge them keeping the load order
+                    group.addAll(other);
+                    group.sort(Comparator.comparingInt(loadedPatches::indexOf));
+                    groups.removeIf(g -> g == other);
+                    for (Map.Entry<String, List<PatchedFile>> e : groupByFile.entrySet()) {
+                        if (e.getValue() == other)
+                            e.setValue(group);
+                    }
+                }
+            }
+
+            if (group == null) {
+                group = Lists.newArrayList();
+                groups.add(group);
+            }
+            group.add(patch);
+
+            for (String target : patch.patch.getTargetPaths()) {
+                if (target != null)
+                    groupByFile.put(context.strip(target), group);
+            }
+        }
+
+        return groups;
+    }
+
     // START GETTERS/SETTERS HERE
 
     @Input
@@ -344,6 +418,9 @@ public class PatchSourcesTask extends AbstractEditJarTask {
     private static class ContextProvider implements ContextualPatch.IContextProvider {
         public Map<String, String> fileMap;
 
+        // every file is split into lines once, and joined again once all patches are done.
+        private final Map<String, List<String>> lineMap = new ConcurrentHashMap<String, List<String>>();
+
         private final int stripAmmount;
 
         public ContextProvider(Map<String, String> fileMap, int stripAmmount) {
@@ -364,11 +441,18 @@ public class PatchSourcesTask extends AbstractEditJarTask {
         public List<String> getData(String target) {
             target = strip(target);
 
+            List<String> lines = lineMap.get(target);
+            if (lines != null) {
+                // the patcher edits the list in place, even when it wont call setData
+                return new ArrayList<String>(lines);
+            }
+
             if (fileMap.containsKey(target)) {
-                String[] lines = fileMap.get(target).split("\r\n|\r|\n");
-                List<String> ret = new ArrayList<String>();
-                Collections.addAll(ret, lines);
-                return ret;
+                String[] split = fileMap.get(target).split("\r\n|\r|\n");
+                List<String> ret = new ArrayList<String>(split.length);
+                Collections.addAll(ret, split);
+                lineMap.put(target, ret);
+                return new ArrayList<String>(ret);
             }
 
             return null;
@@ -377,13 +461,24 @@ public class PatchSourcesTask extends AbstractEditJarTask {
         @Override
         public void setData(String target, List<String> data) {
             target = strip(target);
-            fileMap.put(target, Joiner.on(Constants.NEWLINE).join(data));
+            lineMap.put(target, data);
+        }
+
+        /**
+         * Writes every file that was read or patched back into the file map.
+         */
+        public void flush() {
+            for (Map.Entry<String, List<String>> e : lineMap.entrySet()) {
+                fileMap.put(e.getKey(), Joiner.on(Constants.NEWLINE).join(e.getValue()));
+            }
+            lineMap.clear();
         }
     }
 
     private static class PatchedFile {
         public final File fileToPatch;
         public final ContextualPatch patch;
+        public List<ContextualPatch.PatchReport> reports;
 
         public PatchedFile(File file, ContextProvider provider, int maxFuzz) throws IOException {
             this.fileToPatch = file;
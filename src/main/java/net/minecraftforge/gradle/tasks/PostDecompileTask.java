@@ -25,7 +25,6 @@ import com.github.abrarsyed.jastyle.OptParser;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
@@ -48,8 +47,7 @@ import org.gradle.api.tasks.InputFiles;
 
 import java.io.*;
 import java.util.*;
-import java.util.jar.JarOutputStream;
-import java.util.zip.ZipEntry;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 public class PostDecompileTask extends AbstractEditJarTask {
     private Object patchDir;
@@ -59,10 +57,13 @@ public class PostDecompileTask extends AbstractEditJarTask {
     //private static final Pattern         BEFORE      = Pattern.compile("(?m)((case|default).+(?:\\r\\n|\\r|\\n))(?:\\r\\n|\\r|\\n)");
     //private static final Pattern         AFTER       = Pattern.compile("(?m)(?:\\r\\n|\\r|\\n)((?:\\r\\n|\\r|\\n)[ \\t]+(case|default))");
 
-    private final Set<String> seenPackages = Sets.newHashSet();
+    private final Set<String> seenPackages = Sets.newTreeSet();
     private final Multimap<String, File> patchesMap = ArrayListMultimap.create();
-    private final List<PatchAttempt> patchErrors = Lists.newArrayList();
-    private final ASFormatter formatter = new ASFormatter();
+    // keyed by file name, so they are reported in the same order however the files were scheduled
+    private final Map<String, PatchAttempt> patchErrors = new ConcurrentSkipListMap<String, PatchAttempt>();
+    // the formatter keeps the state of the file its formatting, so every thread needs its own
+    private final ThreadLocal<ASFormatter> formatters = new ThreadLocal<ASFormatter>();
+    private File resolvedAstyleConfig;
     private GLConstantFixer oglFixer;
 
     @Override
@@ -79,11 +80,9 @@ public class PostDecompileTask extends AbstractEditJarTask {
             patchesMap.put(name.substring(0, patchIndex), f);
         }
 
-        formatter.setUseProperInnerClassIndenting(false);
-        OptParser parser = new OptParser(formatter);
-        parser.parseOptionFile(getAstyleConfig());
+        resolvedAstyleConfig = getAstyleConfig();
 
-        oglFixer = new GLConstantFixer();
+        oglFixer = GLConstantFixer.getInstance();
     }
 
     class PatchAttempt {
@@ -110,7 +109,7 @@ public class PostDecompileTask extends AbstractEditJarTask {
             ContextProvider provider = new ContextProvider(file);
             ContextualPatch patch = findPatch(patchFiles, provider, getLogger());
             if (patch != null) {
-                patchErrors.add(new PatchAttempt(patch.patch(false), file));
+                patchErrors.put(name, new PatchAttempt(patch.patch(false), file));
                 file = provider.getAsString();
             }
         }
@@ -130,7 +129,7 @@ public class PostDecompileTask extends AbstractEditJarTask {
         getLogger().debug("formatting source");
         Reader reader = new StringReader(file);
         Writer writer = new StringWriter();
-        formatter.format(reader, writer);
+        getFormatter().format(reader, writer);
         reader.close();
         writer.flush();
         writer.close();
@@ -144,14 +143,31 @@ public class PostDecompileTask extends AbstractEditJarTask {
         return file;
     }
 
+    private ASFormatter getFormatter() throws Exception {
+        ASFormatter formatter = formatters.get();
+        if (formatter == null) {
+            formatter = new ASFormatter();
+            formatter.setUseProperInnerClassIndenting(false);
+            OptParser parser = new OptParser(formatter);
+            parser.parseOptionFile(resolvedAstyleConfig);
+            formatters.set(formatter);
+        }
+        return formatter;
+    }
+
+    @Override
+    protected boolean canReadInParallel() {
+        return true;
+    }
+
     @Override
-    protected void postWriteEntry(JarOutputStream jarOut, String entryName) throws IOException {
+    protected void postWriteEntry(JarWriter jarOut, String entryName) throws IOException {
         if (entryName.startsWith("net/minecraft/") && entryName.endsWith(".java"))
             this.seenPackages.add(entryName.substring(0, entryName.lastIndexOf('/')));
     }
 
     @Override
-    protected void postWrite(JarOutputStream jarOut) throws IOException {
+    protected void postWrite(JarWriter jarOut) throws IOException {
         File file = ((DelayedFile) this.injectDir).call();
         File info = new File(file, "package-info-template.java");
         if (info.exists()) {
@@ -159,9 +175,7 @@ public class PostDecompileTask extends AbstractEditJarTask {
             getLogger().info("Adding package-infos");
             for (String pkg : this.seenPackages) {
                 getLogger().info("  " + pkg + "/package-info.java");
-                jarOut.putNextEntry(new ZipEntry(pkg + "/package-info.java"));
-                jarOut.write(template.replaceAll("\\{PACKAGE\\}", pkg.replace('/', '.')).getBytes());
-                jarOut.closeEntry();
+                jarOut.addEntry(pkg + "/package-info.java", template.replaceAll("\\{PACKAGE\\}", pkg.replace('/', '.')).getBytes());
             }
         }
         File common = new File(file, "common/");
@@ -174,9 +188,7 @@ public class PostDecompileTask extends AbstractEditJarTask {
                 String full = f.getAbsolutePath().replace('\\', '/');
                 String name = full.substring(root.length());
                 getLogger().info("  Injecting: " + name);
-                jarOut.putNextEntry(new ZipEntry(name));
-                jarOut.write(Resources.toByteArray(f.toURI().toURL()));
-                jarOut.closeEntry();
+                jarOut.addEntry(name, Resources.toByteArray(f.toURI().toURL()));
             }
         }
     }
@@ -185,7 +197,7 @@ public class PostDecompileTask extends AbstractEditJarTask {
     public void doStuffAfter() throws Exception {
         boolean fuzzed = false;
         Throwable error = null;
-        for (PatchAttempt attempt : patchErrors) {
+        for (PatchAttempt attempt : patchErrors.values()) {
             for (PatchReport report : attempt.report) {
                 if (!report.getStatus().isSuccess()) {
                     //getLogger().log(LogLevel.ERROR, "Patching failed: " + report.getTarget(), report.getFailure());
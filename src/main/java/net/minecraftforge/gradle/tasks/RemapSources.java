@@ -27,10 +27,15 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Strings;
 import com.google.common.collect.Maps;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.ArtifactCache;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
+import net.minecraftforge.gradle.util.mcp.CompiledMappings;
 import net.minecraftforge.gradle.util.mcp.JavadocAdder;
+import net.minecraftforge.gradle.util.mcp.SrgTokenRemapper;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -39,42 +44,79 @@ import java.util.Map;
 import java.util.function.Function;
 
 public class RemapSources extends AbstractEditJarTask {
+    private static final int FORMAT_VERSION = 1;
+
     private DelayedFile methodsCsv;
     private DelayedFile fieldsCsv;
     private DelayedFile paramsCsv;
     private boolean addsJavadocs = true;
+    private boolean usesSharedCache = false;
 
-    private final Map<String, String> methods = Maps.newHashMap();
-    private final Map<String, String> methodDocs = Maps.newHashMap();
-    private final Map<String, String> fields = Maps.newHashMap();
-    private final Map<String, String> fieldDocs = Maps.newHashMap();
-    private final Map<String, String> params = Maps.newHashMap();
-
+    private SrgTokenRemapper remapper;
+    private Function<String, String> methodDocs;
+    private Function<String, String> fieldDocs;
 
-    private static final Pattern SRG_FINDER = Pattern.compile("func_[0-9]+_[a-zA-Z_]+|field_[0-9]+_[a-zA-Z_]+|p_[\\w]+_\\d+_\\b");
     private static final Pattern METHOD_JAVADOC_PATTERN = Pattern.compile("^(?<indent>(?: {4})+|\\t+)(?!return)(?:\\w+\\s+)*(?<generic><[\\w\\W]*>\\s+)?(?<return>\\w+[\\w$.]*(?:<[\\w\\W]*>)?[\\[\\]]*)\\s+(?<name>func_[0-9]+_[a-zA-Z_]+)\\(");
     private static final Pattern FIELD_JAVADOC_PATTERN = Pattern.compile("^(?<indent>(?: {4})+|\\t+)(?!return)(?:\\w+\\s+)*(?:\\w+[\\w$.]*(?:<[\\w\\W]*>)?[\\[\\]]*)\\s+(?<name>field_[0-9]+_[a-zA-Z_]+) *(?:=|;)");
 
+    @Override
+    @TaskAction
+    public void doTask() throws Throwable {
+        if (!usesSharedCache) {
+            super.doTask();
+            return;
+        }
+
+        FileHashIndex index = FileHashIndex.get(getProject());
+        ArtifactCache cache = ArtifactCache.get(getProject(), Constants.CACHE_DEOBF_DEPS, Constants.CACHE_DEOBF_DEPS_SIZE);
+        String key = cache.key("sources", FORMAT_VERSION, addsJavadocs, index.hash(getInJar()),
+                index.hash(getMethodsCsv()), index.hash(getFieldsCsv()), index.hash(getParamsCsv()));
+
+        if (cache.fetch(key, getOutJar())) {
+            getLogger().debug("Using cached remapped " + getInJar());
+            return;
+        }
+
+        super.doTask();
+
+        cache.publish(key, getOutJar());
+    }
+
     @Override
     public void doStuffBefore() throws Exception {
+        CompiledMappings names = CompiledMappings.open(getProject(), getMethodsCsv(), getFieldsCsv(), getParamsCsv());
+        if (names != null) {
+            // the names are looked up in the compiled file as they are needed
+            remapper = new SrgTokenRemapper(names);
+            methodDocs = names::getMethodDoc;
+            fieldDocs = names::getFieldDoc;
+            return;
+        }
+
         // read CSV files
+        remapper = new SrgTokenRemapper();
+        Map<String, String> methodDocs = Maps.newHashMap();
+        Map<String, String> fieldDocs = Maps.newHashMap();
+        this.methodDocs = methodDocs::get;
+        this.fieldDocs = fieldDocs::get;
+
         CSVReader reader = Constants.getReader(getMethodsCsv());
         for (String[] s : reader.readAll()) {
-            methods.put(s[0], s[1]);
+            remapper.putMethod(s[0], s[1]);
             if (!s[3].isEmpty() && addsJavadocs)
                 methodDocs.put(s[0], s[3]);
         }
 
         reader = Constants.getReader(getFieldsCsv());
         for (String[] s : reader.readAll()) {
-            fields.put(s[0], s[1]);
+            remapper.putField(s[0], s[1]);
             if (!s[3].isEmpty() && addsJavadocs)
                 fieldDocs.put(s[0], s[3]);
         }
 
         reader = Constants.getReader(getParamsCsv());
         for (String[] s : reader.readAll()) {
-            params.put(s[0], s[1]);
+            remapper.putParam(s[0], s[1]);
         }
     }
 
@@ -83,16 +125,23 @@ public class RemapSources extends AbstractEditJarTask {
         return false;
     }
 
+    @Override
+    protected boolean canReadInParallel() {
+        // the remapper and the javadocs are only written in doStuffBefore
+        return true;
+    }
+
     @Override
     public String asRead(String name, String text) {
         ArrayList<String> newLines = new ArrayList<String>();
+        StringBuilder buf = new StringBuilder();
         for (String line : Constants.lines(text)) {
             // basically all this code is to find the javadocs for a field before replacing it.
             // if we aren't doing javadocs... screw dat.
             if (addsJavadocs) {
-                injectJavadoc(newLines, line, methodDocs::get, fieldDocs::get);
+                injectJavadoc(newLines, line, methodDocs, fieldDocs);
             }
-            newLines.add(replaceInLine(line));
+            newLines.add(remapper.remap(line, buf));
         }
 
         return Joiner.on(Constants.NEWLINE).join(newLines);
@@ -141,29 +190,6 @@ public class RemapSources extends AbstractEditJarTask {
         list.add(list.size() - back, line);
     }
 
-    private String replaceInLine(String line) {
-        // FAR all methods
-        StringBuffer buf = new StringBuffer();
-        Matcher matcher = SRG_FINDER.matcher(line);
-        while (matcher.find()) {
-            String find = matcher.group();
-
-            if (find.startsWith("p_"))
-                find = params.get(find);
-            else if (find.startsWith("func_"))
-                find = methods.get(find);
-            else if (find.startsWith("field_"))
-                find = fields.get(find);
-
-            if (find == null)
-                find = matcher.group();
-
-            matcher.appendReplacement(buf, find);
-        }
-        matcher.appendTail(buf);
-        return buf.toString();
-    }
-
     @InputFile
     public File getMethodsCsv() {
         return methodsCsv.call();
@@ -204,6 +230,18 @@ public class RemapSources extends AbstractEditJarTask {
         this.addsJavadocs = javadoc;
     }
 
+    /**
+     * Whether the remapped jar is shared with other builds through the {@link ArtifactCache} of the gradle user home.
+     * Only worth it for jars that many projects remap with the same mappings, like the sources of dependencies.
+     */
+    public boolean usesSharedCache() {
+        return usesSharedCache;
+    }
+
+    public void setUsesSharedCache(boolean usesSharedCache) {
+        this.usesSharedCache = usesSharedCache;
+    }
+
     @Override
     public void doStuffMiddle(Map<String, String> sourceMap, Map<String, byte[]> resourceMap) throws Exception {
     }
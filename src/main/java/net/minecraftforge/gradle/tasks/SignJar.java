@@ -21,15 +21,15 @@
 package net.minecraftforge.gradle.tasks;
 
 import com.google.common.base.Strings;
-import com.google.common.collect.Maps;
-import com.google.common.io.ByteStreams;
+import com.google.common.base.Throwables;
 import groovy.lang.Closure;
-import groovy.util.MapEntry;
+import net.minecraftforge.gradle.util.ZipEntryElement;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.FileTreeElement;
-import org.gradle.api.file.FileVisitDetails;
-import org.gradle.api.file.FileVisitor;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.*;
@@ -37,13 +37,17 @@ import org.gradle.api.tasks.util.PatternFilterable;
 import org.gradle.api.tasks.util.PatternSet;
 
 import java.io.*;
-import java.util.Collections;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.jar.JarOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Manifest;
 
 import static net.minecraftforge.gradle.common.Constants.resolveString;
 
@@ -66,103 +70,121 @@ public class SignJar extends DefaultTask implements PatternFilterable {
 
     @TaskAction
     public void doTask() throws IOException {
-        final Map<String, Entry<byte[], Long>> ignoredStuff = Maps.newHashMap();
         File input = getInputFile();
-        File toSign = new File(getTemporaryDir(), input.getName() + ".unsigned.tmp");
-        File signed = new File(getTemporaryDir(), input.getName() + ".signed.tmp");
         File output = getOutputFile();
 
-        // load in input jar, and create temp jar
-        processInputJar(input, toSign, ignoredStuff);
+        JarSignature signature = loadSignature();
+        Spec<FileTreeElement> toSign = patternSet.getAsSpec();
+        // where entries are extracted to if a spec asks for their files
+        File extracted = new File(getTemporaryDir(), "entries");
+
+        try (final ZipFile in = new ZipFile(input)) {
+            List<ZipArchiveEntry> entries = Collections.list(in.getEntriesInPhysicalOrder());
+
+            // digest everything there is to sign in parallel
+            Map<String, String> digests = new LinkedHashMap<String, String>();
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                Map<String, Future<String>> pending = new LinkedHashMap<String, Future<String>>();
+                for (final ZipArchiveEntry e : entries) {
+                    if (e.isDirectory() || !toSign.isSatisfiedBy(new ZipEntryElement(in, e, extracted)) || JarSignature.isSignatureRelated(e.getName()))
+                        continue;
+
+                    pending.put(e.getName(), executor.submit(new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            try (InputStream data = in.getInputStream(e)) {
+                                return JarSignature.digest(data);
+                            }
+                        }
+                    }));
+                }
 
-        // SIGN!
-        Map<String, Object> map = Maps.newHashMap();
-        map.put("alias", getAlias());
-        map.put("storePass", getStorePass());
-        map.put("jar", toSign.getAbsolutePath());
-        map.put("signedJar", signed.getAbsolutePath());
+                for (Map.Entry<String, Future<String>> e : pending.entrySet()) {
+                    digests.put(e.getKey(), get(e.getKey(), e.getValue()));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
 
-        if (!Strings.isNullOrEmpty(getKeyPass()))
-            map.put("keypass", getKeyPass());
-        if (!Strings.isNullOrEmpty(getKeyStore()))
-            map.put("keyStore", getKeyStore());
+            Manifest manifest = new Manifest();
+            ZipArchiveEntry manifestEntry = in.getEntry(JarSignature.MANIFEST);
+            if (manifestEntry != null) {
+                try (InputStream data = in.getInputStream(manifestEntry)) {
+                    manifest.read(data);
+                }
+            }
 
-        getProject().getAnt().invokeMethod("signjar", map);
+            try {
+                signature.sign(manifest, digests);
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("Could not sign " + input, e);
+            }
 
-        // write out
-        writeOutputJar(signed, output, ignoredStuff);
+            // the manifest and signature go first, everything else is copied as it is, signed or not
+            output.getParentFile().mkdirs();
+            try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(output)) {
+                long time = System.currentTimeMillis();
+                writeEntry(out, JarSignature.MANIFEST, signature.getManifest(), time);
+                writeEntry(out, signature.getSignatureFileName(), signature.getSignatureFile(), time);
+                writeEntry(out, signature.getSignatureBlockName(), signature.getSignatureBlock(), time);
+
+                for (ZipArchiveEntry e : entries) {
+                    String name = e.getName();
+                    if (name.equalsIgnoreCase(JarSignature.MANIFEST) ||
+                            name.equalsIgnoreCase(signature.getSignatureFileName()) ||
+                            name.equalsIgnoreCase(signature.getSignatureBlockName()))
+                        continue;
+
+                    out.addRawArchiveEntry(e, in.getRawInputStream(e));
+                }
+            }
+        } finally {
+            getProject().delete(extracted);
+        }
     }
 
-    private void processInputJar(File inputJar, File toSign, final Map<String, Entry<byte[], Long>> unsigned) throws IOException {
-        final Spec<FileTreeElement> spec = patternSet.getAsSpec();
+    private JarSignature loadSignature() throws IOException {
+        // the same defaults the signjar task of ant has
+        File storeFile = Strings.isNullOrEmpty(getKeyStore()) ? new File(System.getProperty("user.home"), ".keystore") : getProject().file(getKeyStore());
+        String keyPass = Strings.isNullOrEmpty(getKeyPass()) ? getStorePass() : getKeyPass();
 
-        toSign.getParentFile().mkdirs();
-        try (JarOutputStream outs = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(toSign)))) {
+        try (InputStream stream = new FileInputStream(storeFile)) {
+            KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+            store.load(stream, getStorePass().toCharArray());
 
-            getProject().zipTree(inputJar).visit(new FileVisitor() {
+            PrivateKey key = (PrivateKey) store.getKey(getAlias(), keyPass.toCharArray());
+            Certificate[] chain = store.getCertificateChain(getAlias());
+            if (key == null || chain == null || chain.length == 0)
+                throw new IllegalArgumentException("There is no key with a certificate named " + getAlias() + " in " + storeFile);
 
-                @Override
-                public void visitDir(FileVisitDetails details) {
-                    try {
-                        String path = details.getPath();
-                        ZipEntry entry = new ZipEntry(path.endsWith("/") ? path : path + "/");
-                        outs.putNextEntry(entry);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-
-                @Override
-                @SuppressWarnings("unchecked")
-                public void visitFile(FileVisitDetails details) {
-                    try {
-                        if (spec.isSatisfiedBy(details)) {
-                            ZipEntry entry = new ZipEntry(details.getPath());
-                            entry.setTime(details.getLastModified());
-                            outs.putNextEntry(entry);
-                            details.copyTo(outs);
-                            outs.closeEntry();
-                        } else {
-                            try (InputStream stream = details.open()) {
-                                unsigned.put(details.getPath(), new MapEntry(ByteStreams.toByteArray(stream), details.getLastModified()));
-                            }
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-
-            });
+            return new JarSignature(getAlias(), key, chain);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Could not load the key " + getAlias() + " from " + storeFile, e);
         }
     }
 
-    private void writeOutputJar(File signedJar, File outputJar, Map<String, Entry<byte[], Long>> unsigned) throws IOException {
-        outputJar.getParentFile().mkdirs();
-
-        try (JarOutputStream outs = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(outputJar)));
-             ZipFile base = new ZipFile(signedJar)) {
-            for (ZipEntry e : Collections.list(base.entries())) {
-                if (e.isDirectory()) {
-                    outs.putNextEntry(e);
-                } else {
-                    ZipEntry n = new ZipEntry(e.getName());
-                    n.setTime(e.getTime());
-                    outs.putNextEntry(n);
-                    ByteStreams.copy(base.getInputStream(e), outs);
-                    outs.closeEntry();
-                }
-            }
-
-            for (Map.Entry<String, Map.Entry<byte[], Long>> e : unsigned.entrySet()) {
-                ZipEntry n = new ZipEntry(e.getKey());
-                n.setTime(e.getValue().getValue());
-                outs.putNextEntry(n);
-                outs.write(e.getValue().getKey());
-                outs.closeEntry();
-            }
+    private static String get(String name, Future<String> digest) throws IOException {
+        try {
+            return digest.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while digesting " + name);
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
         }
     }
 
+    private static void writeEntry(ZipArchiveOutputStream out, String name, byte[] data, long time) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(time);
+        out.putArchiveEntry(entry);
+        out.write(data);
+        out.closeArchiveEntry();
+    }
+
     @InputFiles
     public Provider<FileCollection> getInputFiles() {
         return getProject().provider(() -> getProject().zipTree(inputFile).matching(patternSet));
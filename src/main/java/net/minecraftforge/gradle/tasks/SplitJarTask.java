@@ -21,12 +21,14 @@
 package net.minecraftforge.gradle.tasks;
 
 import groovy.lang.Closure;
+import net.minecraftforge.gradle.util.ZipEntryElement;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.file.FileTreeElement;
-import org.gradle.api.file.FileVisitDetails;
-import org.gradle.api.file.FileVisitor;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.*;
@@ -34,11 +36,9 @@ import org.gradle.api.tasks.util.PatternFilterable;
 import org.gradle.api.tasks.util.PatternSet;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
 
 public class SplitJarTask extends CachedTask implements PatternFilterable {
     @InputFile
@@ -56,9 +56,6 @@ public class SplitJarTask extends CachedTask implements PatternFilterable {
 
     @TaskAction
     public void doTask() throws IOException {
-        // get the spec
-        final Spec<FileTreeElement> spec = pattern.getAsSpec();
-
         File input = getInJar();
 
         File out1 = getOutFirst();
@@ -67,38 +64,24 @@ public class SplitJarTask extends CachedTask implements PatternFilterable {
         out1.getParentFile().mkdirs();
         out2.getParentFile().mkdirs();
 
-        // begin reading jar
-        try (JarOutputStream zout1 = new JarOutputStream(new FileOutputStream(out1));
-             JarOutputStream zout2 = new JarOutputStream(new FileOutputStream(out2))) {
-
-            getProject().zipTree(input).visit(new FileVisitor() {
-
-                @Override
-                public void visitDir(FileVisitDetails details) {
-                    // ignore directories
-                }
-
-                @Override
-                public void visitFile(FileVisitDetails details) {
-                    JarEntry entry = new JarEntry(details.getPath());
-                    entry.setSize(details.getSize());
-                    entry.setTime(details.getLastModified());
-
-                    try {
-                        if (spec.isSatisfiedBy(details)) {
-                            zout1.putNextEntry(entry);
-                            details.copyTo(zout1);
-                            zout1.closeEntry();
-                        } else {
-                            zout2.putNextEntry(entry);
-                            details.copyTo(zout2);
-                            zout2.closeEntry();
-                        }
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            });
+        Spec<FileTreeElement> spec = pattern.getAsSpec();
+        // where entries are extracted to if a spec asks for their files
+        File extracted = new File(getTemporaryDir(), "entries");
+
+        // entries are copied as they are, without inflating them
+        try (ZipFile in = new ZipFile(input);
+             ZipArchiveOutputStream zout1 = new ZipArchiveOutputStream(out1);
+             ZipArchiveOutputStream zout2 = new ZipArchiveOutputStream(out2)) {
+            for (ZipArchiveEntry entry : Collections.list(in.getEntriesInPhysicalOrder())) {
+                // ignore directories
+                if (entry.isDirectory())
+                    continue;
+
+                ZipArchiveOutputStream zout = spec.isSatisfiedBy(new ZipEntryElement(in, entry, extracted)) ? zout1 : zout2;
+                zout.addRawArchiveEntry(entry, in.getRawInputStream(entry));
+            }
+        } finally {
+            getProject().delete(extracted);
         }
     }
 
@@ -21,14 +21,10 @@
 package net.minecraftforge.gradle.tasks;
 
 import com.google.common.base.Charsets;
-import com.google.common.collect.Maps;
-import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import net.minecraftforge.gradle.util.AnnotationUtils;
-import net.minecraftforge.gradle.util.AnnotationUtils.ASMInfo;
-import net.minecraftforge.gradle.util.AnnotationUtils.Annotation;
+import net.minecraftforge.gradle.util.AnnotationUtils.JarInfo;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputFile;
@@ -36,14 +32,9 @@ import org.gradle.api.tasks.TaskAction;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.io.Writer;
 
 public class TaskExtractAnnotationsText extends DefaultTask {
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-
     @InputFile
     private Object jar;
     @OutputFile
@@ -73,39 +64,12 @@ public class TaskExtractAnnotationsText extends DefaultTask {
     public void doTask() throws IOException {
         File input = getJar();
 
-        Map<String, ASMInfo> asm_info = Maps.newTreeMap(); //Tree map because I like sorted outputs.
-        //Map<String, Integer> class_versions = Maps.newTreeMap();
-
         try (ZipFile in = new ZipFile(input)) {
-            for (ZipEntry e : Collections.list(in.entries())) {
-                if (e.isDirectory())
-                    continue;
+            JarInfo info = AnnotationUtils.processJar(in, null, name -> !name.endsWith("$.class")); //Scala synthetic class, skip
 
-                // correct source name
-                if (e.getName().endsWith(".class")) {
-                    if (e.getName().endsWith("$.class")) //Scala synthetic class, skip
-                        continue;
-                    byte[] data = ByteStreams.toByteArray(in.getInputStream(e));
-                    ASMInfo info = AnnotationUtils.processClass(data);
-                    if (info != null) {
-                        String name = e.getName().substring(0, e.getName().length() - 6);
-                        //class_versions.put(name, info.version);
-                        info.version = null;
-                        if (info.annotations != null) {
-                            for (Annotation anno : info.annotations) {
-                                if (anno.values != null && anno.values.size() == 1 && anno.values.containsKey("value")) {
-                                    anno.value = anno.values.get("value");
-                                    anno.values = null;
-                                }
-                            }
-                        }
-                        if (info.annotations != null || info.interfaces != null)
-                            asm_info.put(name, info);
-                    }
-                }
+            try (Writer writer = Files.newWriter(getOutput(), Charsets.UTF_8)) {
+                AnnotationUtils.writeJson(info.asm_info, writer);
             }
-
-            Files.write(GSON.toJson(asm_info), getOutput(), Charsets.UTF_8);
         }
     }
 }
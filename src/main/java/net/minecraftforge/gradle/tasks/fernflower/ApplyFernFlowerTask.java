@@ -20,11 +20,20 @@
  */
 package net.minecraftforge.gradle.tasks.fernflower;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 import groovy.lang.Closure;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.GradleConfigurationException;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.codehaus.groovy.runtime.ResourceGroovyMethods;
 import org.gradle.api.Action;
 import org.gradle.api.file.FileCollection;
@@ -35,19 +44,34 @@ import org.gradle.api.tasks.TaskAction;
 import org.gradle.process.ExecResult;
 import org.gradle.process.JavaExecSpec;
 import org.jetbrains.java.decompiler.main.DecompilerContext;
+import org.jetbrains.java.decompiler.main.decompiler.BaseDecompiler;
 import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectOutputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.management.ManagementFactory;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 public class ApplyFernFlowerTask extends CachedTask {
 
     // 2.5 GB
     private static final long REQUIRED_MEMORY = (long) (2.5 * 1024 * 1024 * 1024);
     private static final String FORK_FLAG = "forkDecompile";
+    private static final String CACHE_FLAG = "decompileCache";
+    private static final String SHARDS_FLAG = "decompileShards";
+    private static final String SHARD_HEAP_FLAG = "decompileShardHeap";
+    private static final String DEFAULT_SHARD_HEAP = "2G";
 
     @InputFile
     Object inJar;
@@ -80,6 +104,15 @@ public class ApplyFernFlowerTask extends CachedTask {
         mapOptions.put(IFernflowerPreferences.MAX_PROCESSING_METHOD, "0");
         mapOptions.put(DecompilerContext.RENAMER_FACTORY, AdvancedJadRenamerFactory.class.getName());
 
+        // caching only if the property is "true", as sources decompiled one class group at a time
+        // aren't known to always match those of the whole jar
+        boolean cacheAllowed = getProject().hasProperty(CACHE_FLAG) && Boolean.parseBoolean(getProject().property(CACHE_FLAG).toString());
+        int shards = getShardCount();
+        if (cacheAllowed || shards > 1) {
+            decompileByClass(in, out, tempDir, mapOptions, cacheAllowed, shards);
+            return;
+        }
+
         FernFlowerSettings settings = new FernFlowerSettings(tempDir, in, tempJar, Constants.getTaskLogFile(getProject(), getName() + ".log"), classpath.getFiles(), mapOptions);
 
         runFernFlower(settings);
@@ -87,6 +120,267 @@ public class ApplyFernFlowerTask extends CachedTask {
         Constants.copyFile(tempJar, out);
     }
 
+    /**
+     * Decompiles the jar one {@link ClassGroup} at a time, so they can be split over several processes
+     * and those already in the {@link DecompileCache} can be skipped.
+     */
+    private void decompileByClass(File in, File out, File tempDir, Map<String, Object> mapOptions, boolean useCache, int shards) throws IOException {
+        Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+        try (ZipFile zip = new ZipFile(in)) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                    try (InputStream stream = zip.getInputStream(entry)) {
+                        classes.put(entry.getName(), ByteStreams.toByteArray(stream));
+                    }
+                }
+            }
+        }
+        Map<String, ClassGroup> groups = ClassGroup.group(classes);
+
+        DecompileCache cache = useCache ? new DecompileCache(getDecompileCacheDir(), getCacheSalt(mapOptions), getCacheSize()) : null;
+        Map<String, String> sources = new TreeMap<String, String>();
+        Map<ClassGroup, String> missing = new LinkedHashMap<ClassGroup, String>();
+        for (ClassGroup group : groups.values()) {
+            String key = cache == null ? null : cache.getKey(group);
+            Map<String, String> cached = cache == null ? null : cache.get(key);
+            if (cached == null) {
+                missing.put(group, key);
+            } else {
+                sources.putAll(cached);
+            }
+        }
+
+        if (missing.isEmpty()) {
+            getLogger().info("All {} class groups were decompiled before", groups.size());
+        } else {
+            if (missing.size() < groups.size())
+                getLogger().lifecycle("Decompiling {} of {} class groups, the rest were decompiled before", missing.size(), groups.size());
+            Map<String, Map<String, String>> decompiled = decompileGroups(missing.keySet(), in, classes, tempDir, mapOptions, shards);
+
+            for (Map.Entry<ClassGroup, String> entry : missing.entrySet()) {
+                Map<String, String> groupSources = decompiled.get(entry.getKey().getName());
+                if (groupSources == null || groupSources.isEmpty()) {
+                    // not cached, so a failure that depends on the run isn't kept forever
+                    getLogger().warn("FernFlower produced no sources for {}", entry.getKey().getName());
+                    continue;
+                }
+                if (cache != null)
+                    cache.put(entry.getValue(), groupSources);
+                sources.putAll(groupSources);
+            }
+
+            if (cache != null)
+                cache.trim();
+        }
+
+        writeJar(in, out, sources);
+    }
+
+    /**
+     * Decompiles the given groups, split over the given number of processes.
+     *
+     * @return group name -&gt; entry name -&gt; source
+     */
+    private Map<String, Map<String, String>> decompileGroups(Collection<ClassGroup> groups, final File in, final Map<String, byte[]> classes, File tempDir, final Map<String, Object> mapOptions, int shards) throws IOException {
+        // configurations can't be resolved from other threads
+        final Set<File> libraries = classpath.getFiles();
+
+        List<List<ClassGroup>> split = ClassGroup.split(groups, shards);
+        if (split.size() <= 1) {
+            List<ClassGroup> all = split.isEmpty() ? Collections.<ClassGroup>emptyList() : split.get(0);
+            return decompileShard(all, in, classes, tempDir, Constants.getTaskLogFile(getProject(), getName() + ".log"), libraries, mapOptions, null, null);
+        }
+
+        final String heap = getShardHeap();
+        final Set<File> forkedFiles = forkedClasspath.getFiles();
+        getLogger().lifecycle("Decompiling in {} processes", split.size());
+        ExecutorService executor = Executors.newFixedThreadPool(split.size());
+        try {
+            List<Future<Map<String, Map<String, String>>>> futures = new ArrayList<Future<Map<String, Map<String, String>>>>();
+            for (int i = 0; i < split.size(); i++) {
+                final List<ClassGroup> shard = split.get(i);
+                final File shardDir = new File(tempDir, "shard" + i);
+                final File logFile = Constants.getTaskLogFile(getProject(), getName() + "-shard" + i + ".log");
+                futures.add(executor.submit(() -> decompileShard(shard, in, classes, shardDir, logFile, libraries, mapOptions, heap, forkedFiles)));
+            }
+
+            Map<String, Map<String, String>> decompiled = new HashMap<String, Map<String, String>>();
+            for (Future<Map<String, Map<String, String>>> future : futures) {
+                try {
+                    decompiled.putAll(future.get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while decompiling", e);
+                } catch (ExecutionException e) {
+                    Throwables.propagateIfPossible(e.getCause(), IOException.class);
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            return decompiled;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs FernFlower on the given groups, with the rest of the classes of the jar as a library.
+     *
+     * @param forkedHeap  the heap of the process to run it in, or null to run it like a whole jar would be.
+     *                    The process is started without going through the project, so this can run on any thread.
+     * @param forkedFiles the classpath of that process
+     * @return group name -&gt; entry name -&gt; source
+     */
+    private Map<String, Map<String, String>> decompileShard(Collection<ClassGroup> groups, File in, Map<String, byte[]> classes, File tempDir, File logFile, Set<File> libraries, Map<String, Object> mapOptions, String forkedHeap, Set<File> forkedFiles) throws IOException {
+        File inputDir = new File(tempDir, "input");
+        inputDir.mkdirs();
+        // FernFlower names its output after the input
+        File partialJar = new File(inputDir, in.getName());
+        File contextJar = new File(inputDir, "context-" + in.getName());
+        File tempJar = new File(tempDir, in.getName());
+
+        Map<String, String> classToGroup = new HashMap<String, String>();
+        try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(partialJar))) {
+            for (ClassGroup group : groups) {
+                for (Map.Entry<String, byte[]> entry : group.getClasses().entrySet()) {
+                    String name = entry.getKey();
+                    classToGroup.put(name.substring(0, name.length() - ".class".length()), group.getName());
+                    zout.putNextEntry(new ZipEntry(name));
+                    zout.write(entry.getValue());
+                    zout.closeEntry();
+                }
+            }
+        }
+
+        // the other classes still have to be known to decompile these the same way
+        try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(contextJar))) {
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                String name = entry.getKey();
+                if (!classToGroup.containsKey(name.substring(0, name.length() - ".class".length()))) {
+                    zout.putNextEntry(new ZipEntry(name));
+                    zout.write(entry.getValue());
+                    zout.closeEntry();
+                }
+            }
+        }
+
+        Set<File> allLibraries = new LinkedHashSet<File>(libraries);
+        allLibraries.add(contextJar);
+        tempJar.delete();
+        FernFlowerSettings settings = new FernFlowerSettings(tempDir, partialJar, tempJar, logFile, allLibraries, mapOptions);
+        if (forkedHeap != null) {
+            runShardProcess(settings, forkedHeap, forkedFiles);
+        } else {
+            runFernFlower(settings);
+        }
+
+        Map<String, Map<String, String>> decompiled = new HashMap<String, Map<String, String>>();
+        try (ZipFile zip = new ZipFile(tempJar)) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".java"))
+                    continue;
+
+                // root classes are saved next to where their class file was
+                String group = classToGroup.get(name.substring(0, name.length() - ".java".length()));
+                if (group == null) {
+                    getLogger().warn("Decompiled source {} does not belong to any class", name);
+                    continue;
+                }
+
+                Map<String, String> groupSources = decompiled.get(group);
+                if (groupSources == null) {
+                    groupSources = new TreeMap<String, String>();
+                    decompiled.put(group, groupSources);
+                }
+                try (InputStream stream = zip.getInputStream(entry)) {
+                    groupSources.put(name, new String(ByteStreams.toByteArray(stream), Constants.CHARSET));
+                }
+            }
+        }
+        return decompiled;
+    }
+
+    /**
+     * Writes everything that is not a class like FernFlower would, followed by the sources.
+     */
+    private static void writeJar(File in, File out, Map<String, String> sources) throws IOException {
+        out.getParentFile().mkdirs();
+        Set<String> written = new HashSet<String>();
+
+        try (ZipFile zin = new ZipFile(in);
+             ZipArchiveOutputStream zout = new ZipArchiveOutputStream(out)) {
+            for (ZipArchiveEntry entry : Collections.list(zin.getEntries())) {
+                if ((entry.isDirectory() || !entry.getName().endsWith(".class")) && written.add(entry.getName())) {
+                    zout.addRawArchiveEntry(entry, zin.getRawInputStream(entry));
+                }
+            }
+
+            for (Map.Entry<String, String> entry : sources.entrySet()) {
+                if (written.add(entry.getKey())) {
+                    zout.putArchiveEntry(new ZipArchiveEntry(entry.getKey()));
+                    zout.write(entry.getValue().getBytes(Constants.CHARSET));
+                    zout.closeArchiveEntry();
+                }
+            }
+        }
+    }
+
+    private File getDecompileCacheDir() {
+        return new File(getProject().getGradle().getGradleUserHomeDir(), "caches/minecraft/" + Constants.CACHE_DECOMPILED_CLASSES);
+    }
+
+    /**
+     * @return the size limit of the decompile cache in bytes, which can be set in megabytes with the decompiledClassesSize property
+     */
+    private long getCacheSize() {
+        String flag = Constants.CACHE_DECOMPILED_CLASSES + "Size";
+        long size = getProject().hasProperty(flag) ? Long.parseLong(getProject().property(flag).toString().trim()) : Constants.CACHE_DECOMPILED_CLASSES_SIZE;
+        return size * 1024 * 1024;
+    }
+
+    /**
+     * @return a digest of everything besides the class itself that changes how it is decompiled
+     */
+    private String getCacheSalt(Map<String, Object> mapOptions) {
+        FileHashIndex index = FileHashIndex.get(getProject());
+        Hasher hasher = Hashing.sha256().newHasher();
+
+        hasher.putString(new TreeMap<String, Object>(mapOptions).toString(), Constants.CHARSET);
+
+        // the decompiler, and this plugin for the renamer
+        for (Class<?> cls : new Class<?>[] { BaseDecompiler.class, AdvancedJadRenamer.class }) {
+            CodeSource source = cls.getProtectionDomain().getCodeSource();
+            File location = null;
+            try {
+                location = source == null ? null : new File(source.getLocation().toURI());
+            } catch (Exception e) {
+                // handled below
+            }
+
+            if (location == null || !location.exists()) {
+                // can't tell what version it is, so dont reuse anything.
+                hasher.putString(UUID.randomUUID().toString(), Constants.CHARSET);
+            } else {
+                for (String hash : index.hashAll(location)) {
+                    hasher.putString(String.valueOf(hash), Constants.CHARSET);
+                }
+            }
+        }
+
+        // the order of the libraries doesn't matter
+        List<String> libraries = new ArrayList<String>();
+        for (File file : classpath.getFiles()) {
+            libraries.addAll(index.hashAll(file));
+        }
+        Collections.sort(libraries, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+        for (String hash : libraries) {
+            hasher.putString(String.valueOf(hash), Constants.CHARSET);
+        }
+
+        index.save();
+        return hasher.hash().toString();
+    }
+
     private void runFernFlower(FernFlowerSettings settings) throws IOException {
         // forking allowed if the property is not present or it is "true" ("true" is the default)
         boolean forkAllowed = !getProject().hasProperty(FORK_FLAG) || Boolean.parseBoolean(getProject().property(FORK_FLAG).toString());
@@ -96,15 +390,110 @@ public class ApplyFernFlowerTask extends CachedTask {
         } else {
             // put this in the info logs, but day-to-day use doesn't need to see it
             getLogger().info("Note: " + Constants.GROUP_FG + " is forking a new process to run decompilation.");
-            getLogger().debug("Settings: {}", settings);
-            final File data = File.createTempFile("fg-fernflowersettings", ".ser");
+            runForkedFernFlower(settings, "3G", forkedClasspath);
+        }
+    }
+
+    private void runForkedFernFlower(FernFlowerSettings settings, String maxHeap, Object forkedFiles) throws IOException {
+        getLogger().debug("Settings: {}", settings);
+        final File data = File.createTempFile("fg-fernflowersettings", ".ser");
+        try {
+            writeSettings(settings, data);
+            runForkedFernFlower(data, maxHeap, forkedFiles);
+        } finally {
+            data.delete();
+        }
+    }
+
+    /**
+     * Runs FernFlower in a new process of the current Java, like {@link #runForkedFernFlower(File, String, Object)}
+     * but through a ProcessBuilder, as the project can't be used from the threads the shards run on.
+     */
+    private void runShardProcess(FernFlowerSettings settings, String maxHeap, Set<File> forkedFiles) throws IOException {
+        getLogger().debug("Settings: {}", settings);
+        final File data = File.createTempFile("fg-fernflowersettings", ".ser");
+        try {
+            writeSettings(settings, data);
+
+            StringBuilder classpath = new StringBuilder();
+            for (File file : forkedFiles) {
+                if (classpath.length() > 0)
+                    classpath.append(File.pathSeparatorChar);
+                classpath.append(file.getAbsolutePath());
+            }
+
+            File java = new File(System.getProperty("java.home"), "bin/java");
+            Process process = new ProcessBuilder(java.getAbsolutePath(), "-Xmx" + maxHeap, "-cp", classpath.toString(),
+                    FernFlowerInvoker.class.getName(), data.getAbsolutePath())
+                    .redirectErrorStream(true)
+                    .start();
+
+            // forward the output, like javaexec does
+            try (InputStream output = process.getInputStream()) {
+                ByteStreams.copy(output, System.out);
+            }
+
+            int exit = process.waitFor();
+            if (exit != 0)
+                throw new IOException("FernFlower exited with " + exit + ", see " + settings.getTaskLogFile());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompiling");
+        } finally {
+            data.delete();
+        }
+    }
+
+    /**
+     * How many processes decompilation is split over, from the decompileShards property.
+     * "auto" starts one per core, as far as the memory of the machine allows.
+     */
+    private int getShardCount() {
+        if (!getProject().hasProperty(SHARDS_FLAG))
+            return 1;
+
+        String value = getProject().property(SHARDS_FLAG).toString().trim();
+        if (!"auto".equalsIgnoreCase(value)) {
             try {
-                writeSettings(settings, data);
-                runForkedFernFlower(data);
-            } finally {
-                data.delete();
+                return Math.max(1, Integer.parseInt(value));
+            } catch (NumberFormatException e) {
+                throw new GradleConfigurationException(SHARDS_FLAG + " must be a number or auto, not " + value, e);
             }
         }
+
+        int shards = Runtime.getRuntime().availableProcessors();
+        try {
+            long memory = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize();
+            shards = (int) Math.min(shards, memory / parseMemory(getShardHeap()));
+        } catch (ClassCastException | LinkageError e) {
+            // not a vm that tells us, so go by cores alone
+        }
+        return Math.max(1, shards);
+    }
+
+    private String getShardHeap() {
+        return getProject().hasProperty(SHARD_HEAP_FLAG) ? getProject().property(SHARD_HEAP_FLAG).toString().trim() : DEFAULT_SHARD_HEAP;
+    }
+
+    /**
+     * Parses a size like -Xmx takes them, like 2G or 512m.
+     */
+    private static long parseMemory(String value) {
+        long unit;
+        switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+            case 'k':
+                unit = 1024L;
+                break;
+            case 'm':
+                unit = 1024L * 1024;
+                break;
+            case 'g':
+                unit = 1024L * 1024 * 1024;
+                break;
+            default:
+                return Long.parseLong(value);
+        }
+        return Long.parseLong(value.substring(0, value.length() - 1)) * unit;
     }
 
     @SuppressWarnings("serial")
@@ -124,14 +513,14 @@ public class ApplyFernFlowerTask extends CachedTask {
         });
     }
 
-    private void runForkedFernFlower(final File data) {
+    private void runForkedFernFlower(final File data, final String maxHeap, final Object forkedFiles) {
         ExecResult result = getProject().javaexec(new Action<JavaExecSpec>() {
 
             @Override
             public void execute(JavaExecSpec exec) {
-                exec.classpath(forkedClasspath);
+                exec.classpath(forkedFiles);
                 exec.setMain(FernFlowerInvoker.class.getName());
-                exec.setJvmArgs(ImmutableList.of("-Xmx3G"));
+                exec.setJvmArgs(ImmutableList.of("-Xmx" + maxHeap));
                 // pass the temporary file
                 exec.args(data);
 
@@ -0,0 +1,86 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps every archive FernFlower reads from open for the whole decompilation,
+ * instead of opening it and parsing its central directory again for every class and resource.
+ */
+class ArchivePool implements Closeable {
+    private final Map<String, ZipFile> archives = new ConcurrentHashMap<>();
+    private final AtomicInteger openCount = new AtomicInteger();
+
+    /**
+     * @param path the path of the archive, as FernFlower passes them around
+     * @return the open archive, which must not be closed by the caller
+     * @throws IOException if the archive could not be opened
+     */
+    ZipFile get(String path) throws IOException {
+        try {
+            return archives.computeIfAbsent(path, key -> {
+                try {
+                    openCount.incrementAndGet();
+                    return new ZipFile(new File(key));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * @return how many times an archive was actually opened
+     */
+    int getOpenCount() {
+        return openCount.get();
+    }
+
+    /**
+     * Closes all archives. The pool can still be used afterwards, and will open them again.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (String path : archives.keySet()) {
+            ZipFile archive = archives.remove(path);
+            if (archive == null)
+                continue;
+            try {
+                archive.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
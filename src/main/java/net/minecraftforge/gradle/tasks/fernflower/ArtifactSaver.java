@@ -41,9 +41,25 @@ class ArtifactSaver implements IResultSaver {
     private final Map<String, ZipOutputStream> mapArchiveStreams = new HashMap<>();
     private final Map<String, Set<String>> mapArchiveEntries = new HashMap<>();
     private final File root;
+    private final ArchivePool archives;
+    private final boolean ownsArchives;
 
     public ArtifactSaver(File tempDir) {
+        this(tempDir, new ArchivePool(), true);
+    }
+
+    /**
+     * @param tempDir  where the archives are saved
+     * @param archives the pool to copy entries from, which stays open when the archives are closed
+     */
+    public ArtifactSaver(File tempDir, ArchivePool archives) {
+        this(tempDir, archives, false);
+    }
+
+    private ArtifactSaver(File tempDir, ArchivePool archives, boolean ownsArchives) {
         this.root = tempDir;
+        this.archives = archives;
+        this.ownsArchives = ownsArchives;
     }
 
     private String getAbsolutePath(String path) {
@@ -110,7 +126,8 @@ class ArtifactSaver implements IResultSaver {
         }
 
 
-        try (ZipFile srcArchive = new ZipFile(new File(source))) {
+        try {
+            ZipFile srcArchive = archives.get(source);
             ZipEntry entry = srcArchive.getEntry(entryName);
             if (entry != null) {
                 try (InputStream in = srcArchive.getInputStream(entry)) {
@@ -166,6 +183,9 @@ class ArtifactSaver implements IResultSaver {
         try {
             mapArchiveEntries.remove(file);
             mapArchiveStreams.remove(file).close();
+            if (ownsArchives && mapArchiveStreams.isEmpty()) {
+                archives.close();
+            }
         } catch (IOException ex) {
             DecompilerContext.getLogger().writeMessage("Cannot close " + file, IFernflowerLogger.Severity.WARN);
         }
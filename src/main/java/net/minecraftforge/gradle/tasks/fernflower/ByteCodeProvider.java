@@ -29,19 +29,23 @@ import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 class ByteCodeProvider implements IBytecodeProvider {
+    private final ArchivePool archives;
+
+    public ByteCodeProvider(ArchivePool archives) {
+        this.archives = archives;
+    }
+
     @Override
     public byte[] getBytecode(String externalPath, String internalPath) throws IOException {
-        File file = new File(externalPath);
         if (internalPath == null) {
-            return InterpreterUtil.getBytes(file);
+            return InterpreterUtil.getBytes(new File(externalPath));
         } else {
-            try (ZipFile archive = new ZipFile(file)) {
-                ZipEntry entry = archive.getEntry(internalPath);
-                if (entry == null) {
-                    throw new IOException("Entry not found: " + internalPath);
-                }
-                return InterpreterUtil.getBytes(archive, entry);
+            ZipFile archive = archives.get(externalPath);
+            ZipEntry entry = archive.getEntry(internalPath);
+            if (entry == null) {
+                throw new IOException("Entry not found: " + internalPath);
             }
+            return InterpreterUtil.getBytes(archive, entry);
         }
     }
 }
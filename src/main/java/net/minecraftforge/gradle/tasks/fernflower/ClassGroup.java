@@ -0,0 +1,122 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import java.util.*;
+
+/**
+ * A top level class together with its inner classes, which FernFlower always decompiles into one source file.
+ */
+class ClassGroup {
+    private final String name;
+    private final Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+
+    private ClassGroup(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the internal name of the top level class
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return entry name -&gt; bytes of every class in the group, sorted by name
+     */
+    Map<String, byte[]> getClasses() {
+        return classes;
+    }
+
+    /**
+     * @return the combined size of the classes, which is roughly how long they take to decompile
+     */
+    long getSize() {
+        long size = 0;
+        for (byte[] bytes : classes.values())
+            size += bytes.length;
+        return size;
+    }
+
+    /**
+     * Groups the classes of a jar by the outermost class that is in the jar, going by their names.
+     *
+     * @param classes entry name -&gt; bytes of every .class entry in the jar
+     * @return internal name of the top level class -&gt; group, sorted by name
+     */
+    static Map<String, ClassGroup> group(Map<String, byte[]> classes) {
+        Map<String, ClassGroup> groups = new TreeMap<String, ClassGroup>();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            String name = outermostClass(entry.getKey(), classes.keySet());
+            ClassGroup group = groups.get(name);
+            if (group == null) {
+                group = new ClassGroup(name);
+                groups.put(name, group);
+            }
+            group.classes.put(entry.getKey(), entry.getValue());
+        }
+        return groups;
+    }
+
+    /**
+     * Splits the groups into at most the given number of shards, each with about the same amount of bytecode.
+     *
+     * @param groups the groups to split
+     * @param count  the number of shards wanted
+     * @return the shards, none of which are empty
+     */
+    static List<List<ClassGroup>> split(Collection<ClassGroup> groups, int count) {
+        List<ClassGroup> sorted = new ArrayList<ClassGroup>(groups);
+        sorted.sort(Comparator.comparingLong(ClassGroup::getSize).reversed());
+
+        count = Math.min(count, sorted.size());
+        List<List<ClassGroup>> shards = new ArrayList<List<ClassGroup>>(count);
+        long[] sizes = new long[count];
+        for (int i = 0; i < count; i++)
+            shards.add(new ArrayList<ClassGroup>());
+
+        // biggest first, each into the smallest shard so far
+        for (ClassGroup group : sorted) {
+            int smallest = 0;
+            for (int i = 1; i < count; i++) {
+                if (sizes[i] < sizes[smallest])
+                    smallest = i;
+            }
+            shards.get(smallest).add(group);
+            sizes[smallest] += group.getSize();
+        }
+        return shards;
+    }
+
+    private static String outermostClass(String entryName, Set<String> entries) {
+        String name = entryName.substring(0, entryName.length() - ".class".length());
+        int index = name.indexOf('$', name.lastIndexOf('/') + 1);
+        while (index > 0) {
+            String outer = name.substring(0, index);
+            if (entries.contains(outer + ".class")) {
+                return outer;
+            }
+            index = name.indexOf('$', index + 1);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import net.minecraftforge.gradle.common.Constants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores the sources FernFlower produced for each {@link ClassGroup}, keyed by the bytes of the classes
+ * and by everything else that changes the output for every class: the options, the decompiler and the libraries.
+ * <p>
+ * Other classes of the jar are not part of the key. FernFlower only looks at them for names and types, which
+ * access transformers and the like don't touch, so their changes don't need to invalidate the whole jar.
+ * Nothing checks that for every jar, so {@link ApplyFernFlowerTask} only uses the cache when the
+ * decompileCache property is true.
+ * <p>
+ * Each hit refreshes the modification time of the entry, and {@link #trim()} deletes the entries that were
+ * used least recently once the directory grows past its size limit.
+ */
+class DecompileCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecompileCache.class);
+    private static final int FORMAT_VERSION = 1;
+    private static final String LOCK_FILE = ".lock";
+    private static final long STALE_TEMP_AGE = 24L * 60 * 60 * 1000;
+
+    private final File directory;
+    private final String salt;
+    private final long maxSize;
+
+    /**
+     * @param directory where the sources are stored
+     * @param salt      a digest of everything that applies to all classes
+     * @param maxSize   the size limit in bytes
+     */
+    DecompileCache(File directory, String salt, long maxSize) {
+        this.directory = directory;
+        this.salt = salt;
+        this.maxSize = maxSize;
+    }
+
+    String getKey(ClassGroup group) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(FORMAT_VERSION);
+        hasher.putString(salt, Constants.CHARSET);
+        for (Map.Entry<String, byte[]> entry : group.getClasses().entrySet()) {
+            hasher.putString(entry.getKey(), Constants.CHARSET);
+            hasher.putInt(entry.getValue().length);
+            hasher.putBytes(entry.getValue());
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return entry name -&gt; source of what was decompiled from the group, or null if it isn't cached
+     */
+    Map<String, String> get(String key) {
+        File file = getFile(key);
+        if (!file.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != FORMAT_VERSION)
+                return null;
+
+            Map<String, String> sources = new TreeMap<String, String>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] content = new byte[in.readInt()];
+                in.readFully(content);
+                sources.put(name, new String(content, Constants.CHARSET));
+            }
+            file.setLastModified(System.currentTimeMillis());
+            return sources;
+        } catch (IOException e) {
+            // it just gets decompiled again.
+            LOGGER.debug("Discarding unreadable decompiled class " + file, e);
+            return null;
+        }
+    }
+
+    void put(String key, Map<String, String> sources) {
+        File file = getFile(key);
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getParentFile(), file.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(sources.size());
+                for (Map.Entry<String, String> entry : sources.entrySet()) {
+                    byte[] content = entry.getValue().getBytes(Constants.CHARSET);
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(content.length);
+                    out.write(content);
+                }
+            }
+
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not cache decompiled class " + file, e);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its size limit.
+     * Done under a lock file, so concurrent builds don't both evict down to the limit.
+     */
+    void trim() {
+        directory.mkdirs();
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+             FileChannel channel = lockFile.getChannel();
+             FileLock lock = channel.lock()) {
+            final List<File> entries = new ArrayList<File>();
+            final Map<File, Long> lastUsed = new HashMap<File, Long>();
+            long size = 0;
+            long now = System.currentTimeMillis();
+
+            File[] dirs = directory.listFiles();
+            for (File dir : dirs == null ? new File[0] : dirs) {
+                File[] files = dir.isDirectory() ? dir.listFiles() : null;
+                if (files == null)
+                    continue;
+
+                for (File file : files) {
+                    long modified = file.lastModified();
+                    if (file.getName().endsWith(".tmp")) {
+                        // left behind by a build that died
+                        if (modified + STALE_TEMP_AGE < now)
+                            file.delete();
+                        continue;
+                    }
+
+                    size += file.length();
+                    entries.add(file);
+                    lastUsed.put(file, modified);
+                }
+            }
+
+            if (size <= maxSize)
+                return;
+
+            Collections.sort(entries, new Comparator<File>() {
+                @Override
+                public int compare(File o1, File o2) {
+                    return Long.compare(lastUsed.get(o1), lastUsed.get(o2));
+                }
+            });
+
+            for (File file : entries) {
+                if (size <= maxSize)
+                    break;
+
+                long length = file.length();
+                if (file.delete())
+                    size -= length;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not trim the decompiled class cache " + directory, e);
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key.substring(0, 2) + "/" + key + ".src");
+    }
+}
@@ -60,14 +60,16 @@ public class FernFlowerInvoker {
 
     public static void runFernFlower(FernFlowerSettings settings) throws IOException {
         PrintStreamLogger logger = new PrintStreamLogger(new PrintStream(settings.getTaskLogFile()));
-        BaseDecompiler decompiler = new BaseDecompiler(new ByteCodeProvider(), new ArtifactSaver(settings.getCacheDirectory()), settings.getMapOptions(), logger);
+        try (ArchivePool archives = new ArchivePool()) {
+            BaseDecompiler decompiler = new BaseDecompiler(new ByteCodeProvider(archives), new ArtifactSaver(settings.getCacheDirectory(), archives), settings.getMapOptions(), logger);
 
-        decompiler.addSpace(settings.getJarFrom(), true);
-        for (File library : settings.getClasspath()) {
-            decompiler.addSpace(library, false);
-        }
+            decompiler.addSpace(settings.getJarFrom(), true);
+            for (File library : settings.getClasspath()) {
+                decompiler.addSpace(library, false);
+            }
 
-        decompiler.decompileContext();
+            decompiler.decompileContext();
+        }
     }
 
 }
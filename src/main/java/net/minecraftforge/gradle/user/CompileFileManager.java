@@ -0,0 +1,215 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.user;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Gives javac its sources straight out of memory and keeps the compiled classes there too.
+ * The classes that are not compiled again are put on the classpath from the jar of the previous compilation,
+ * so javac sees exactly the same classes it would if everything was compiled at once.
+ */
+final class CompileFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    /**
+     * package -&gt; classes of the previous compilation that are still up to date
+     */
+    private final Map<String, List<JavaFileObject>> previousClasses = new HashMap<String, List<JavaFileObject>>();
+    /**
+     * internal name -&gt; compiled class
+     */
+    private final Map<String, ClassOutput> outputs = new TreeMap<String, ClassOutput>();
+
+    /**
+     * @param fileManager the file manager for the classpath and the JDK
+     * @param previous    the classes of the previous compilation, or null
+     * @param upToDate    internal names of the classes to use from it
+     */
+    CompileFileManager(StandardJavaFileManager fileManager, ZipFile previous, Collection<String> upToDate) {
+        super(fileManager);
+
+        for (String name : upToDate) {
+            ZipArchiveEntry entry = previous.getEntry(name + ".class");
+            if (entry == null)
+                continue;
+
+            int slash = name.lastIndexOf('/');
+            String pkg = slash < 0 ? "" : name.substring(0, slash).replace('/', '.');
+            List<JavaFileObject> list = previousClasses.get(pkg);
+            if (list == null) {
+                list = new ArrayList<JavaFileObject>();
+                previousClasses.put(pkg, list);
+            }
+            list.add(new PreviousClass(previous, entry, name));
+        }
+    }
+
+    /**
+     * @param name    the entry name of the source, like <code>net/minecraft/Foo.java</code>
+     * @param content the source itself
+     * @return the source as javac wants it
+     */
+    static JavaFileObject source(String name, byte[] content) {
+        return new SourceFile(name, content);
+    }
+
+    /**
+     * @return internal name -&gt; compiled class, for every class javac wrote
+     */
+    Map<String, ClassOutput> getOutputs() {
+        return outputs;
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+        Iterable<JavaFileObject> files = super.list(location, packageName, kinds, recurse);
+        if (location != StandardLocation.CLASS_PATH || !kinds.contains(JavaFileObject.Kind.CLASS))
+            return files;
+
+        List<JavaFileObject> merged = new ArrayList<JavaFileObject>();
+        for (Map.Entry<String, List<JavaFileObject>> e : previousClasses.entrySet()) {
+            String pkg = e.getKey();
+            if (pkg.equals(packageName) || (recurse && (packageName.isEmpty() || pkg.startsWith(packageName + "."))))
+                merged.addAll(e.getValue());
+        }
+
+        if (merged.isEmpty())
+            return files;
+
+        for (JavaFileObject file : files)
+            merged.add(file);
+        return merged;
+    }
+
+    @Override
+    public String inferBinaryName(Location location, JavaFileObject file) {
+        if (file instanceof PreviousClass)
+            return ((PreviousClass) file).name.replace('/', '.');
+        return super.inferBinaryName(location, file);
+    }
+
+    @Override
+    public boolean isSameFile(FileObject a, FileObject b) {
+        if (a instanceof InMemory || b instanceof InMemory)
+            return a.equals(b);
+        return super.isSameFile(a, b);
+    }
+
+    @Override
+    public boolean hasLocation(Location location) {
+        return location == StandardLocation.CLASS_OUTPUT || super.hasLocation(location);
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) throws IOException {
+        if (location != StandardLocation.CLASS_OUTPUT || kind != JavaFileObject.Kind.CLASS)
+            return super.getJavaFileForOutput(location, className, kind, sibling);
+
+        String name = className.replace('.', '/');
+        String source = sibling instanceof SourceFile ? ((SourceFile) sibling).name : null;
+        ClassOutput output = new ClassOutput(name, source);
+        outputs.put(name, output);
+        return output;
+    }
+
+    private static URI uri(String scheme, String path) {
+        try {
+            return new URI(scheme, null, "/" + path, null);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(path, e);
+        }
+    }
+
+    /**
+     * The objects the standard file manager doesn't know about
+     */
+    private interface InMemory {
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject implements InMemory {
+        private final String name;
+        private final byte[] content;
+
+        SourceFile(String name, byte[] content) {
+            super(uri("source", name), Kind.SOURCE);
+            this.name = name;
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return new String(content, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class PreviousClass extends SimpleJavaFileObject implements InMemory {
+        private final ZipFile jar;
+        private final ZipArchiveEntry entry;
+        private final String name;
+
+        PreviousClass(ZipFile jar, ZipArchiveEntry entry, String name) {
+            super(uri("class", name + ".class"), Kind.CLASS);
+            this.jar = jar;
+            this.entry = entry;
+            this.name = name;
+        }
+
+        @Override
+        public InputStream openInputStream() throws IOException {
+            return jar.getInputStream(entry);
+        }
+    }
+
+    static final class ClassOutput extends SimpleJavaFileObject implements InMemory {
+        final String name;
+        /**
+         * entry name of the source the class was compiled from
+         */
+        final String source;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassOutput(String name, String source) {
+            super(uri("output", name + ".class"), Kind.CLASS);
+            this.name = name;
+            this.source = source;
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            bytes.reset();
+            return bytes;
+        }
+
+        byte[] getBytes() {
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.user;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * What {@link TaskRecompileMc} compiled the last time: the hash of every source, the classes it became, a digest
+ * of what other classes can see of those and the classes of the other sources they refer to. With that, only the
+ * sources that changed and the ones referring to them need to be compiled again.
+ */
+final class RecompileState {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecompileState.class);
+    private static final int FORMAT_VERSION = 2;
+
+    private final String settings;
+    private final Map<String, Source> sources = new TreeMap<String, Source>();
+
+    /**
+     * @param settings a digest of everything besides the sources that changes the output, like the classpath
+     */
+    RecompileState(String settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * @return the state stored in the file, or null if there is none or it was made with other settings
+     */
+    static RecompileState load(File file, String settings) {
+        if (!file.isFile())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(settings))
+                return null;
+
+            RecompileState state = new RecompileState(settings);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String hash = in.readUTF();
+                String api = in.readUTF();
+                List<String> classes = readStrings(in, new ArrayList<String>());
+                Set<String> references = readStrings(in, new HashSet<String>());
+                state.sources.put(name, new Source(hash, api, classes, references));
+            }
+            return state;
+        } catch (IOException e) {
+            // it just means compiling everything.
+            LOGGER.debug("Discarding unreadable recompile state " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the state through a temporary file. Failures are only logged, as it just means compiling everything next time.
+     */
+    void save(File file) {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getParentFile(), file.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(settings);
+                out.writeInt(sources.size());
+                for (Map.Entry<String, Source> e : sources.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue().hash);
+                    out.writeUTF(e.getValue().api);
+                    writeStrings(out, e.getValue().classes);
+                    writeStrings(out, e.getValue().references);
+                }
+            }
+
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not write recompile state " + file, e);
+            temp.delete();
+        }
+    }
+
+    Source get(String name) {
+        return sources.get(name);
+    }
+
+    void put(String name, Source source) {
+        sources.put(name, source);
+    }
+
+    /**
+     * Finds the sources that have to be compiled again: the ones that were added, changed or removed, and the
+     * sources that refer to a class of one of those. Whether the ones referring to those have to follow depends
+     * on what the compiler makes of the changes, see {@link #getDependents(Collection, boolean)}.
+     *
+     * @param hashes source name -&gt; hash of every current source
+     * @return the names of the dirty sources, which includes removed ones
+     */
+    Set<String> getDirtySources(Map<String, String> hashes) {
+        Set<String> dirty = new HashSet<String>();
+        for (Map.Entry<String, String> e : hashes.entrySet()) {
+            Source source = sources.get(e.getKey());
+            if (source == null || !source.hash.equals(e.getValue()))
+                dirty.add(e.getKey());
+        }
+        for (String name : sources.keySet()) {
+            if (!hashes.containsKey(name))
+                dirty.add(name);
+        }
+
+        dirty.addAll(getDependents(dirty, false));
+        return dirty;
+    }
+
+    /**
+     * Finds the sources that refer to a class of the given ones.
+     *
+     * @param changed    the names of the sources
+     * @param transitive whether to include the sources referring to those, and so on
+     * @return the names of the dependent sources, which only includes given ones that depend on another
+     */
+    Set<String> getDependents(Collection<String> changed, boolean transitive) {
+        // class -> sources referring to it
+        Map<String, List<String>> users = new HashMap<String, List<String>>();
+        for (Map.Entry<String, Source> e : sources.entrySet()) {
+            for (String reference : e.getValue().references) {
+                List<String> list = users.get(reference);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    users.put(reference, list);
+                }
+                list.add(e.getKey());
+            }
+        }
+
+        Set<String> dependents = new HashSet<String>();
+        Deque<String> queue = new ArrayDeque<String>(changed);
+        while (!queue.isEmpty()) {
+            Source source = sources.get(queue.poll());
+            if (source == null)
+                continue;
+
+            for (String cls : source.classes) {
+                List<String> list = users.get(cls);
+                if (list == null)
+                    continue;
+
+                for (String user : list) {
+                    if (dependents.add(user) && transitive)
+                        queue.add(user);
+                }
+            }
+        }
+
+        return dependents;
+    }
+
+    private static <T extends Collection<String>> T readStrings(DataInputStream in, T into) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++)
+            into.add(in.readUTF());
+        return into;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String str : strings)
+            out.writeUTF(str);
+    }
+
+    static final class Source {
+        final String hash;
+        /**
+         * digest of the parts of the compiled classes that other classes are compiled against
+         */
+        final String api;
+        /**
+         * internal names of the classes compiled from the source
+         */
+        final List<String> classes;
+        /**
+         * internal names of the classes of other sources the compiled classes refer to
+         */
+        final Set<String> references;
+
+        Source(String hash, String api, List<String> classes, Set<String> references) {
+            this.hash = hash;
+            this.api = api;
+            this.classes = classes;
+            this.references = references;
+        }
+    }
+}
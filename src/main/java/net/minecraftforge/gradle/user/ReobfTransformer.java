@@ -28,6 +28,8 @@ public interface ReobfTransformer extends Serializable {
      * Called for each class to be reobfuscated
      *
      * <em>Don't use {@link org.objectweb.asm.ClassReader#EXPAND_FRAMES EXPAND_FRAMES}</em>
+     * <p>
+     * Classes are transformed in parallel, so this may be called from several threads at once.
      *
      * @param data The class bytes
      * @return The modified class bytes
@@ -20,32 +20,30 @@
  */
 package net.minecraftforge.gradle.user;
 
-import com.google.common.base.Charsets;
-import com.google.common.collect.Maps;
-import com.google.common.io.ByteStreams;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.AnnotationUtils;
-import net.minecraftforge.gradle.util.AnnotationUtils.ASMInfo;
-import net.minecraftforge.gradle.util.AnnotationUtils.Annotation;
+import net.minecraftforge.gradle.util.AnnotationUtils.JarInfo;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.TaskAction;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Collections;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Date;
 import java.util.Map;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 public class TaskExtractAnnotations extends DefaultTask {
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    private static final String ANNOTATION_CACHE = "META-INF/fml_cache_annotation.json";
+    private static final String CLASS_VERSION_CACHE = "META-INF/fml_cache_class_versions.json";
 
     private Object jar;
 
@@ -57,78 +55,48 @@ public class TaskExtractAnnotations extends DefaultTask {
     public void doTask() /*throws IOException*/ {
         try { //Temporary for now, so we dont break people's builds... at least... we shouldn't.
             File out = getJar();
-            File tempIn = File.createTempFile("input", ".jar", getTemporaryDir());
-            File tempOut = File.createTempFile("output", ".jar", getTemporaryDir());
-            tempIn.deleteOnExit();
-            tempOut.deleteOnExit();
-
-            Constants.copyFile(out, tempIn); // copy the to-be-output jar to the temporary input location. because output == input
-
-            processJar(tempIn, tempOut);
-
-            Constants.copyFile(tempOut, out);// This is the only 'destructive' line, IF we do error on here. then something is screwy... If we error above then it'd be just like this never run.
-            tempOut.delete();
+            // output == input, so the jar is only replaced once the new one is complete
+            File temp = new File(out.getParentFile(), out.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+            try {
+                processJar(out, temp);
+
+                // This is the only 'destructive' line, IF we do error on here. then something is screwy... If we error above then it'd be just like this never run.
+                try {
+                    Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                temp.delete();
+            }
         } catch (IOException e) {
             this.getProject().getLogger().error("Error while building FML annotations cache: " + e.getMessage(), e);
         }
     }
 
     private void processJar(File input, File output) throws IOException {
-        Map<String, ASMInfo> asm_info = Maps.newTreeMap(); //Tree map because I like sorted outputs.
-        Map<String, Integer> class_versions = Maps.newTreeMap();
-
         try (ZipFile in = new ZipFile(input);
-             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(output)))) {
-            for (ZipEntry e : Collections.list(in.entries())) {
-                if (e.isDirectory()) {
-                    out.putNextEntry(e);
-                    continue;
-                }
-
-                ZipEntry n = new ZipEntry(e.getName());
-                n.setTime(e.getTime());
-                out.putNextEntry(n);
+             ZipArchiveOutputStream out = new ZipArchiveOutputStream(output)) {
+            // the caches of an earlier run are replaced
+            JarInfo info = AnnotationUtils.processJar(in, out, name -> !name.equals(ANNOTATION_CACHE) && !name.equals(CLASS_VERSION_CACHE));
 
-                byte[] data = ByteStreams.toByteArray(in.getInputStream(e));
-                out.write(data);
-
-                // correct source name
-                if (e.getName().endsWith(".class")) {
-                    ASMInfo info = AnnotationUtils.processClass(data);
-                    if (info != null) {
-                        String name = e.getName().substring(0, e.getName().length() - 6);
-                        class_versions.put(name, info.version);
-                        info.version = null;
-                        if (info.annotations != null) {
-                            for (Annotation anno : info.annotations) {
-                                if (anno.values != null && anno.values.size() == 1 && anno.values.containsKey("value")) {
-                                    anno.value = anno.values.get("value");
-                                    anno.values = null;
-                                }
-                            }
-                        }
-                        if (info.annotations != null || info.interfaces != null)
-                            asm_info.put(name, info);
-                    }
-                }
-            }
-
-            if (!asm_info.isEmpty()) {
-                String data = GSON.toJson(asm_info);
-                ZipEntry cache = new ZipEntry("META-INF/fml_cache_annotation.json");
-                cache.setTime(new Date().getTime());
-                out.putNextEntry(cache);
-                out.write(data.getBytes(Charsets.UTF_8));
-
-                data = GSON.toJson(class_versions);
-                cache = new ZipEntry("META-INF/fml_cache_class_versions.json");
-                cache.setTime(new Date().getTime());
-                out.putNextEntry(cache);
-                out.write(data.getBytes(Charsets.UTF_8));
+            if (!info.asm_info.isEmpty()) {
+                writeCache(out, ANNOTATION_CACHE, info.asm_info);
+                writeCache(out, CLASS_VERSION_CACHE, info.class_versions);
             }
         }
     }
 
+    private static void writeCache(ZipArchiveOutputStream out, String name, Map<String, ?> data) throws IOException {
+        ZipArchiveEntry cache = new ZipArchiveEntry(name);
+        cache.setTime(new Date().getTime());
+        out.putArchiveEntry(cache);
+        // the writer is only flushed, as closing it would close the jar
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        AnnotationUtils.writeJson(data, writer);
+        out.closeArchiveEntry();
+    }
+
     @Internal
     public File getJar() {
         return getProject().file(jar);
@@ -20,28 +20,47 @@
  */
 package net.minecraftforge.gradle.user;
 
-import com.google.common.collect.ImmutableMap;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
-import com.google.common.io.Files;
-import net.minecraftforge.gradle.tasks.CreateStartTask;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
-import org.gradle.api.AntBuilder;
-import org.gradle.api.file.FileVisitDetails;
-import org.gradle.api.file.FileVisitor;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.tasks.*;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import javax.tools.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarOutputStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.TreeMap;
 
 public class TaskRecompileMc extends CachedTask {
+    private static final int FORMAT_VERSION = 1;
+
     @InputFile
     private Object inSources;
 
@@ -59,140 +78,452 @@ public class TaskRecompileMc extends CachedTask {
     @TaskAction
     public void doStuff() throws IOException {
         File inJar = getInSources();
-        File tempSrc = new File(getTemporaryDir(), "sources");
-        File tempCls = new File(getTemporaryDir(), "compiled");
         File outJar = getOutJar();
+        File stateFile = new File(getTemporaryDir(), "state.bin");
+        File classesJar = new File(getTemporaryDir(), "classes.jar");
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            throw new IllegalStateException("Recompiling Minecraft needs a JDK, but Gradle is running on a JRE: " + System.getProperty("java.home"));
+
+        // read sources
+        Map<String, byte[]> sources = new TreeMap<String, byte[]>();
+        Map<String, String> hashes = new HashMap<String, String>();
+        try (ZipFile zin = new ZipFile(inJar)) {
+            for (ZipArchiveEntry entry : Collections.list(zin.getEntries())) {
+                // we only want java files to compile, can grab the other resources from the jar later
+                if (entry.isDirectory() || !entry.getName().endsWith(".java"))
+                    continue;
 
-        // delete and recreate dirs
-        getProject().delete(tempSrc, tempCls);
-        tempSrc.mkdirs();
-        tempCls.mkdirs();
-
-        // extract sources
-        extractSources(tempSrc, inJar);
-
-        AntBuilder ant = CreateStartTask.setupAnt(this);
-        getExtPath();
-        // recompile
-        ant.invokeMethod("javac",
-                ImmutableMap.builder()
-                        .put("srcDir", tempSrc.getCanonicalPath())
-                        .put("destDir", tempCls.getCanonicalPath())
-                        .put("failonerror", true)
-                        .put("includeantruntime", false)
-                        .put("classpath", getProject().getConfigurations().getByName(classpath).getAsPath())
-                        .put("encoding", "utf-8")
-                        .put("source", "1.8")
-                        .put("target", "1.8")
-                        .put("debug", "true")
-                        //.put("Djava.ext.dirs", )
-                        .build()
-        );
+                try (InputStream stream = zin.getInputStream(entry)) {
+                    byte[] content = ByteStreams.toByteArray(stream);
+                    sources.put(entry.getName(), content);
+                    hashes.put(entry.getName(), Constants.hash(content));
+                }
+            }
+        }
+
+        List<String> options = getCompilerOptions();
+        RecompileState previous = classesJar.isFile() ? RecompileState.load(stateFile, getSettingsHash(options)) : null;
+
+        RecompileState state = compile(compiler, options, sources, hashes, previous, classesJar);
+        if (state == null) {
+            getLogger().lifecycle("Compile-time constants changed, recompiling everything");
+            state = compile(compiler, options, sources, hashes, null, classesJar);
+        }
+        state.save(stateFile);
 
         outJar.getParentFile().mkdirs();
-        createOutput(outJar, inJar, tempCls, getInResources());
+        createOutput(outJar, inJar, classesJar, getInResources());
+    }
+
+    /**
+     * Compiles the sources that changed since the previous compilation and the ones referring to them, or all of them
+     * if there was none, and writes the classes of every source to the classes jar. If what other classes can see of
+     * the changed ones changed as well, everything depending on them is compiled again.
+     *
+     * @return the new state, or null if constants that other classes could have inlined changed
+     */
+    private RecompileState compile(JavaCompiler compiler, List<String> options, Map<String, byte[]> sources, Map<String, String> hashes, RecompileState previous, File classesJar) throws IOException {
+        Set<String> dirty = previous == null ? sources.keySet() : previous.getDirtySources(hashes);
+
+        try (ZipFile previousClasses = previous == null ? null : new ZipFile(classesJar)) {
+            while (true) {
+                List<String> upToDate = new ArrayList<String>();
+                Map<String, CompileFileManager.ClassOutput> outputs = compile(compiler, options, sources, previous, previousClasses, dirty, upToDate);
+
+                // sources that don't depend on these could have inlined constants, so those can't change
+                if (previous != null && !getConstants(previousClasses, previous, dirty).equals(getConstants(outputs.values())))
+                    return null;
+
+                RecompileState state = new RecompileState(getSettingsHash(options));
+                Set<String> changedApi = new HashSet<String>();
+
+                // remember what every source became and what it refers to
+                Set<String> known = Sets.newHashSet(upToDate);
+                known.addAll(outputs.keySet());
+
+                Map<String, List<String>> classesBySource = new HashMap<String, List<String>>();
+                for (CompileFileManager.ClassOutput output : outputs.values()) {
+                    List<String> list = classesBySource.get(output.source);
+                    if (list == null) {
+                        list = new ArrayList<String>();
+                        classesBySource.put(output.source, list);
+                    }
+                    list.add(output.name);
+                }
+
+                for (String name : dirty) {
+                    if (!sources.containsKey(name)) {
+                        // removed, so whatever referred to it has to fail to compile
+                        changedApi.add(name);
+                        continue;
+                    }
+
+                    List<String> classes = classesBySource.containsKey(name) ? classesBySource.get(name) : Collections.<String>emptyList();
+                    Collections.sort(classes);
+                    Set<String> references = new HashSet<String>();
+                    Hasher api = Hashing.sha256().newHasher();
+                    for (String cls : classes) {
+                        byte[] bytes = outputs.get(cls).getBytes();
+                        getReferences(bytes, known, references);
+                        hashApi(bytes, api);
+                    }
+                    references.removeAll(classes);
+
+                    RecompileState.Source source = new RecompileState.Source(hashes.get(name), api.hash().toString(), classes, references);
+                    RecompileState.Source old = previous == null ? null : previous.get(name);
+                    if (old != null && !old.api.equals(source.api))
+                        changedApi.add(name);
+                    state.put(name, source);
+                }
+
+                if (previous != null) {
+                    Set<String> widened = new HashSet<String>(dirty);
+                    widened.addAll(previous.getDependents(changedApi, true));
+                    if (widened.size() > dirty.size()) {
+                        getLogger().info("The signatures of {} sources changed, compiling everything depending on them", changedApi.size());
+                        dirty = widened;
+                        continue;
+                    }
+
+                    for (String name : sources.keySet()) {
+                        if (!dirty.contains(name))
+                            state.put(name, previous.get(name));
+                    }
+                }
+
+                writeClasses(classesJar, previousClasses, upToDate, outputs.values());
+                return state;
+            }
+        }
     }
 
+    /**
+     * Compiles the dirty sources against the classes of the others from the previous compilation.
+     *
+     * @param upToDate filled with the classes that are kept from the previous compilation
+     * @return class name -&gt; compiled class
+     */
+    private Map<String, CompileFileManager.ClassOutput> compile(JavaCompiler compiler, List<String> options, Map<String, byte[]> sources, RecompileState previous, ZipFile previousClasses, Set<String> dirty, List<String> upToDate) throws IOException {
+        List<JavaFileObject> units = new ArrayList<JavaFileObject>();
+        for (Map.Entry<String, byte[]> e : sources.entrySet()) {
+            if (dirty.contains(e.getKey()))
+                units.add(CompileFileManager.source(e.getKey(), e.getValue()));
+            else
+                upToDate.addAll(previous.get(e.getKey()).classes);
+        }
+
+        getLogger().info("Compiling {} of {} sources", units.size(), sources.size());
+
+        DiagnosticListener<JavaFileObject> diagnostics = new DiagnosticListener<JavaFileObject>() {
+            @Override
+            public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                    getLogger().error(diagnostic.toString());
+                else if (diagnostic.getKind() == Diagnostic.Kind.WARNING || diagnostic.getKind() == Diagnostic.Kind.MANDATORY_WARNING)
+                    getLogger().warn(diagnostic.toString());
+                else
+                    getLogger().info(diagnostic.toString());
+            }
+        };
+
+        try (CompileFileManager fileManager = new CompileFileManager(compiler.getStandardFileManager(diagnostics, Locale.ROOT, StandardCharsets.UTF_8),
+                previousClasses, upToDate)) {
+            if (!units.isEmpty() && !compiler.getTask(null, fileManager, diagnostics, options, null, units).call())
+                throw new RuntimeException("Compilation failed; see the compiler error output for details.");
+            return fileManager.getOutputs();
+        }
+    }
+
+    private List<String> getCompilerOptions() {
+        List<String> options = Lists.newArrayList(
+                "-encoding", "utf-8",
+                "-source", "1.8",
+                "-target", "1.8",
+                "-g",
+                // no annotation processors, they would see only the sources that are compiled again
+                "-proc:none",
+                // always write package-info classes, like ant does
+                "-Xpkginfo:always",
+                "-classpath", getProject().getConfigurations().getByName(classpath).getAsPath()
+        );
+
+        String extDirs = getExtPath();
+        if (extDirs != null) {
+            options.add("-extdirs");
+            options.add(extDirs);
+        }
+
+        return options;
+    }
+
+    /**
+     * @return a digest of everything besides the sources that changes the classes
+     */
+    private String getSettingsHash(List<String> options) {
+        FileHashIndex index = FileHashIndex.get(getProject());
+        List<String> parts = Lists.newArrayList(String.valueOf(FORMAT_VERSION), System.getProperty("java.version"));
+        parts.addAll(options);
+        for (File file : getProject().getConfigurations().getByName(classpath)) {
+            parts.addAll(index.hashAll(file));
+        }
+        return Constants.hash(Joiner.on('\n').join(parts));
+    }
+
+    /**
+     * The extension directories without the one of old Apple JDKs, which has outdated libraries in it.
+     *
+     * @return the extension directories, or null if the JDK has none
+     */
     private static String getExtPath() {
         String currentExtDirs = System.getProperty("java.ext.dirs");
-        String newExtDirs = "";
-        String[] parts = currentExtDirs.split(File.pathSeparator);
-        if (parts.length > 0) {
-            String lastPart = parts[parts.length - 1];
-            for (String part : parts) {
-                if (!part.equals("/System/Library/Java/Extensions")) {
-                    newExtDirs += part;
-                    if (!part.equals(lastPart)) {
-                        newExtDirs += File.pathSeparator;
-                    }
+        if (currentExtDirs == null)
+            return null;
+
+        List<String> parts = new ArrayList<String>();
+        for (String part : currentExtDirs.split(File.pathSeparator)) {
+            if (!part.equals("/System/Library/Java/Extensions"))
+                parts.add(part);
+        }
+        return Joiner.on(File.pathSeparator).join(parts);
+    }
+
+    /**
+     * Collects the classes of the given set the class refers to anywhere in its constant pool,
+     * including the ones that only appear in descriptors and signatures.
+     */
+    private static void getReferences(byte[] bytes, Set<String> known, Set<String> references) {
+        ClassReader reader = new ClassReader(bytes);
+
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            // long and double take two slots, the second of which has no item
+            if (offset == 0 || reader.b[offset - 1] != 1) // CONSTANT_Utf8
+                continue;
+
+            String str = readUtf(reader, offset);
+            if (known.contains(str)) {
+                references.add(str);
+                continue;
+            }
+
+            // descriptors and signatures: Lname; and Lname<
+            int start = str.indexOf('L');
+            while (start >= 0) {
+                int end = start + 1;
+                while (end < str.length() && str.charAt(end) != ';' && str.charAt(end) != '<')
+                    end++;
+                if (end < str.length()) {
+                    String name = str.substring(start + 1, end);
+                    if (known.contains(name))
+                        references.add(name);
                 }
+                start = str.indexOf('L', start + 1);
             }
         }
-        System.setProperty("java.ext.dirs", newExtDirs);
-        return newExtDirs;
     }
 
-    private static void extractSources(File tempDir, File inJar) throws IOException {
-        try (ZipInputStream zin = new ZipInputStream(new FileInputStream(inJar))) {
-            ZipEntry entry;
+    /**
+     * Reads the CONSTANT_Utf8 entry at the offset, which ASM only exposes through the indices referring to it.
+     */
+    private static String readUtf(ClassReader reader, int offset) {
+        int length = reader.readUnsignedShort(offset);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(reader.b, offset, length + 2)).readUTF();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed constant pool entry", e);
+        }
+    }
 
-            while ((entry = zin.getNextEntry()) != null) {
-                // we dont care about directories.. we can make em later when needed
-                // we only want java files to compile too, can grab the other resources from the jar later
-                if (entry.isDirectory() || !entry.getName().endsWith(".java"))
+    /**
+     * @return class.field -&gt; value of every constant the previous compilation made from the given sources
+     */
+    private static Map<String, Object> getConstants(ZipFile previousClasses, RecompileState previous, Set<String> sources) throws IOException {
+        Map<String, Object> constants = new HashMap<String, Object>();
+        for (String source : sources) {
+            RecompileState.Source state = previous.get(source);
+            if (state == null)
+                continue;
+
+            for (String cls : state.classes) {
+                ZipArchiveEntry entry = previousClasses.getEntry(cls + ".class");
+                if (entry == null)
                     continue;
 
-                File out = new File(tempDir, entry.getName());
-                out.getParentFile().mkdirs();
-                Files.asByteSink(out).writeFrom(zin);
+                try (InputStream stream = previousClasses.getInputStream(entry)) {
+                    readConstants(ByteStreams.toByteArray(stream), constants);
+                }
             }
         }
+        return constants;
     }
 
-    private void createOutput(File outJar, File sourceJar, File classDir, File resourceJar) throws IOException {
-        Set<String> elementsAdded = Sets.newHashSet();
+    private static Map<String, Object> getConstants(Collection<CompileFileManager.ClassOutput> outputs) {
+        Map<String, Object> constants = new HashMap<String, Object>();
+        for (CompileFileManager.ClassOutput output : outputs) {
+            readConstants(output.getBytes(), constants);
+        }
+        return constants;
+    }
 
-        // make output
-        JarOutputStream zout = new JarOutputStream(new FileOutputStream(outJar));
+    /**
+     * Adds what other classes are compiled against to the digest: the header of the class and its members that
+     * aren't private. Method bodies, private members and anonymous or local classes don't change how the classes
+     * using it compile.
+     */
+    private static void hashApi(byte[] bytes, Hasher hasher) {
+        final List<String> members = new ArrayList<String>();
+        final String[] header = new String[1];
+        final boolean[] local = new boolean[1];
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM6) {
+            private String className;
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                className = name;
+                header[0] = access + " " + name + " " + signature + " " + superName + " " + Arrays.toString(interfaces);
+            }
 
-        Visitor visitor = new Visitor(zout, elementsAdded);
+            @Override
+            public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                if (!name.equals(className))
+                    return;
+                if (outerName == null || innerName == null)
+                    local[0] = true;
+                else
+                    members.add("inner " + access + " " + outerName + " " + innerName);
+            }
 
-        // custom resources should override existing ones, so resources first.
-        if (resourceJar != null) {
-            getProject().zipTree(resourceJar).visit(visitor);
-        }
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                if ((access & Opcodes.ACC_PRIVATE) == 0)
+                    members.add("field " + access + " " + name + " " + desc + " " + signature + " " + value);
+                return null;
+            }
 
-        getProject().zipTree(sourceJar).visit(visitor); // then the ones from the the original sources
-        getProject().fileTree(classDir).visit(visitor); // then the classes
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                if ((access & Opcodes.ACC_PRIVATE) == 0)
+                    members.add("method " + access + " " + name + " " + desc + " " + signature + " " + Arrays.toString(exceptions));
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
 
-        zout.close();
+        if (local[0])
+            return;
+
+        // the order of the members doesn't matter to anyone
+        Collections.sort(members);
+        hasher.putString(header[0], Constants.CHARSET);
+        for (String member : members)
+            hasher.putString(member, Constants.CHARSET);
     }
 
-    private static final class Visitor implements FileVisitor {
-        private final ZipOutputStream zout;
-        private final Set<String> entries;
+    private static void readConstants(byte[] bytes, final Map<String, Object> constants) {
+        final ClassReader reader = new ClassReader(bytes);
+        reader.accept(new ClassVisitor(Opcodes.ASM6) {
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                if (value != null)
+                    constants.put(reader.getClassName() + "." + name, value);
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    }
+
+    /**
+     * Writes the up to date classes of the previous compilation and the new ones into the classes jar,
+     * through a temporary file as the previous one is still being read.
+     */
+    private static void writeClasses(File classesJar, ZipFile previousClasses, Collection<String> upToDate, Collection<CompileFileManager.ClassOutput> outputs) throws IOException {
+        File temp = new File(classesJar.getParentFile(), classesJar.getName() + ".tmp");
+
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(temp)) {
+            if (previousClasses != null) {
+                for (String name : upToDate) {
+                    ZipArchiveEntry entry = previousClasses.getEntry(name + ".class");
+                    if (entry != null)
+                        out.addRawArchiveEntry(entry, previousClasses.getRawInputStream(entry));
+                }
+            }
 
-        public Visitor(ZipOutputStream zout, Set<String> entries) {
-            this.zout = zout;
-            this.entries = entries;
+            for (CompileFileManager.ClassOutput output : outputs) {
+                out.putArchiveEntry(new ZipArchiveEntry(output.name + ".class"));
+                out.write(output.getBytes());
+                out.closeArchiveEntry();
+            }
         }
 
-        @Override
-        public void visitDir(FileVisitDetails dir) {
-            try {
-                String name = dir.getRelativePath().toString().replace('\\', '/');
-                if (!name.endsWith("/"))
-                    name += "/";
+        try {
+            Files.move(temp.toPath(), classesJar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), classesJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
 
-                if (entries.contains(name))
-                    return;
+    private static void createOutput(File outJar, File sourceJar, File classesJar, File resourceJar) throws IOException {
+        Set<String> elementsAdded = Sets.newHashSet();
 
-                entries.add(name);
-                ZipEntry entry = new ZipEntry(name);
-                zout.putNextEntry(entry);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+        // make output
+        try (ZipArchiveOutputStream zout = new ZipArchiveOutputStream(outJar)) {
+            // custom resources should override existing ones, so resources first.
+            if (resourceJar != null) {
+                copyEntries(zout, resourceJar, elementsAdded);
             }
+
+            copyEntries(zout, sourceJar, elementsAdded); // then the ones from the the original sources
+            copyEntries(zout, classesJar, elementsAdded); // then the classes
         }
+    }
 
-        @Override
-        public void visitFile(FileVisitDetails file) {
-            try {
-                String name = file.getRelativePath().toString().replace('\\', '/');
+    /**
+     * Copies the entries without inflating them, skipping sources and anything already added.
+     * Directories are added for every entry that doesn't have them in the jar.
+     */
+    private static void copyEntries(ZipArchiveOutputStream zout, File jar, Set<String> entries) throws IOException {
+        try (ZipFile zin = new ZipFile(jar)) {
+            for (ZipArchiveEntry entry : Collections.list(zin.getEntries())) {
+                String name = entry.getName().replace('\\', '/');
+
+                if (entry.isDirectory()) {
+                    addDirectories(zout, name, entries);
+                    continue;
+                }
 
                 if (entries.contains(name) || name.endsWith(".java"))
-                    return;
+                    continue;
 
+                addDirectories(zout, name.substring(0, name.lastIndexOf('/') + 1), entries);
                 entries.add(name);
-                zout.putNextEntry(new ZipEntry(name));
-
-                file.copyTo(zout);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                if (name.equals(entry.getName())) {
+                    zout.addRawArchiveEntry(entry, zin.getRawInputStream(entry));
+                } else {
+                    zout.putArchiveEntry(new ZipArchiveEntry(name));
+                    try (InputStream stream = zin.getInputStream(entry)) {
+                        ByteStreams.copy(stream, zout);
+                    }
+                    zout.closeArchiveEntry();
+                }
             }
         }
     }
 
+    /**
+     * Adds the directory and its parents, if they aren't in the jar yet.
+     *
+     * @param dir a directory name ending with a slash, or an empty string
+     */
+    private static void addDirectories(ZipArchiveOutputStream zout, String dir, Set<String> entries) throws IOException {
+        if (dir.isEmpty() || entries.contains(dir))
+            return;
+
+        addDirectories(zout, dir.substring(0, dir.lastIndexOf('/', dir.length() - 2) + 1), entries);
+        entries.add(dir);
+        zout.putArchiveEntry(new ZipArchiveEntry(dir));
+        zout.closeArchiveEntry();
+    }
+
     public File getInSources() {
         return getProject().file(inSources);
     }
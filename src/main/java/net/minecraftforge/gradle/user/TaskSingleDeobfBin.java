@@ -21,11 +21,18 @@
 package net.minecraftforge.gradle.user;
 
 import au.com.bytecode.opencsv.CSVReader;
-import com.google.common.collect.Maps;
+import com.google.common.base.Throwables;
 import com.google.common.io.ByteStreams;
 import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.ArtifactCache;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
+import net.minecraftforge.gradle.util.mcp.CompiledMappings;
+import net.minecraftforge.gradle.util.mcp.SrgTokenRemapper;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
@@ -34,18 +41,24 @@ import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.ClassRemapper;
 import org.objectweb.asm.commons.Remapper;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.Map;
-import java.util.jar.JarEntry;
-import java.util.jar.JarOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 public class TaskSingleDeobfBin extends CachedTask {
+    private static final int FORMAT_VERSION = 1;
+
     @InputFile
     private Object methodCsv;
 
@@ -59,21 +72,43 @@ public class TaskSingleDeobfBin extends CachedTask {
     @OutputFile
     private Object outJar;
 
+    private boolean usesSharedCache = false;
+
     @TaskAction
     public void doTask() throws IOException {
-        final Map<String, String> methods = Maps.newHashMap();
-        final Map<String, String> fields = Maps.newHashMap();
+        if (!usesSharedCache) {
+            deobfJar();
+            return;
+        }
 
-        // read CSV files
-        try (CSVReader reader = Constants.getReader(getMethodCsv())) {
-            for (String[] s : reader.readAll()) {
-                methods.put(s[0], s[1]);
-            }
+        FileHashIndex index = FileHashIndex.get(getProject());
+        ArtifactCache cache = ArtifactCache.get(getProject(), Constants.CACHE_DEOBF_DEPS, Constants.CACHE_DEOBF_DEPS_SIZE);
+        String key = cache.key("bin", FORMAT_VERSION, index.hash(getInJar()), index.hash(getMethodCsv()), index.hash(getFieldCsv()));
+
+        if (cache.fetch(key, getOutJar())) {
+            getLogger().debug("Using cached deobfuscated " + getInJar());
+            return;
         }
 
-        try (CSVReader reader = Constants.getReader(getFieldCsv())) {
-            for (String[] s : reader.readAll()) {
-                fields.put(s[0], s[1]);
+        deobfJar();
+
+        cache.publish(key, getOutJar());
+    }
+
+    private void deobfJar() throws IOException {
+        CompiledMappings compiled = CompiledMappings.open(getProject(), getMethodCsv(), getFieldCsv(), null);
+        // the compiled names are looked up as the classes need them
+        final SrgTokenRemapper names = compiled != null ? new SrgTokenRemapper(compiled) : new SrgTokenRemapper();
+        if (compiled == null) {
+            try (CSVReader reader = Constants.getReader(getMethodCsv())) {
+                for (String[] s : reader.readAll()) {
+                    names.putMethod(s[0], s[1]);
+                }
+            }
+            try (CSVReader reader = Constants.getReader(getFieldCsv())) {
+                for (String[] s : reader.readAll()) {
+                    names.putField(s[0], s[1]);
+                }
             }
         }
 
@@ -84,61 +119,130 @@ public class TaskSingleDeobfBin extends CachedTask {
         output.getParentFile().mkdirs();
 
         // begin reading jar
-        try (ZipInputStream zin = new ZipInputStream(new FileInputStream(input));
-             JarOutputStream zout = new JarOutputStream(new FileOutputStream(output))) {
-            ZipEntry entry;
-
-            while ((entry = zin.getNextEntry()) != null) {
-                if (entry.getName().contains("META-INF")) {
-                    // Skip signature files
-                    if (entry.getName().endsWith(".SF") || entry.getName().endsWith(".DSA")) {
-                        continue;
+        try (final ZipFile zin = new ZipFile(input);
+             ZipArchiveOutputStream zout = new ZipArchiveOutputStream(output)) {
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                // classes are remapped in parallel, but only a few are kept in memory ahead of the entry being written
+                int window = Runtime.getRuntime().availableProcessors() * 4;
+                Deque<ZipArchiveEntry> pendingEntries = new LinkedList<ZipArchiveEntry>();
+                // null for entries that are copied as they are
+                Deque<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+                int remapping = 0;
+
+                for (ZipArchiveEntry e : Collections.list(zin.getEntriesInPhysicalOrder())) {
+                    final ZipArchiveEntry entry = e;
+
+                    if (entry.getName().contains("META-INF")) {
+                        // Skip signature files
+                        if (entry.getName().endsWith(".SF") || entry.getName().endsWith(".DSA")) {
+                            continue;
+                        }
+                        // Strip out file signatures from manifest
+                        else if (entry.getName().equals("META-INF/MANIFEST.MF")) {
+                            pendingEntries.add(entry);
+                            pending.add(executor.submit(new Callable<byte[]>() {
+                                @Override
+                                public byte[] call() throws Exception {
+                                    try (InputStream stream = zin.getInputStream(entry)) {
+                                        return stripManifest(stream);
+                                    }
+                                }
+                            }));
+                            remapping++;
+                            continue;
+                        }
+                    }
+
+                    Future<byte[]> data = null;
+                    // resources and directories are copied without inflating them
+                    if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                        data = executor.submit(new Callable<byte[]>() {
+                            @Override
+                            public byte[] call() throws Exception {
+                                try (InputStream stream = zin.getInputStream(entry)) {
+                                    return deobfClass(ByteStreams.toByteArray(stream), names);
+                                }
+                            }
+                        });
+                        remapping++;
                     }
-                    // Strip out file signatures from manifest
-                    else if (entry.getName().equals("META-INF/MANIFEST.MF")) {
-                        Manifest mf = new Manifest(zin);
-                        mf.getEntries().clear();
-                        zout.putNextEntry(new JarEntry(entry.getName()));
-                        mf.write(zout);
-                        zout.closeEntry();
-                        continue;
+                    pendingEntries.add(entry);
+                    pending.add(data);
+
+                    while (remapping >= window) {
+                        if (writeEntry(zin, zout, pendingEntries.poll(), pending.poll()))
+                            remapping--;
                     }
                 }
 
-                // resources or directories.
-                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
-                    zout.putNextEntry(new JarEntry(entry));
-                    ByteStreams.copy(zin, zout);
-                    zout.closeEntry();
-                } else {
-                    // classes
-                    zout.putNextEntry(new JarEntry(entry.getName()));
-                    zout.write(deobfClass(ByteStreams.toByteArray(zin), methods, fields));
-                    zout.closeEntry();
+                while (!pendingEntries.isEmpty()) {
+                    writeEntry(zin, zout, pendingEntries.poll(), pending.poll());
                 }
+            } finally {
+                executor.shutdownNow();
             }
         }
     }
 
-    private static byte[] deobfClass(byte[] classData, final Map<String, String> methods, final Map<String, String> fields) {
+    /**
+     * Writes the remapped entry, or copies the entry as it is if it isn't remapped.
+     *
+     * @return if the entry was remapped
+     */
+    private static boolean writeEntry(ZipFile in, ZipArchiveOutputStream out, ZipArchiveEntry entry, Future<byte[]> data) throws IOException {
+        if (data == null) {
+            out.addRawArchiveEntry(entry, in.getRawInputStream(entry));
+            return false;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while deobfuscating " + entry.getName());
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+
+        ZipArchiveEntry n = new ZipArchiveEntry(entry.getName());
+        n.setTime(entry.getTime());
+        out.putArchiveEntry(n);
+        out.write(bytes);
+        out.closeArchiveEntry();
+        return true;
+    }
+
+    private static byte[] stripManifest(InputStream stream) throws IOException {
+        Manifest mf = new Manifest(stream);
+        mf.getEntries().clear();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mf.write(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] deobfClass(byte[] classData, final SrgTokenRemapper names) {
         ClassReader reader = new ClassReader(classData);
         ClassWriter writer = new ClassWriter(0);
         Remapper remapper = new Remapper() {
             @Override
             public String mapFieldName(final String owner, final String name, final String desc) {
-                String mappedName = fields.get(name);
+                String mappedName = names.getField(name);
                 return mappedName != null ? mappedName : name;
             }
 
             @Override
             public String mapMethodName(final String owner, final String name, final String desc) {
-                String mappedName = methods.get(name);
+                String mappedName = names.getMethod(name);
                 return mappedName != null ? mappedName : name;
             }
 
             @Override
             public String mapInvokeDynamicMethodName(final String name, final String desc) {
-                String mappedName = methods.get(name);
+                String mappedName = names.getMethod(name);
                 return mappedName != null ? mappedName : name;
             }
         };
@@ -178,4 +282,16 @@ public class TaskSingleDeobfBin extends CachedTask {
     public void setOutJar(Object outJar) {
         this.outJar = outJar;
     }
+
+    /**
+     * Whether the deobfuscated jar is shared with other builds through the {@link ArtifactCache} of the gradle user home.
+     * Only worth it for jars that many projects deobfuscate with the same mappings, like dependencies.
+     */
+    public boolean usesSharedCache() {
+        return usesSharedCache;
+    }
+
+    public void setUsesSharedCache(boolean usesSharedCache) {
+        this.usesSharedCache = usesSharedCache;
+    }
 }
@@ -21,30 +21,42 @@
 package net.minecraftforge.gradle.user;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import groovy.lang.Closure;
-import net.md_5.specialsource.Jar;
+import net.md_5.specialsource.InheritanceMap;
 import net.md_5.specialsource.JarMapping;
 import net.md_5.specialsource.JarRemapper;
-import net.md_5.specialsource.provider.ClassLoaderProvider;
-import net.md_5.specialsource.provider.JarProvider;
+import net.md_5.specialsource.provider.InheritanceProvider;
 import net.md_5.specialsource.provider.JointProvider;
+import net.md_5.specialsource.repo.ClassRepo;
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.GradleConfigurationException;
+import net.minecraftforge.gradle.util.caching.MappingCache;
 import net.minecraftforge.gradle.util.mcp.ReobfExceptor;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.*;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
 
 import java.io.*;
-import java.net.URLClassLoader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.*;
 
 /**
  * Reobfuscates an arbitrary jar artifact.
@@ -127,8 +139,7 @@ public class TaskSingleReobf extends DefaultTask {
             exc.excConfig = getExceptorCfg();
             exc.fieldCSV = getFieldCsv();
             exc.methodCSV = getMethodCsv();
-            exc.doFirstThings();
-            exc.buildSrg(getPrimarySrg(), srg);
+            exc.buildSrg(getProject(), getPrimarySrg(), srg);
         } else {
             Files.copy(getPrimarySrg(), srg);
         }
@@ -148,100 +159,257 @@ public class TaskSingleReobf extends DefaultTask {
             }
         }
 
-        // prepare jar for reobf
-        File out = getJar(); // we will repalce the file on output
-        File tempIn = File.createTempFile("input", ".jar", getTemporaryDir());
-        tempIn.deleteOnExit();
-        Constants.copyFile(out, tempIn); // copy the to-be-output jar to the temporary input location. because output == input
-
-        // pre-transform
-        List<ReobfTransformer> transformers = getPreTransformers();
-        if (!transformers.isEmpty()) {
-            File transformed = File.createTempFile("preTransformed", ".jar", getTemporaryDir());
-            transformed.deleteOnExit();
-            applyExtraTransformers(tempIn, transformed, transformers);
-            tempIn.delete();
-
-            tempIn = transformed; // for later copying
-        }
-
-        // obfuscate
-        File obfuscated = File.createTempFile("obfuscated", ".jar", getTemporaryDir());
-        obfuscated.deleteOnExit();
-        applySpecialSource(tempIn, obfuscated, srg, srgLines, getSecondarySrgFiles());
-        tempIn.delete();
+        // everything happens in one pass over the jar, the output only replaces it once it's complete
+        File out = getJar();
+        File temp = new File(out.getParentFile(), out.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+        try {
+            reobfJar(out, temp, srg, srgLines, getSecondarySrgFiles());
 
-        // post transform
-        transformers = getPostTransformers();
-        if (!transformers.isEmpty()) {
-            File transformed = File.createTempFile("postTransformed", ".jar", getTemporaryDir());
-            transformed.deleteOnExit();
-            applyExtraTransformers(obfuscated, transformed, transformers);
-
-            obfuscated = transformed; // for later copying
+            try {
+                java.nio.file.Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                java.nio.file.Files.move(temp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
         }
-
-        // copy to output
-        Constants.copyFile(obfuscated, out);
-        obfuscated.delete();
     }
 
-    private void applySpecialSource(File input, File output, File srg, File extraSrg, FileCollection extraSrgFiles) throws IOException {
+    /**
+     * Runs every class through the pre-transformers, SpecialSource and the post-transformers in memory,
+     * in parallel, and copies everything else without inflating it.
+     */
+    private void reobfJar(File input, File output, File srg, File extraSrg, FileCollection extraSrgFiles) throws IOException {
         // load mapping
-        JarMapping mapping = new JarMapping();
-        mapping.loadMappings(srg);
-        mapping.loadMappings(extraSrg);
+        List<File> srgs = Lists.newArrayList(srg, extraSrg);
+        srgs.addAll(extraSrgFiles.getFiles());
+        final JarMapping mapping = MappingCache.getJarMapping(getProject(), srgs);
 
-        for (File f : extraSrgFiles) {
-            mapping.loadMappings(f);
-        }
+        final List<ReobfTransformer> preTransformers = getPreTransformers();
+        final List<ReobfTransformer> postTransformers = getPostTransformers();
 
-        // make remapper
-        JarRemapper remapper = new JarRemapper(null, mapping);
+        try (ZipFile in = new ZipFile(input);
+             ZipArchiveOutputStream zout = new ZipArchiveOutputStream(output)) {
+            final InputClasses classes = new InputClasses(in, preTransformers);
 
-        // load jar
-        URLClassLoader classLoader = null;
-        try (Jar inputJar = Jar.init(input)) {
             // ensure that inheritance provider is used
-            JointProvider inheritanceProviders = new JointProvider();
-            inheritanceProviders.add(new JarProvider(inputJar));
+            final JointProvider inheritanceProviders = new JointProvider();
+            inheritanceProviders.add(classes);
 
             if (classpath != null && !classpath.isEmpty())
-                inheritanceProviders.add(new ClassLoaderProvider(classLoader = new URLClassLoader(Constants.toUrls(classpath))));
+                inheritanceProviders.add(MappingCache.getClasspathProvider(getProject(), classpath.getFiles()));
 
+            // the mapping is only read, besides the inheritance it remembers, which all threads share
+            mapping.setInheritanceMap(new ConcurrentInheritanceMap());
             mapping.setFallbackInheritanceProvider(inheritanceProviders);
+            final JarRemapper remapper = new JarRemapper(null, mapping);
+
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                // classes are reobfuscated in parallel, but only a few are kept in memory ahead of the entry being written
+                int window = Runtime.getRuntime().availableProcessors() * 4;
+                Deque<ZipArchiveEntry> pendingEntries = new LinkedList<ZipArchiveEntry>();
+                // null for entries that are copied as they are
+                Deque<Future<ReobfClass>> pending = new LinkedList<Future<ReobfClass>>();
+                int reobfing = 0;
+
+                for (ZipArchiveEntry e : Collections.list(in.getEntries())) {
+                    final String name = e.getName();
+
+                    // SpecialSource drops signatures, as they don't match anymore
+                    if (name.endsWith(".DSA") || name.endsWith(".SF"))
+                        continue;
+
+                    Future<ReobfClass> data = null;
+                    if (!e.isDirectory() && name.endsWith(".class")) {
+                        data = executor.submit(new Callable<ReobfClass>() {
+                            @Override
+                            public ReobfClass call() throws Exception {
+                                byte[] bytes = remapper.remapClassFile(classes.getBytes(name), classes);
+                                for (ReobfTransformer trans : postTransformers) {
+                                    bytes = trans.transform(bytes);
+                                }
+
+                                String mapped = remapper.map(name.substring(0, name.length() - ".class".length()));
+                                return new ReobfClass(mapped == null ? name : mapped + ".class", bytes);
+                            }
+                        });
+                        reobfing++;
+                    }
+                    pendingEntries.add(e);
+                    pending.add(data);
 
-            // remap jar
-            remapper.remapJar(inputJar, output);
-        } finally {
-            if (classLoader != null)
-                classLoader.close();
+                    while (reobfing >= window) {
+                        if (writeEntry(in, zout, pendingEntries.poll(), pending.poll()))
+                            reobfing--;
+                    }
+                }
+
+                while (!pendingEntries.isEmpty()) {
+                    writeEntry(in, zout, pendingEntries.poll(), pending.poll());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Writes the reobfuscated class, or copies the entry as it is if it isn't a class.
+     *
+     * @return if the entry was a class
+     */
+    private static boolean writeEntry(ZipFile in, ZipArchiveOutputStream out, ZipArchiveEntry entry, Future<ReobfClass> data) throws IOException {
+        if (data == null) {
+            out.addRawArchiveEntry(entry, in.getRawInputStream(entry));
+            return false;
         }
+
+        ReobfClass cls;
+        try {
+            cls = data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reobfuscating " + entry.getName());
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+
+        ZipArchiveEntry n = new ZipArchiveEntry(cls.name);
+        n.setTime(entry.getTime());
+        out.putArchiveEntry(n);
+        out.write(cls.data);
+        out.closeArchiveEntry();
+        return true;
     }
 
-    private void applyExtraTransformers(File inJar, File outJar, List<ReobfTransformer> transformers) throws IOException {
-        try (ZipFile in = new ZipFile(inJar);
-             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outJar)))) {
-            for (ZipEntry e : Collections.list(in.entries())) {
-                if (e.isDirectory()) {
-                    out.putNextEntry(e);
-                    continue;
+    private static final class ReobfClass {
+        final String name;
+        final byte[] data;
+
+        ReobfClass(String name, byte[] data) {
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The classes of the jar as SpecialSource should see them, which is after the pre-transformers ran.
+     * Looking up other classes only needs their parents and members, so only those are kept, not the classes.
+     * A class is transformed once for reobfuscating it, and once more if another class looked it up before that.
+     */
+    private static final class InputClasses implements ClassRepo, InheritanceProvider {
+        private final ZipFile jar;
+        private final List<ReobfTransformer> transformers;
+        private final ConcurrentMap<String, ClassNode> headers = new ConcurrentHashMap<String, ClassNode>();
+
+        InputClasses(ZipFile jar, List<ReobfTransformer> transformers) {
+            this.jar = jar;
+            this.transformers = transformers;
+        }
+
+        /**
+         * @param entryName the name of a class entry of the jar
+         * @return the class, after the pre-transformers
+         */
+        byte[] getBytes(String entryName) throws IOException {
+            ZipArchiveEntry entry = jar.getEntry(entryName);
+            if (entry == null)
+                return null;
+
+            byte[] data;
+            try (InputStream stream = jar.getInputStream(entry)) {
+                data = ByteStreams.toByteArray(stream);
+            }
+            for (ReobfTransformer trans : transformers) {
+                data = trans.transform(data);
+            }
+
+            String internalName = entryName.substring(0, entryName.length() - ".class".length());
+            if (!headers.containsKey(internalName))
+                headers.putIfAbsent(internalName, readHeader(data));
+            return data;
+        }
+
+        @Override
+        public ClassNode findClass(String internalName) {
+            ClassNode node = headers.get(internalName);
+            if (node != null)
+                return node;
+
+            try {
+                if (getBytes(internalName + ".class") == null)
+                    return null;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return headers.get(internalName);
+        }
+
+        @Override
+        public Collection<String> getParents(String className) {
+            ClassNode node = findClass(className);
+            if (node == null)
+                return null;
+
+            List<String> parents = new ArrayList<String>(node.interfaces);
+            if (node.superName != null)
+                parents.add(node.superName);
+            return parents;
+        }
+
+        /**
+         * @return a node with only what SpecialSource looks up: the parents, and the name, descriptor and access of the members
+         */
+        private static ClassNode readHeader(byte[] data) {
+            final ClassNode node = new ClassNode();
+            new ClassReader(data).accept(new ClassVisitor(Opcodes.ASM6) {
+                @Override
+                public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                    node.access = access;
+                    node.name = name;
+                    node.superName = superName;
+                    if (interfaces != null)
+                        Collections.addAll(node.interfaces, interfaces);
                 }
-                ZipEntry n = new ZipEntry(e.getName());
-                n.setTime(e.getTime());
-                out.putNextEntry(n);
 
-                byte[] data = ByteStreams.toByteArray(in.getInputStream(e));
+                @Override
+                public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                    node.fields.add(new FieldNode(access, name, desc, null, null));
+                    return null;
+                }
 
-                // correct source name
-                if (e.getName().endsWith(".class")) {
-                    for (ReobfTransformer trans : transformers) {
-                        data = trans.transform(data);
-                    }
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    node.methods.add(new MethodNode(access, name, desc, null, null));
+                    return null;
                 }
+            }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return node;
+        }
+    }
 
-                out.write(data);
-            }
+    /**
+     * The inheritance a JarMapping remembers while it climbs the hierarchy, safe to share between threads.
+     */
+    private static final class ConcurrentInheritanceMap extends InheritanceMap {
+        private final ConcurrentMap<String, List<String>> parents = new ConcurrentHashMap<String, List<String>>();
+
+        @Override
+        public boolean hasParents(String className) {
+            return parents.containsKey(className);
+        }
+
+        @Override
+        public List<String> getParents(String className) {
+            return parents.get(className);
+        }
+
+        @Override
+        public void setParents(String className, Collection<String> parents) {
+            this.parents.put(className, parents == null ? new ArrayList<String>() : new ArrayList<String>(parents));
         }
     }
 
@@ -583,6 +583,7 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
             deobf.setOutJar(getFile(DIR_DEOBF_DEPS, group, module.getName(), module.getVersion(), null));
             deobf.setFieldCsv(delayedFile(CSV_FIELD));
             deobf.setMethodCsv(delayedFile(CSV_METHOD));
+            deobf.setUsesSharedCache(true);
             deobf.dependsOn(TASK_EXTRACT_MAPPINGS);
             dummyTask.dependsOn(deobf);
 
@@ -610,6 +611,7 @@ public abstract class UserBasePlugin<T extends UserBaseExtension> extends BasePl
                 remap.setFieldsCsv(delayedFile(CSV_FIELD));
                 remap.setMethodsCsv(delayedFile(CSV_METHOD));
                 remap.setParamsCsv(delayedFile(CSV_PARAM));
+                remap.setUsesSharedCache(true);
                 remap.dependsOn(TASK_EXTRACT_MAPPINGS);
                 dummyTask.dependsOn(remap);
                 break;
@@ -0,0 +1,238 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.user.patcherUser;
+
+import net.minecraftforge.gradle.user.patcherUser.TaskApplyBinPatches.ClassPatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The class patches of a binpatch archive, stored already decoded so they don't have to be
+ * unpacked from the archive again. Only the small index of the patches is read up front,
+ * the patch bytes themselves are read from the file when a patch is asked for.
+ * <p>
+ * If the patches can't be stored, {@link #of(Collection)} keeps them in memory instead.
+ * <p>
+ * Reading patches is thread safe.
+ */
+class BinPatchIndex implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinPatchIndex.class);
+    private static final int FORMAT_VERSION = 1;
+
+    /** null if the patches are kept in memory */
+    private final FileChannel channel;
+    private final Map<String, Entry> entries;
+
+    private BinPatchIndex(FileChannel channel, Map<String, Entry> entries) {
+        this.channel = channel;
+        this.entries = entries;
+    }
+
+    /**
+     * @return the index stored in the file, or null if there is none or it can't be read
+     */
+    static BinPatchIndex open(File file) {
+        if (!file.isFile())
+            return null;
+
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+            ByteBuffer header = ByteBuffer.allocate(8);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != FORMAT_VERSION) {
+                channel.close();
+                return null;
+            }
+
+            ByteBuffer index = ByteBuffer.allocate(header.getInt());
+            readFully(channel, index, 8);
+            long dataStart = 8 + index.capacity();
+
+            Map<String, Entry> entries = new HashMap<String, Entry>();
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array()));
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = new Entry(in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean(), in.readInt(), dataStart + in.readLong(), in.readInt(), null);
+                entries.put(getEntryName(entry.sourceClassName), entry);
+            }
+            return new BinPatchIndex(channel, entries);
+        } catch (IOException e) {
+            // the archive just gets decoded again.
+            LOGGER.debug("Discarding unreadable binpatch index " + file, e);
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return an index over the patches, which are kept in memory
+     */
+    static BinPatchIndex of(Collection<ClassPatch> patches) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        for (ClassPatch patch : patches) {
+            Entry entry = new Entry(patch.name, patch.sourceClassName, patch.targetClassName, patch.existsAtTarget, patch.inputChecksum, -1, patch.patch.length, patch.patch);
+            entries.put(getEntryName(entry.sourceClassName), entry);
+        }
+        return new BinPatchIndex(null, entries);
+    }
+
+    /**
+     * Stores the patches in the file. The write goes through a temporary file, so other builds reading
+     * the same file never see a partial index.
+     *
+     * @return false if it could not be written
+     */
+    static boolean write(File file, Collection<ClassPatch> patches) {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getParentFile(), file.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+
+        try {
+            ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+            try (DataOutputStream index = new DataOutputStream(indexBytes)) {
+                index.writeInt(patches.size());
+                long offset = 0;
+                for (ClassPatch patch : patches) {
+                    index.writeUTF(patch.name);
+                    index.writeUTF(patch.sourceClassName);
+                    index.writeUTF(patch.targetClassName);
+                    index.writeBoolean(patch.existsAtTarget);
+                    index.writeInt(patch.inputChecksum);
+                    index.writeLong(offset);
+                    index.writeInt(patch.patch.length);
+                    offset += patch.patch.length;
+                }
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(indexBytes.size());
+                indexBytes.writeTo(out);
+                for (ClassPatch patch : patches) {
+                    out.write(patch.patch);
+                }
+            }
+
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            LOGGER.debug("Could not write binpatch index " + file, e);
+            temp.delete();
+            return false;
+        }
+    }
+
+    /**
+     * @return the name of the jar entry the patch of the class applies to
+     */
+    static String getEntryName(String sourceClassName) {
+        return sourceClassName.replace('.', '/') + ".class";
+    }
+
+    /**
+     * @return the names of the jar entries there are patches for
+     */
+    Set<String> getEntryNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the patch for the jar entry, or null if it isn't patched
+     */
+    ClassPatch get(String entryName) throws IOException {
+        Entry entry = entries.get(entryName);
+        if (entry == null)
+            return null;
+
+        byte[] patch = entry.patch;
+        if (patch == null) {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            readFully(channel, buffer, entry.offset);
+            patch = buffer.array();
+        }
+        return new ClassPatch(entry.name, entry.sourceClassName, entry.targetClassName, entry.existsAtTarget, entry.inputChecksum, patch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null)
+            channel.close();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new EOFException();
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final String sourceClassName;
+        final String targetClassName;
+        final boolean existsAtTarget;
+        final int inputChecksum;
+        final long offset;
+        final int length;
+        /** null if the patch is read from the file */
+        final byte[] patch;
+
+        Entry(String name, String sourceClassName, String targetClassName, boolean existsAtTarget, int inputChecksum, long offset, int length, byte[] patch) {
+            this.name = name;
+            this.sourceClassName = sourceClassName;
+            this.targetClassName = targetClassName;
+            this.existsAtTarget = existsAtTarget;
+            this.inputChecksum = inputChecksum;
+            this.offset = offset;
+            this.length = length;
+            this.patch = patch;
+        }
+    }
+}
@@ -22,6 +22,7 @@ package net.minecraftforge.gradle.user.patcherUser;
 
 import cn.feng.util.CustomPack200;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
 import com.google.common.io.ByteArrayDataInput;
 import com.google.common.io.ByteStreams;
@@ -30,22 +31,23 @@ import lzma.sdk.lzma.Decoder;
 import lzma.streams.LzmaInputStream;
 import net.minecraftforge.gradle.util.caching.Cached;
 import net.minecraftforge.gradle.util.caching.CachedTask;
-import org.gradle.api.file.FileVisitDetails;
-import org.gradle.api.file.FileVisitor;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 
 import java.io.*;
 import java.nio.file.Files;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
 import java.util.regex.Pattern;
-import java.util.zip.*;
+import java.util.zip.Adler32;
 
 public class TaskApplyBinPatches extends CachedTask {
     //@formatter:off
@@ -61,8 +63,8 @@ public class TaskApplyBinPatches extends CachedTask {
     @Cached
     Object outJar;
 
-    private final HashMap<String, ClassPatch> patchlist = Maps.newHashMap();
-    private final GDiffPatcher patcher = new GDiffPatcher();
+    private BinPatchIndex patchlist;
+    private final ThreadLocal<GDiffPatcher> patchers = new ThreadLocal<GDiffPatcher>();
 
     @TaskAction
     public void doTask() throws IOException {
@@ -74,77 +76,120 @@ public class TaskApplyBinPatches extends CachedTask {
 
         final HashSet<String> entries = new HashSet<String>();
 
-        try (ZipFile in = new ZipFile(getInJar());
-             ZipInputStream classesIn = new ZipInputStream(new FileInputStream(getClassJar()));
-             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(getOutJar())))) {
+        try (BinPatchIndex patches = patchlist;
+             ZipFile in = new ZipFile(getInJar());
+             ZipArchiveOutputStream out = new ZipArchiveOutputStream(getOutJar())) {
             // DO PATCHES
             log("Patching Class:");
-            for (ZipEntry e : Collections.list(in.entries())) {
-                if (e.getName().contains("META-INF"))
-                    continue;
-
-                if (e.isDirectory()) {
-                    out.putNextEntry(e);
-                } else {
-                    ZipEntry n = new ZipEntry(e.getName());
-                    n.setTime(e.getTime());
-                    out.putNextEntry(n);
-
-                    byte[] data = ByteStreams.toByteArray(in.getInputStream(e));
-                    ClassPatch patch = patchlist.get(e.getName().replace('\\', '/'));
-
+            ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+            try {
+                // classes are patched in parallel, but only a few are kept in memory ahead of the entry being written
+                int window = Runtime.getRuntime().availableProcessors() * 4;
+                Deque<ZipArchiveEntry> pendingEntries = new ArrayDeque<ZipArchiveEntry>();
+                // null for entries that are copied as they are
+                Deque<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+                int patching = 0;
+
+                for (ZipArchiveEntry e : Collections.list(in.getEntries())) {
+                    if (e.getName().contains("META-INF"))
+                        continue;
+
+                    final ZipArchiveEntry entry = e;
+                    final ClassPatch patch = e.isDirectory() ? null : patches.get(e.getName().replace('\\', '/'));
+                    Future<byte[]> data = null;
                     if (patch != null) {
-                        log("\t%s (%s) (input size %d)", patch.targetClassName, patch.sourceClassName, data.length);
-                        int inputChecksum = adlerHash(data);
-                        if (patch.inputChecksum != inputChecksum) {
-                            throw new RuntimeException(String.format("There is a binary discrepency between the expected input class %s (%s) and the actual class. Checksum on disk is %x, in patch %x. Things are probably about to go very wrong. Did you put something into the jar file?", patch.targetClassName, patch.sourceClassName, inputChecksum, patch.inputChecksum));
-                        }
-                        synchronized (patcher) {
-                            data = patcher.patch(data, patch.patch);
-                        }
+                        data = executor.submit(new Callable<byte[]>() {
+                            @Override
+                            public byte[] call() throws Exception {
+                                try (InputStream stream = in.getInputStream(entry)) {
+                                    return applyPatch(patch, ByteStreams.toByteArray(stream));
+                                }
+                            }
+                        });
+                        patching++;
                     }
+                    pendingEntries.add(e);
+                    pending.add(data);
 
-                    out.write(data);
+                    while (patching >= window) {
+                        if (writeEntry(in, out, pendingEntries.poll(), pending.poll()))
+                            patching--;
+                    }
+
+                    // add the names to the hashset
+                    entries.add(e.getName());
                 }
 
-                // add the names to the hashset
-                entries.add(e.getName());
+                while (!pendingEntries.isEmpty()) {
+                    writeEntry(in, out, pendingEntries.poll(), pending.poll());
+                }
+            } finally {
+                executor.shutdownNow();
             }
 
             // COPY DATA
-            ZipEntry entry = null;
-            while ((entry = classesIn.getNextEntry()) != null) {
-                if (entries.contains(entry.getName()))
-                    continue;
-
-                out.putNextEntry(entry);
-                out.write(ByteStreams.toByteArray(classesIn));
-                entries.add(entry.getName());
+            try (ZipFile classesIn = new ZipFile(getClassJar())) {
+                for (ZipArchiveEntry entry : Collections.list(classesIn.getEntries())) {
+                    if (entries.add(entry.getName()))
+                        out.addRawArchiveEntry(entry, classesIn.getRawInputStream(entry));
+                }
             }
 
-            getProject().zipTree(getResourceJar()).visit(new FileVisitor() {
-                @Override
-                public void visitDir(FileVisitDetails dirDetails) {
+            // resources aren't touched either, so they are copied without inflating them
+            try (ZipFile resourcesIn = new ZipFile(getResourceJar())) {
+                for (ZipArchiveEntry entry : Collections.list(resourcesIn.getEntries())) {
+                    if (!entry.isDirectory() && entries.add(entry.getName().replace('\\', '/')))
+                        out.addRawArchiveEntry(entry, resourcesIn.getRawInputStream(entry));
                 }
+            }
+        }
+    }
 
-                @Override
-                public void visitFile(FileVisitDetails file) {
-                    try {
-                        String name = file.getRelativePath().toString().replace('\\', '/');
-                        if (!entries.contains(name)) {
-                            ZipEntry n = new ZipEntry(name);
-                            n.setTime(file.getLastModified());
-                            out.putNextEntry(n);
-                            ByteStreams.copy(file.open(), out);
-                            entries.add(name);
-                        }
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
+    private byte[] applyPatch(ClassPatch patch, byte[] data) throws IOException {
+        log("\t%s (%s) (input size %d)", patch.targetClassName, patch.sourceClassName, data.length);
+        int inputChecksum = adlerHash(data);
+        if (patch.inputChecksum != inputChecksum) {
+            throw new RuntimeException(String.format("There is a binary discrepency between the expected input class %s (%s) and the actual class. Checksum on disk is %x, in patch %x. Things are probably about to go very wrong. Did you put something into the jar file?", patch.targetClassName, patch.sourceClassName, inputChecksum, patch.inputChecksum));
+        }
+
+        // the patcher keeps buffers between patches, so every thread gets its own
+        GDiffPatcher patcher = patchers.get();
+        if (patcher == null) {
+            patcher = new GDiffPatcher();
+            patchers.set(patcher);
+        }
+        return patcher.patch(data, patch.patch);
+    }
 
-            });
+    /**
+     * Writes the patched class, or copies the entry as it is if it isn't patched.
+     *
+     * @return if the entry was patched
+     */
+    private boolean writeEntry(ZipFile in, ZipArchiveOutputStream out, ZipArchiveEntry entry, Future<byte[]> data) throws IOException {
+        if (data == null) {
+            out.addRawArchiveEntry(entry, in.getRawInputStream(entry));
+            return false;
         }
+
+        byte[] bytes;
+        try {
+            bytes = data.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while patching " + entry.getName());
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+
+        ZipArchiveEntry n = new ZipArchiveEntry(entry.getName());
+        n.setTime(entry.getTime());
+        out.putArchiveEntry(n);
+        out.write(bytes);
+        out.closeArchiveEntry();
+        return true;
     }
 
     private int adlerHash(byte[] input) {
@@ -153,7 +198,31 @@ public class TaskApplyBinPatches extends CachedTask {
         return (int) hasher.getValue();
     }
 
+    /**
+     * Opens the decoded patches of the archive, decoding the archive first if that hasn't been done yet.
+     * They are kept in the gradle user home, keyed by the hash of the archive. If they can't be stored
+     * there, they are kept in memory for this run.
+     */
     public void setup() {
+        File cacheFile = new File(getProject().getGradle().getGradleUserHomeDir(), "caches/minecraft/binpatches/" + FileHashIndex.get(getProject()).hash(getPatches()) + ".bin");
+
+        patchlist = BinPatchIndex.open(cacheFile);
+        if (patchlist == null) {
+            Collection<ClassPatch> patches = readPatches();
+            if (BinPatchIndex.write(cacheFile, patches)) {
+                patchlist = BinPatchIndex.open(cacheFile);
+            }
+            if (patchlist == null) {
+                // the cache only saves decoding the archive next time, this build can use the patches as they are
+                getLogger().debug("Could not store the binary patches of {} in {}, keeping them in memory", getPatches(), cacheFile);
+                patchlist = BinPatchIndex.of(patches);
+            }
+        }
+        log("Read %d binary patches", patchlist.size());
+        log("Patch list :\n\t%s", Joiner.on("\n\t").join(patchlist.getEntryNames()));
+    }
+
+    private Collection<ClassPatch> readPatches() {
         Pattern matcher = Pattern.compile("binpatch/merged/.*.binpatch");
 
         byte[] bytes;
@@ -168,6 +237,7 @@ public class TaskApplyBinPatches extends CachedTask {
         }
 
         log("Reading Patches:");
+        Map<String, ClassPatch> patches = Maps.newLinkedHashMap();
         try (JarInputStream jis = new JarInputStream(new ByteArrayInputStream(bytes))) {
             do {
                 JarEntry entry = jis.getNextJarEntry();
@@ -177,15 +247,14 @@ public class TaskApplyBinPatches extends CachedTask {
 
                 if (matcher.matcher(entry.getName()).matches()) {
                     ClassPatch cp = readPatch(entry, jis);
-                    patchlist.put(cp.sourceClassName.replace('.', '/') + ".class", cp);
+                    patches.put(BinPatchIndex.getEntryName(cp.sourceClassName), cp);
                 }
                 jis.closeEntry();
             } while (true);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        log("Read %d binary patches", patchlist.size());
-        log("Patch list :\n\t%s", Joiner.on("\n\t").join(patchlist.entrySet()));
+        return patches.values();
     }
 
     private ClassPatch readPatch(JarEntry patchEntry, JarInputStream jis) throws IOException {
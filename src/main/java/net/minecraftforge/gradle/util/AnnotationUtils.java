@@ -20,17 +20,113 @@
  */
 package net.minecraftforge.gradle.util;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.objectweb.asm.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Writer;
 import java.lang.reflect.Array;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class AnnotationUtils {
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * Scans the classes of the jar in parallel, while copying every entry to the output as it is, without inflating it.
+     *
+     * @param in     the jar to scan
+     * @param out    where to copy the entries of the jar, or null to only scan it
+     * @param filter which entries to scan and copy, by their name
+     * @return what was found, sorted by class name
+     */
+    public static JarInfo processJar(final ZipFile in, ZipArchiveOutputStream out, Predicate<String> filter) throws IOException {
+        Map<String, Future<ASMInfo>> scanned = new LinkedHashMap<String, Future<ASMInfo>>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (final ZipArchiveEntry e : Collections.list(in.getEntriesInPhysicalOrder())) {
+                String name = e.getName();
+                if (!filter.test(name))
+                    continue;
+
+                if (!e.isDirectory() && name.endsWith(".class")) {
+                    scanned.put(name.substring(0, name.length() - 6), executor.submit(new Callable<ASMInfo>() {
+                        @Override
+                        public ASMInfo call() throws Exception {
+                            try (InputStream data = in.getInputStream(e)) {
+                                return processClass(ByteStreams.toByteArray(data));
+                            }
+                        }
+                    }));
+                }
+
+                if (out != null)
+                    out.addRawArchiveEntry(e, in.getRawInputStream(e));
+            }
+
+            JarInfo info = new JarInfo();
+            for (Map.Entry<String, Future<ASMInfo>> e : scanned.entrySet()) {
+                info.add(e.getKey(), get(e.getKey(), e.getValue()));
+            }
+            return info;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static ASMInfo get(String name, Future<ASMInfo> info) throws IOException {
+        try {
+            return info.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning " + name);
+        } catch (ExecutionException e) {
+            Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Writes the map as a pretty printed JSON object, one entry at a time, without building the whole string first.
+     * The writer is flushed, but not closed.
+     *
+     * @param data   the map to write
+     * @param writer where to write it
+     */
+    public static void writeJson(Map<String, ?> data, Writer writer) throws IOException {
+        JsonWriter json = GSON.newJsonWriter(writer);
+        json.beginObject();
+        for (Map.Entry<String, ?> e : data.entrySet()) {
+            json.name(e.getKey());
+            GSON.toJson(e.getValue(), e.getValue().getClass(), json);
+        }
+        json.endObject();
+        json.flush();
+    }
+
     public static ASMInfo processClass(byte[] data) {
         final ASMInfo info = new ASMInfo();
         ClassReader reader = new ClassReader(data);
@@ -67,23 +163,66 @@ public class AnnotationUtils {
                     }
                 };
             }
-        }, 0);
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
 
         return info;
     }
 
+    public static class JarInfo {
+        public final Map<String, ASMInfo> asm_info = Maps.newTreeMap(); //Tree map because I like sorted outputs.
+        public final Map<String, Integer> class_versions = Maps.newTreeMap();
+        private transient int subCount = 1;
+
+        /**
+         * Called in the order of the entries of the jar, so the ids of the nested annotations
+         * don't depend on the order the classes were scanned in.
+         */
+        private void add(String name, ASMInfo info) {
+            if (info == null)
+                return;
+
+            if (info.subtypes != null) {
+                for (Annotation sub : info.subtypes) {
+                    sub.id = subCount++;
+                }
+            }
+
+            class_versions.put(name, info.version);
+            info.version = null;
+            if (info.annotations != null) {
+                for (Annotation anno : info.annotations) {
+                    anno.resolveIds();
+                    if (anno.values != null && anno.values.size() == 1 && anno.values.containsKey("value")) {
+                        anno.value = anno.values.get("value");
+                        anno.values = null;
+                    }
+                }
+            }
+            if (info.annotations != null || info.interfaces != null)
+                asm_info.put(name, info);
+        }
+    }
+
     public static class ASMInfo {
         public String name;
         public Integer version = -1; //Used this to pass up, will be nulled out so it doesn't actually make it to the json
         //public String super_type; // Was used for looking for ModLoader mods, but not used anymore.
         public String[] interfaces;
         public List<Annotation> annotations;
+        // the nested annotations, in the order they were found
+        private transient List<Annotation> subtypes;
 
         public void add(Annotation anno) {
             if (annotations == null)
                 this.annotations = Lists.newArrayList();
             this.annotations.add(anno);
         }
+
+        private void addSubtype(Annotation anno) {
+            if (subtypes == null)
+                this.subtypes = Lists.newArrayList();
+            this.subtypes.add(anno);
+        }
     }
 
     public enum TargetType {CLASS, FIELD, METHOD, SUBTYPE}
@@ -119,8 +258,10 @@ public class AnnotationUtils {
         private static final ValueHolder EMPTY_LIST = new ValueHolder(null, null, Lists.newArrayList());
 
         public final ValueType type;
-        public final String value;
-        public final List<String> values;
+        public String value;
+        public List<String> values;
+        // the nested annotations this refers to, whose ids are only known once the whole jar was scanned
+        private transient List<Annotation> annotations;
 
         private ValueHolder(Object value) {
             Class<?> cls = value.getClass();
@@ -154,8 +295,11 @@ public class AnnotationUtils {
             if (value == null)
                 return NULL;
 
-            if (value instanceof Annotation)
-                return new ValueHolder(ValueType.ANNOTATION, ((Annotation) value).id.toString(), null);
+            if (value instanceof Annotation) {
+                ValueHolder holder = new ValueHolder(ValueType.ANNOTATION, null, null);
+                holder.annotations = Collections.singletonList((Annotation) value);
+                return holder;
+            }
 
             return new ValueHolder(value);
         }
@@ -168,16 +312,35 @@ public class AnnotationUtils {
             if (values.isEmpty())
                 return EMPTY_LIST;
 
+            if (values.get(0).type == ValueType.ANNOTATION) {
+                ValueHolder holder = new ValueHolder(ValueType.ANNOTATION, null, Lists.<String>newArrayList());
+                holder.annotations = values.stream().flatMap(a -> a.annotations.stream()).collect(Collectors.toList());
+                return holder;
+            }
+
             return new ValueHolder(values.get(0).type, null, values.stream().map(a -> a.value).collect(Collectors.toList()));
         }
+
+        private void resolveIds() {
+            if (annotations == null)
+                return;
+
+            if (values == null) {
+                value = annotations.get(0).id.toString();
+            } else {
+                values.clear();
+                for (Annotation anno : annotations)
+                    values.add(anno.id.toString());
+            }
+        }
     }
 
     public static class Annotation {
-        private static int SUB_COUNT = 1;
         public final TargetType type;
         public final String name;
         public final String target;
-        public final Integer id;
+        // set for nested annotations once the jar was scanned, see JarInfo.add
+        public Integer id;
         public ValueHolder value;
         public Map<String, ValueHolder> values;
 
@@ -185,7 +348,6 @@ public class AnnotationUtils {
             this.type = type;
             this.name = name;
             this.target = target;
-            this.id = this.type == TargetType.SUBTYPE ? SUB_COUNT++ : null;
         }
 
         // Possible Types: boolean, byte, char, short, int, long, float, double, String, Class, Enum, and annotation.
@@ -196,6 +358,15 @@ public class AnnotationUtils {
                 values = Maps.newTreeMap();
             values.put(name, value);
         }
+
+        private void resolveIds() {
+            if (value != null)
+                value.resolveIds();
+            if (values != null) {
+                for (ValueHolder holder : values.values())
+                    holder.resolveIds();
+            }
+        }
     }
 
     private static class ModAnnotationVisitor extends AnnotationVisitor {
@@ -239,6 +410,7 @@ public class AnnotationUtils {
         @Override
         public AnnotationVisitor visitAnnotation(String name, String desc) {
             Annotation child = new Annotation(TargetType.SUBTYPE, desc, null);
+            info.addSubtype(child);
             anno.addProperty(name, ValueHolder.of(child));
             return new ModAnnotationVisitor(info, child);
         }
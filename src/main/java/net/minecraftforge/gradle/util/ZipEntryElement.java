@@ -0,0 +1,146 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import com.google.common.io.ByteStreams;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.RelativePath;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * An entry of a zip as a {@link FileTreeElement}, so specs and patterns can be matched against the entries
+ * while going through the zip once, instead of visiting it as a zipTree first.
+ * The path is parsed from the name of the entry, and the entry is only extracted if a spec asks for its file.
+ * Callers delete the extracted files once they are done with the zip.
+ * <p>
+ * This implements {@link FileTreeElement} as it is in Gradle 6, which the plugin is built against.
+ * Later Gradle versions add methods to the interface that this class would have to implement as well.
+ */
+public class ZipEntryElement implements FileTreeElement {
+    private final ZipFile zip;
+    private final ZipArchiveEntry entry;
+    private final File tempDir;
+    private RelativePath path;
+    private File file;
+
+    /**
+     * @param zip     the zip the entry belongs to
+     * @param entry   the entry
+     * @param tempDir where the entry is extracted to if its file is needed, the caller deletes it
+     */
+    public ZipEntryElement(ZipFile zip, ZipArchiveEntry entry, File tempDir) {
+        this.zip = zip;
+        this.entry = entry;
+        this.tempDir = tempDir;
+    }
+
+    @Override
+    public File getFile() {
+        if (file == null) {
+            File out = getRelativePath().getFile(tempDir);
+            out.getParentFile().mkdirs();
+            if (!copyTo(out))
+                throw new GradleException("Could not extract " + entry.getName());
+            file = out;
+        }
+        return file;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return entry.isDirectory();
+    }
+
+    @Override
+    public long getLastModified() {
+        return entry.getTime();
+    }
+
+    @Override
+    public long getSize() {
+        return entry.getSize();
+    }
+
+    @Override
+    public InputStream open() {
+        try {
+            return zip.getInputStream(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + entry.getName(), e);
+        }
+    }
+
+    @Override
+    public void copyTo(OutputStream output) {
+        try (InputStream input = open()) {
+            ByteStreams.copy(input, output);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + entry.getName(), e);
+        }
+    }
+
+    @Override
+    public boolean copyTo(File target) {
+        if (isDirectory())
+            return target.mkdirs() || target.isDirectory();
+
+        try (OutputStream output = new FileOutputStream(target)) {
+            copyTo(output);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + target, e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return getRelativePath().getLastName();
+    }
+
+    @Override
+    public String getPath() {
+        return getRelativePath().getPathString();
+    }
+
+    @Override
+    public RelativePath getRelativePath() {
+        if (path == null)
+            path = RelativePath.parse(!entry.isDirectory(), entry.getName());
+        return path;
+    }
+
+    @Override
+    public int getMode() {
+        int mode = entry.getUnixMode();
+        if (mode != 0)
+            return mode & 0777;
+        return isDirectory() ? 0755 : 0644;
+    }
+}
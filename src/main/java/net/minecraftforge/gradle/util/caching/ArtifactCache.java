@@ -0,0 +1,295 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import net.minecraftforge.gradle.common.Constants;
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A directory of files shared by every build using the same gradle user home, keyed by digests of whatever
+ * the files were made from. Entries are only ever added whole, by moving a finished file into place, so they
+ * can be read without any locking.
+ * <p>
+ * Adding entries and evicting old ones happens under a lock file, so concurrent builds don't evict each other's
+ * files while they publish them. Each hit refreshes the modification time of the entry, and once the directory
+ * grows past its size limit the entries that were used least recently are deleted first.
+ * <p>
+ * Keys are salted with a digest of the plugin jar, as another version may make something else of the same inputs.
+ */
+public final class ArtifactCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArtifactCache.class);
+    private static final String LOCK_FILE = ".lock";
+    private static final long STALE_TEMP_AGE = 24L * 60 * 60 * 1000;
+
+    private static final Map<File, ArtifactCache> CACHES = new HashMap<File, ArtifactCache>();
+    private static String pluginHash;
+
+    private final File directory;
+    private final String salt;
+    private volatile long maxSize;
+
+    ArtifactCache(File directory, long maxSize, String salt) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.salt = salt;
+    }
+
+    /**
+     * Gets the cache in <code>caches/minecraft/&lt;name&gt;</code> of the gradle user home.
+     * The size limit can be changed with the <code>&lt;name&gt;Size</code> project property, in megabytes.
+     *
+     * @param project        any project of the build
+     * @param name           the name of the cache
+     * @param defaultMaxSize the size limit in megabytes, if the property isn't set
+     * @return the shared cache
+     */
+    public static ArtifactCache get(Project project, String name, long defaultMaxSize) {
+        String flag = name + "Size";
+        long maxSize = project.hasProperty(flag) ? Long.parseLong(project.property(flag).toString().trim()) : defaultMaxSize;
+        return get(new File(project.getGradle().getGradleUserHomeDir(), "caches/minecraft/" + name), maxSize * 1024 * 1024, getPluginHash(project));
+    }
+
+    /**
+     * Gets the cache stored in the given directory. The same instance is returned for the same directory.
+     *
+     * @param directory where the entries are stored
+     * @param maxSize   the size limit in bytes
+     * @param salt      what every key is salted with
+     * @return the cache
+     */
+    public static ArtifactCache get(File directory, long maxSize, String salt) {
+        synchronized (CACHES) {
+            File key = directory.getAbsoluteFile();
+            ArtifactCache cache = CACHES.get(key);
+            if (cache == null || !cache.salt.equals(salt)) {
+                cache = new ArtifactCache(key, maxSize, salt);
+                CACHES.put(key, cache);
+            } else {
+                cache.maxSize = maxSize;
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @return a digest of the jar this plugin was loaded from, or a random one if it can't be found so nothing is reused
+     */
+    private static synchronized String getPluginHash(Project project) {
+        if (pluginHash == null) {
+            CodeSource source = ArtifactCache.class.getProtectionDomain().getCodeSource();
+            File location = null;
+            try {
+                location = source == null ? null : new File(source.getLocation().toURI());
+            } catch (Exception e) {
+                // handled below
+            }
+
+            if (location == null || !location.exists()) {
+                pluginHash = UUID.randomUUID().toString();
+            } else {
+                List<String> hashes = FileHashIndex.get(project).hashAll(location);
+                pluginHash = hashes.toString();
+            }
+        }
+        return pluginHash;
+    }
+
+    /**
+     * Makes a key out of the given parts, usually a kind and format version followed by digests of the inputs.
+     *
+     * @param parts the parts of the key, in order
+     * @return the key
+     */
+    public String key(Object... parts) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putString(salt, Constants.CHARSET);
+        for (Object part : parts) {
+            String str = String.valueOf(part);
+            hasher.putInt(str.length());
+            hasher.putString(str, Constants.CHARSET);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Copies the entry of the given key to the target file, if there is one.
+     *
+     * @param key    the key of the entry
+     * @param target where to copy the entry to
+     * @return true if the entry existed and was copied
+     */
+    public boolean fetch(String key, File target) {
+        File file = getFile(key);
+        if (!file.isFile())
+            return false;
+
+        target.getAbsoluteFile().getParentFile().mkdirs();
+        File temp = new File(target.getAbsoluteFile().getParentFile(), target.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+
+        try {
+            // it may be evicted by another build at any time, which just makes this a miss.
+            Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            move(temp, target);
+        } catch (IOException e) {
+            LOGGER.debug("Could not read cached artifact " + file, e);
+            temp.delete();
+            return false;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Adds a copy of the given file as the entry of the given key, unless there is one already,
+     * and then evicts entries until the cache fits its size limit again.
+     * Failures are only logged, as the cache is never needed for the build to succeed.
+     *
+     * @param key    the key of the entry
+     * @param source the file to store
+     */
+    public synchronized void publish(String key, File source) {
+        File file = getFile(key);
+        directory.mkdirs();
+
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+             FileChannel channel = lockFile.getChannel();
+             FileLock lock = channel.lock()) {
+            if (file.isFile()) {
+                file.setLastModified(System.currentTimeMillis());
+                return;
+            }
+
+            file.getParentFile().mkdirs();
+            File temp = new File(file.getParentFile(), file.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+            try {
+                Files.copy(source.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                move(temp, file);
+            } catch (IOException e) {
+                temp.delete();
+                throw e;
+            }
+
+            evict(file);
+        } catch (IOException e) {
+            LOGGER.debug("Could not cache artifact " + source + " as " + file, e);
+        } catch (OverlappingFileLockException e) {
+            // another instance of this cache in the same process is publishing, it can be added next time.
+            LOGGER.debug("Could not cache artifact " + source + " as " + file + ", the cache is locked", e);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits its size limit, never deleting the given entry.
+     * Must hold the lock.
+     */
+    private void evict(File keep) {
+        final List<File> entries = new ArrayList<File>();
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        long size = 0;
+        long now = System.currentTimeMillis();
+
+        File[] dirs = directory.listFiles();
+        if (dirs == null)
+            return;
+
+        for (File dir : dirs) {
+            File[] files = dir.isDirectory() ? dir.listFiles() : null;
+            if (files == null)
+                continue;
+
+            for (File file : files) {
+                long modified = file.lastModified();
+                if (file.getName().endsWith(".tmp")) {
+                    // left behind by a build that died, as no one else writes here without the lock.
+                    if (modified + STALE_TEMP_AGE < now)
+                        file.delete();
+                    continue;
+                }
+
+                size += file.length();
+                if (!file.equals(keep)) {
+                    entries.add(file);
+                    lastUsed.put(file, modified);
+                }
+            }
+        }
+
+        if (size <= maxSize)
+            return;
+
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(lastUsed.get(o1), lastUsed.get(o2));
+            }
+        });
+
+        for (File file : entries) {
+            if (size <= maxSize)
+                break;
+
+            long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                LOGGER.debug("Evicted cached artifact " + file);
+            }
+        }
+    }
+
+    private static void move(File from, File to) throws IOException {
+        try {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Entries are stored as <code>&lt;first two characters&gt;/&lt;key&gt;.jar</code>, whatever they hold.
+     * Changing that would orphan every entry published before.
+     */
+    private File getFile(String key) {
+        return new File(directory, key.substring(0, 2) + "/" + key + ".jar");
+    }
+}
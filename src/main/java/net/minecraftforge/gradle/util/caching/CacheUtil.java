@@ -54,8 +54,9 @@ class CacheUtil {
     protected static String getHashes(Annotated output, List<Annotated> inputs, ICachableTask task) throws NoSuchMethodException, NoSuchFieldException, IllegalArgumentException, IllegalAccessException, InvocationTargetException {
         // TODO: CONVERT TO CacheFile
         List<String> hashes = Lists.newArrayListWithCapacity(inputs.size() + 5);
+        FileHashIndex index = FileHashIndex.get(task.getProject());
 
-        hashes.addAll(Constants.hashAll(task.getProject().file(output.getValue(task))));
+        hashes.addAll(index.hashAll(task.getProject().file(output.getValue(task))));
 
         for (Annotated input : inputs) {
             AnnotatedElement m = input.getElement();
@@ -64,22 +65,23 @@ class CacheUtil {
             if (val == null && m.isAnnotationPresent(Optional.class)) {
                 hashes.add("null");
             } else if (m.isAnnotationPresent(InputFile.class)) {
-                hashes.add(Constants.hash(task.getProject().file(input.getValue(task))));
-                LOGGER.debug(Constants.hash(task.getProject().file(input.getValue(task))) + " " + input.getValue(task));
+                String hash = index.hash(task.getProject().file(val));
+                hashes.add(hash);
+                LOGGER.debug(hash + " " + val);
             } else if (m.isAnnotationPresent(InputDirectory.class)) {
-                File dir = (File) input.getValue(task);
-                hashes.addAll(Constants.hashAll(dir));
+                File dir = (File) val;
+                hashes.addAll(index.hashAll(dir));
             } else if (m.isAnnotationPresent(InputFiles.class)) {
-                FileCollection files = (FileCollection) input.getValue(task);
+                FileCollection files = (FileCollection) val;
                 for (File file : files.getFiles()) {
-                    String hash = Constants.hash(file);
+                    String hash = index.hash(file);
                     hashes.add(hash);
                     LOGGER.debug(hash + " " + input.getValue(task));
                 }
             } else
             // just @Input
             {
-                Object obj = input.getValue(task);
+                Object obj = val;
 
                 while (obj instanceof Closure)
                     obj = ((Closure) obj).call();
@@ -93,12 +95,14 @@ class CacheUtil {
                         List<File> files = Arrays.asList(file.listFiles());
                         Collections.sort(files);
                         for (File i : files) {
-                            hashes.add(Constants.hash(i));
-                            LOGGER.debug(Constants.hash(i) + " " + i);
+                            String hash = index.hash(i);
+                            hashes.add(hash);
+                            LOGGER.debug(hash + " " + i);
                         }
                     } else {
-                        hashes.add(Constants.hash(file));
-                        LOGGER.debug(Constants.hash(file) + " " + file);
+                        String hash = index.hash(file);
+                        hashes.add(hash);
+                        LOGGER.debug(hash + " " + file);
                     }
                 } else if (obj instanceof PatternSet) {
                     PatternSet set = (PatternSet) obj;
@@ -116,6 +120,8 @@ class CacheUtil {
             }
         }
 
+        index.save();
+
         return Joiner.on(Constants.NEWLINE).join(hashes);
     }
 }
@@ -0,0 +1,315 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import net.minecraftforge.gradle.common.Constants;
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * A persistent index of file digests, keyed by the absolute path of the file.
+ * Each entry remembers the size, modification time and file key (inode) the file had when it was hashed,
+ * so a file is only read and hashed again once any of those change.
+ * <p>
+ * The digests are the same ones {@link Constants#hash(File)} produces, so results can be mixed freely with it,
+ * or those of {@link Constants#hash(File, String)} for indices made for another hash function.
+ * <p>
+ * Saving merges what other builds saved in the meantime, and drops the entries of files that don't exist anymore.
+ */
+public final class FileHashIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileHashIndex.class);
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Files modified this close to the time they were hashed could be changed again without
+     * their modification time moving, so entries like that are never trusted.
+     */
+    private static final long RACY_WINDOW = 2000;
+
+    private static final Map<File, FileHashIndex> INDICES = new HashMap<File, FileHashIndex>();
+
+    private final File indexFile;
+    private final String function;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    // the paths hashed since the last save, which win over what other builds saved
+    private final Set<String> changed = new HashSet<String>();
+    private boolean dirty = false;
+
+    FileHashIndex(File indexFile) {
+        this(indexFile, null);
+    }
+
+    FileHashIndex(File indexFile, String function) {
+        this.indexFile = indexFile;
+        this.function = function;
+        load();
+    }
+
+    /**
+     * Gets the index shared by every project using the given gradle user home.
+     *
+     * @param project any project of the build
+     * @return the shared index
+     */
+    public static FileHashIndex get(Project project) {
+        return get(new File(project.getGradle().getGradleUserHomeDir(), "caches/minecraft/fileHashes.bin"));
+    }
+
+    /**
+     * Gets the index stored in the given file. The same instance is returned for the same file.
+     *
+     * @param indexFile the file the index is persisted to
+     * @return the index
+     */
+    public static FileHashIndex get(File indexFile) {
+        return get(indexFile, null);
+    }
+
+    /**
+     * Gets the index stored in the given file, which holds digests of the given hash function.
+     * The same instance is returned for the same file.
+     *
+     * @param indexFile the file the index is persisted to
+     * @param function  the hash function, like "SHA1", or null for {@link Constants#hash(File)}
+     * @return the index
+     */
+    public static FileHashIndex get(File indexFile, String function) {
+        synchronized (INDICES) {
+            File key = indexFile.getAbsoluteFile();
+            FileHashIndex index = INDICES.get(key);
+            if (index == null) {
+                index = new FileHashIndex(key, function);
+                INDICES.put(key, index);
+            } else if (!Objects.equals(index.function, function)) {
+                throw new IllegalArgumentException("The hash index " + key + " is already used for " + index.function);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Returns the digest of the file, only reading the file if its metadata changed since it was last hashed.
+     *
+     * @param file the file to hash
+     * @return the digest, or null if the file could not be read
+     */
+    public String hash(File file) {
+        file = file.getAbsoluteFile();
+        String path = file.getPath();
+
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            // let Constants deal with it, as it always has.
+            return computeHash(file);
+        }
+
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        String fileKey = attrs.fileKey() == null ? "" : attrs.fileKey().toString();
+
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.matches(size, modified, fileKey))
+                return entry.hash;
+        }
+
+        long hashedAt = System.currentTimeMillis();
+        String hash = computeHash(file);
+        if (hash == null)
+            return null;
+
+        synchronized (this) {
+            if (modified + RACY_WINDOW < hashedAt)
+                entries.put(path, new Entry(size, modified, fileKey, hash));
+            else
+                entries.remove(path);
+            changed.add(path);
+            dirty = true;
+        }
+
+        return hash;
+    }
+
+    private String computeHash(File file) {
+        return function == null ? Constants.hash(file) : Constants.hash(file, function);
+    }
+
+    /**
+     * Same as {@link Constants#hashAll(File)}, but goes through this index.
+     *
+     * @param file a file or directory
+     * @return the digests of the file or of every file in the directory
+     */
+    public List<String> hashAll(File file) {
+        List<String> list = new LinkedList<String>();
+
+        if (file.isDirectory()) {
+            for (File f : file.listFiles())
+                list.addAll(hashAll(f));
+        } else if (!file.getName().equals(".cache"))
+            list.add(hash(file));
+
+        return list;
+    }
+
+    /**
+     * Writes the index back to disk if anything changed.
+     * The write goes through a temporary file so concurrent builds never see a partial index,
+     * and happens under a lock file, so they don't lose each other's entries either.
+     */
+    public synchronized void save() {
+        if (!dirty)
+            return;
+
+        indexFile.getParentFile().mkdirs();
+        File lockFile = new File(indexFile.getParentFile(), indexFile.getName() + ".lock");
+        try (RandomAccessFile lockAccess = new RandomAccessFile(lockFile, "rw");
+             FileChannel channel = lockAccess.getChannel();
+             FileLock lock = channel.lock()) {
+            merge();
+            write();
+            changed.clear();
+            dirty = false;
+        } catch (IOException | OverlappingFileLockException e) {
+            LOGGER.debug("Could not write file hash index " + indexFile, e);
+        }
+    }
+
+    /**
+     * Takes the index as it is on disk now, with what this index hashed since the last save on top of it,
+     * and without the files that were deleted or moved, so the index doesn't keep growing.
+     */
+    private void merge() {
+        Map<String, Entry> merged = new HashMap<String, Entry>();
+        read(merged);
+
+        for (String path : changed) {
+            Entry entry = entries.get(path);
+            if (entry == null)
+                merged.remove(path);
+            else
+                merged.put(path, entry);
+        }
+        merged.keySet().removeIf(path -> !new File(path).isFile());
+
+        entries.clear();
+        entries.putAll(merged);
+    }
+
+    private void write() throws IOException {
+        File temp = new File(indexFile.getParentFile(), indexFile.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.modified);
+                    out.writeUTF(entry.fileKey);
+                    out.writeUTF(entry.hash);
+                }
+            }
+
+            try {
+                Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * @return the number of files in the index
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void load() {
+        read(entries);
+    }
+
+    private void read(Map<String, Entry> into) {
+        if (!indexFile.isFile())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT_VERSION)
+                return;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long modified = in.readLong();
+                String fileKey = in.readUTF();
+                String hash = in.readUTF();
+                into.put(path, new Entry(size, modified, fileKey, hash));
+            }
+        } catch (IOException e) {
+            // a broken index only costs us some hashing.
+            LOGGER.debug("Discarding unreadable file hash index " + indexFile, e);
+            into.clear();
+        }
+    }
+
+    private static final class Entry {
+        final long size;
+        final long modified;
+        final String fileKey;
+        final String hash;
+
+        Entry(long size, long modified, String fileKey, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+        }
+
+        boolean matches(long size, long modified, String fileKey) {
+            return this.size == size && this.modified == modified && this.fileKey.equals(fileKey);
+        }
+    }
+}
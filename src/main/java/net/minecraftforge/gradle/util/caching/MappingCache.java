@@ -0,0 +1,307 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.io.LineProcessor;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.provider.ClassLoaderProvider;
+import net.md_5.specialsource.provider.InheritanceProvider;
+import org.gradle.api.Project;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Keeps what the SpecialSource tasks read from their mappings and libraries, so a build that deobfuscates
+ * and reobfuscates several jars reads every SRG file, CSV file and library only once.
+ * <p>
+ * Everything is keyed by the hashes of the files it was read from, so a changed file is simply read again.
+ * The parsed data is only softly referenced, so a daemon that goes on to other builds doesn't keep it forever.
+ * What is handed out is either immutable or a fresh copy, so tasks running at the same time can't affect each other.
+ */
+public final class MappingCache {
+    private static final Map<String, SoftReference<Object>> CACHE = new HashMap<String, SoftReference<Object>>();
+
+    private MappingCache() {
+        throw new RuntimeException("Utility class should not be instantiated");
+    }
+
+    /**
+     * Gets a new mapping, holding the same as a JarMapping that loaded the files one after another.
+     *
+     * @param project any project of the build
+     * @param srgs    the mapping files, in the order they are loaded
+     * @return a mapping the caller is free to change
+     */
+    public static JarMapping getJarMapping(Project project, Iterable<File> srgs) throws IOException {
+        List<File> files = ImmutableList.copyOf(srgs);
+        String key = "srg:" + getKey(project, files);
+
+        MappingSnapshot snapshot = (MappingSnapshot) get(key);
+        if (snapshot == null) {
+            JarMapping loaded = new JarMapping();
+            for (File srg : files) {
+                loaded.loadMappings(srg);
+            }
+            snapshot = new MappingSnapshot(loaded);
+            put(key, snapshot);
+        }
+
+        JarMapping mapping = new JarMapping();
+        mapping.packages.putAll(snapshot.packages);
+        mapping.classes.putAll(snapshot.classes);
+        mapping.fields.putAll(snapshot.fields);
+        mapping.methods.putAll(snapshot.methods);
+        return mapping;
+    }
+
+    /**
+     * Reads the searge name -&gt; mcp name pairs of the given methods.csv and fields.csv files.
+     * Files that are null are skipped.
+     *
+     * @param project any project of the build
+     * @param csvs    the CSV files, later ones overriding earlier ones
+     * @return an immutable map of the renames
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, String> getCsvRenames(Project project, File... csvs) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (File csv : csvs) {
+            if (csv != null)
+                files.add(csv);
+        }
+        String key = "csv:" + getKey(project, files);
+
+        Map<String, String> renames = (Map<String, String>) get(key);
+        if (renames == null) {
+            final Map<String, String> read = new HashMap<String, String>();
+            for (File csv : files) {
+                Files.readLines(csv, StandardCharsets.UTF_8, new LineProcessor<String>() {
+                    @Override
+                    public boolean processLine(String line) throws IOException {
+                        String[] pts = line.split(",");
+                        if (!"searge".equals(pts[0])) {
+                            read.put(pts[0], pts[1]);
+                        }
+
+                        return true;
+                    }
+
+                    @Override
+                    public String getResult() {
+                        return null;
+                    }
+                });
+            }
+            renames = ImmutableMap.copyOf(read);
+            put(key, renames);
+        }
+        return renames;
+    }
+
+    /**
+     * Gets an inheritance provider for the classes of the given libraries, as a ClassLoaderProvider over a
+     * URLClassLoader of them would: the system class loader is asked first, then the libraries in order.
+     * A jar is read for the superclass and interfaces of every class in it the first time a lookup gets to it,
+     * and nothing is kept open, so there is nothing to close afterwards. Directories are looked into every time.
+     *
+     * @param project   any project of the build
+     * @param classpath the libraries, in the order they are searched
+     * @return the provider
+     */
+    public static InheritanceProvider getClasspathProvider(Project project, Iterable<File> classpath) {
+        FileHashIndex index = FileHashIndex.get(project);
+        List<Object> entries = new ArrayList<Object>();
+
+        for (File file : classpath) {
+            if (file.isDirectory()) {
+                entries.add(file);
+            } else if (file.isFile()) {
+                entries.add(new LibraryJar(index, file));
+            }
+        }
+
+        return new ClasspathProvider(entries);
+    }
+
+    private static String getKey(Project project, List<File> files) {
+        FileHashIndex index = FileHashIndex.get(project);
+        List<String> hashes = new ArrayList<String>(files.size());
+        for (File file : files) {
+            hashes.add(index.hash(file));
+        }
+        return Joiner.on(',').useForNull("null").join(hashes);
+    }
+
+    private static Object get(String key) {
+        synchronized (CACHE) {
+            SoftReference<Object> ref = CACHE.get(key);
+            Object value = ref == null ? null : ref.get();
+            if (ref != null && value == null)
+                CACHE.remove(key);
+            return value;
+        }
+    }
+
+    private static void put(String key, Object value) {
+        synchronized (CACHE) {
+            CACHE.put(key, new SoftReference<Object>(value));
+        }
+    }
+
+    /**
+     * @return class name -&gt; parents of every class in the jar
+     */
+    private static Map<String, Collection<String>> readParents(File jar) throws IOException {
+        Map<String, Collection<String>> parents = new HashMap<String, Collection<String>>();
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".class"))
+                    continue;
+
+                String className = name.substring(0, name.length() - ".class".length());
+                // the first class of a name wins, like it does for a class loader.
+                if (!parents.containsKey(className)) {
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        parents.put(className, getParents(ByteStreams.toByteArray(in)));
+                    }
+                }
+            }
+        }
+        return parents;
+    }
+
+    private static Collection<String> getParents(byte[] data) {
+        ClassReader reader = new ClassReader(data);
+        List<String> parents = new ArrayList<String>();
+        // Class.getSuperclass() is null for interfaces, so they don't get Object either
+        if ((reader.getAccess() & Opcodes.ACC_INTERFACE) == 0 && reader.getSuperName() != null) {
+            parents.add(reader.getSuperName());
+        }
+        Collections.addAll(parents, reader.getInterfaces());
+        return Collections.unmodifiableList(parents);
+    }
+
+    private static final class MappingSnapshot {
+        final Map<String, String> packages;
+        final Map<String, String> classes;
+        final Map<String, String> fields;
+        final Map<String, String> methods;
+
+        MappingSnapshot(JarMapping mapping) {
+            // keeps the order of the packages, which are matched in order.
+            this.packages = Collections.unmodifiableMap(new LinkedHashMap<String, String>(mapping.packages));
+            this.classes = Collections.unmodifiableMap(new HashMap<String, String>(mapping.classes));
+            this.fields = Collections.unmodifiableMap(new HashMap<String, String>(mapping.fields));
+            this.methods = Collections.unmodifiableMap(new HashMap<String, String>(mapping.methods));
+        }
+    }
+
+    /**
+     * A library jar, which is only read once a lookup gets to it.
+     */
+    private static final class LibraryJar {
+        private final FileHashIndex index;
+        private final File file;
+        private volatile Map<String, Collection<String>> parents;
+
+        LibraryJar(FileHashIndex index, File file) {
+            this.index = index;
+            this.file = file;
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Collection<String>> getParents() {
+            Map<String, Collection<String>> result = parents;
+            if (result == null) {
+                // read twice at worst, by two threads getting here at once.
+                String key = "jar:" + index.hash(file);
+                result = (Map<String, Collection<String>>) get(key);
+                if (result == null) {
+                    try {
+                        result = readParents(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Could not read the library " + file, e);
+                    }
+                    put(key, result);
+                }
+                parents = result;
+            }
+            return result;
+        }
+    }
+
+    private static final class ClasspathProvider implements InheritanceProvider {
+        /**
+         * a library jar, or a directory of classes.
+         */
+        private final List<Object> entries;
+
+        /**
+         * The parent of a class loader over the libraries, which is asked first.
+         */
+        private final InheritanceProvider system = new ClassLoaderProvider(ClassLoader.getSystemClassLoader());
+
+        ClasspathProvider(List<Object> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public Collection<String> getParents(String className) {
+            Collection<String> found = system.getParents(className);
+            if (found != null)
+                return found;
+
+            for (Object entry : entries) {
+                if (entry instanceof File) {
+                    File file = new File((File) entry, className + ".class");
+                    if (file.isFile()) {
+                        try {
+                            return new ArrayList<String>(MappingCache.getParents(Files.toByteArray(file)));
+                        } catch (IOException e) {
+                            return null;
+                        }
+                    }
+                } else {
+                    Collection<String> parents = ((LibraryJar) entry).getParents().get(className);
+                    if (parents != null)
+                        return new ArrayList<String>(parents);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import au.com.bytecode.opencsv.CSVReader;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
+import org.gradle.api.Project;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * The MCP names of the methods.csv, fields.csv and params.csv files, compiled by {@link net.minecraftforge.gradle.tasks.GenSrgs}
+ * into a file that is read in one piece instead of parsed.
+ * <p>
+ * The file holds every distinct string once, and for each CSV the ids of its searge name, MCP name and description,
+ * sorted by searge name. Opening it reads the file into a single buffer, and names are looked up by a binary search over
+ * that buffer, so nothing is allocated per entry until it is asked for. The file isn't memory mapped, as a mapped file
+ * can't be replaced on Windows until the mapping is garbage collected.
+ * <p>
+ * The file records the hashes of the CSVs it was compiled from, and {@link #open(Project, File, File, File)} only
+ * returns it if they still match, so callers fall back to reading the CSVs whenever it is missing or out of date.
+ */
+public final class CompiledMappings {
+    /**
+     * The name of the file, which lives next to the CSVs.
+     */
+    public static final String FILE_NAME = "names.bin";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompiledMappings.class);
+    private static final int MAGIC = 0x46474E4D; // FGNM
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int METHODS = 0;
+    private static final int FIELDS = 1;
+    private static final int PARAMS = 2;
+
+    private final ByteBuffer buffer;
+    private final int offsets;
+    private final int strings;
+    private final int[] tables = new int[3];
+    private final int[] counts = new int[3];
+
+    private CompiledMappings(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+
+        ByteBuffer header = buffer.duplicate();
+        int stringCount = header.getInt();
+        int stringsLength = header.getInt();
+        offsets = header.position();
+        strings = offsets + (stringCount + 1) * 4;
+
+        int position = strings + stringsLength;
+        for (int i = 0; i < tables.length; i++) {
+            counts[i] = buffer.getInt(position);
+            tables[i] = position + 4;
+            position = tables[i] + counts[i] * 12;
+        }
+        if (position != buffer.limit())
+            throw new EOFException("Compiled mappings have the wrong size");
+    }
+
+    /**
+     * Opens the compiled names of the given CSVs, if they have been compiled.
+     *
+     * @param project    any project of the build
+     * @param methodsCsv the methods.csv
+     * @param fieldsCsv  the fields.csv
+     * @param paramsCsv  the params.csv, or null if it isn't needed
+     * @return the names, or null if they have to be read from the CSVs
+     */
+    public static CompiledMappings open(Project project, File methodsCsv, File fieldsCsv, File paramsCsv) {
+        File file = new File(methodsCsv.getParentFile(), FILE_NAME);
+        if (!file.isFile() || !fieldsCsv.getParentFile().equals(methodsCsv.getParentFile()))
+            return null;
+
+        FileHashIndex index = FileHashIndex.get(project);
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION)
+                return null;
+
+            String methodsHash = readString(buffer);
+            String fieldsHash = readString(buffer);
+            String paramsHash = readString(buffer);
+            if (!methodsHash.equals(index.hash(methodsCsv)) || !fieldsHash.equals(index.hash(fieldsCsv)))
+                return null;
+            if (paramsCsv != null && (!paramsCsv.getParentFile().equals(methodsCsv.getParentFile()) || !paramsHash.equals(index.hash(paramsCsv))))
+                return null;
+
+            return new CompiledMappings(buffer.slice());
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            LOGGER.debug("Ignoring unreadable compiled mappings " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Compiles the CSVs into the file next to them, going through a temporary file so readers never see a partial one.
+     *
+     * @param project    any project of the build
+     * @param methodsCsv the methods.csv
+     * @param fieldsCsv  the fields.csv
+     * @param paramsCsv  the params.csv, or null if there is none
+     * @param output     the file to write
+     */
+    public static void compile(Project project, File methodsCsv, File fieldsCsv, File paramsCsv, File output) throws IOException {
+        FileHashIndex index = FileHashIndex.get(project);
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        List<int[]> methods = readCsv(methodsCsv, ids, strings);
+        List<int[]> fields = readCsv(fieldsCsv, ids, strings);
+        List<int[]> params = paramsCsv == null ? Collections.<int[]>emptyList() : readCsv(paramsCsv, ids, strings);
+
+        output.getParentFile().mkdirs();
+        File temp = new File(output.getParentFile(), output.getName() + "." + Long.toHexString(System.nanoTime()) + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(index.hash(methodsCsv));
+                out.writeUTF(index.hash(fieldsCsv));
+                out.writeUTF(paramsCsv == null ? "" : index.hash(paramsCsv));
+
+                byte[][] encoded = new byte[strings.size()][];
+                int length = 0;
+                for (int i = 0; i < encoded.length; i++) {
+                    encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                    length += encoded[i].length;
+                }
+
+                out.writeInt(encoded.length);
+                out.writeInt(length);
+                int offset = 0;
+                for (byte[] string : encoded) {
+                    out.writeInt(offset);
+                    offset += string.length;
+                }
+                out.writeInt(offset);
+                for (byte[] string : encoded) {
+                    out.write(string);
+                }
+
+                for (List<int[]> table : Arrays.asList(methods, fields, params)) {
+                    writeTable(out, table, encoded);
+                }
+            }
+
+            try {
+                Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * @return the MCP name of the method, or null if it has none
+     */
+    public String getMethod(String srgName) {
+        return get(METHODS, srgName, 1);
+    }
+
+    /**
+     * @return the MCP name of the field, or null if it has none
+     */
+    public String getField(String srgName) {
+        return get(FIELDS, srgName, 1);
+    }
+
+    /**
+     * @return the MCP name of the parameter, or null if it has none
+     */
+    public String getParam(String srgName) {
+        return get(PARAMS, srgName, 1);
+    }
+
+    /**
+     * @return the description of the method, which is empty if it has none, or null if the method has no MCP name
+     */
+    public String getMethodDoc(String srgName) {
+        return get(METHODS, srgName, 2);
+    }
+
+    /**
+     * @return the description of the field, which is empty if it has none, or null if the field has no MCP name
+     */
+    public String getFieldDoc(String srgName) {
+        return get(FIELDS, srgName, 2);
+    }
+
+    /**
+     * Looks up the method name in the text between start and end, without copying it out of the text first.
+     * Searge names are plain ASCII, so the text between start and end has to be as well.
+     *
+     * @return the MCP name of the method, or null if it has none
+     */
+    public String getMethod(CharSequence text, int start, int end) {
+        return get(METHODS, text, start, end, 1);
+    }
+
+    /**
+     * Looks up the field name in the text between start and end, which has to be ASCII.
+     *
+     * @return the MCP name of the field, or null if it has none
+     * @see #getMethod(CharSequence, int, int)
+     */
+    public String getField(CharSequence text, int start, int end) {
+        return get(FIELDS, text, start, end, 1);
+    }
+
+    /**
+     * Looks up the parameter name in the text between start and end, which has to be ASCII.
+     *
+     * @return the MCP name of the parameter, or null if it has none
+     * @see #getMethod(CharSequence, int, int)
+     */
+    public String getParam(CharSequence text, int start, int end) {
+        return get(PARAMS, text, start, end, 1);
+    }
+
+    private String get(int table, String srgName, int column) {
+        byte[] key = srgName.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = counts[table] - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(buffer.getInt(tables[table] + mid * 12), key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return getString(buffer.getInt(tables[table] + mid * 12 + column * 4));
+        }
+        return null;
+    }
+
+    private String get(int table, CharSequence text, int start, int end, int column) {
+        int low = 0;
+        int high = counts[table] - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(buffer.getInt(tables[table] + mid * 12), text, start, end);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return getString(buffer.getInt(tables[table] + mid * 12 + column * 4));
+        }
+        return null;
+    }
+
+    /**
+     * Compares the bytes of a string of the file to the key, as unsigned bytes, which is the order the tables are sorted in.
+     */
+    private int compare(int id, byte[] key) {
+        int start = buffer.getInt(offsets + id * 4);
+        int length = buffer.getInt(offsets + id * 4 + 4) - start;
+        int common = Math.min(length, key.length);
+
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(strings + start + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Compares the bytes of a string of the file to the ASCII text between start and end, whose chars are its UTF-8 bytes.
+     */
+    private int compare(int id, CharSequence text, int start, int end) {
+        int offset = buffer.getInt(offsets + id * 4);
+        int length = buffer.getInt(offsets + id * 4 + 4) - offset;
+        int keyLength = end - start;
+        int common = Math.min(length, keyLength);
+
+        for (int i = 0; i < common; i++) {
+            int cmp = (buffer.get(strings + offset + i) & 0xFF) - text.charAt(start + i);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - keyLength;
+    }
+
+    private String getString(int id) {
+        int start = buffer.getInt(offsets + id * 4);
+        byte[] bytes = new byte[buffer.getInt(offsets + id * 4 + 4) - start];
+        ByteBuffer string = buffer.duplicate();
+        string.position(strings + start);
+        string.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the ids of the searge name, MCP name and description of every line, the last line of a searge name winning
+     */
+    private static List<int[]> readCsv(File csv, Map<String, Integer> ids, List<String> strings) throws IOException {
+        Map<String, int[]> entries = new LinkedHashMap<String, int[]>();
+        try (CSVReader reader = Constants.getReader(csv)) {
+            for (String[] s : reader.readAll()) {
+                entries.put(s[0], new int[]{intern(s[0], ids, strings), intern(s[1], ids, strings), intern(s.length > 3 ? s[3] : "", ids, strings)});
+            }
+        }
+        return new ArrayList<int[]>(entries.values());
+    }
+
+    private static int intern(String string, Map<String, Integer> ids, List<String> strings) {
+        Integer id = ids.get(string);
+        if (id == null) {
+            id = strings.size();
+            ids.put(string, id);
+            strings.add(string);
+        }
+        return id;
+    }
+
+    private static void writeTable(DataOutputStream out, List<int[]> table, final byte[][] encoded) throws IOException {
+        List<int[]> sorted = new ArrayList<int[]>(table);
+        Collections.sort(sorted, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] o1, int[] o2) {
+                byte[] a = encoded[o1[0]];
+                byte[] b = encoded[o2[0]];
+                int common = Math.min(a.length, b.length);
+                for (int i = 0; i < common; i++) {
+                    int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+                    if (cmp != 0)
+                        return cmp;
+                }
+                return a.length - b.length;
+            }
+        });
+
+        out.writeInt(sorted.size());
+        for (int[] entry : sorted) {
+            out.writeInt(entry[0]);
+            out.writeInt(entry[1]);
+            out.writeInt(entry[2]);
+        }
+    }
+}
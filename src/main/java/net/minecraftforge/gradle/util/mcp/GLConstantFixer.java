@@ -20,19 +20,18 @@
  */
 package net.minecraftforge.gradle.util.mcp;
 
-import com.google.common.base.Joiner;
 import com.google.common.io.Resources;
 import com.google.gson.reflect.TypeToken;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import net.minecraftforge.gradle.common.Constants;
 import net.minecraftforge.gradle.util.json.GLConstantGroup;
 import net.minecraftforge.gradle.util.json.JsonFactory;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class GLConstantFixer {
     //@formatter:off
@@ -51,18 +50,55 @@ public class GLConstantFixer {
     };
     //@formatter:on
 
-    private final List<GLConstantGroup> json;
-    private static final Pattern CALL_REGEX = Pattern.compile("(" + Joiner.on("|").join(PACKAGES) + ")\\.([\\w]+)\\(.+\\)");
-    private static final Pattern CONSTANT_REGEX = Pattern.compile("(?<![-.\\w])\\d+(?![.\\w])");
     private static final String ADD_AFTER = "org.lwjgl.opengl.GL11";
     private static final String CHECK = "org.lwjgl.opengl.";
     private static final String IMPORT_CHECK = "import " + CHECK;
     private static final String IMPORT_REPLACE = "import " + ADD_AFTER + ";";
 
+    private static GLConstantFixer instance;
+
+    /**
+     * "package.method" -&gt; constant -&gt; "package.NAME", like "GL11.glBlendFunc" -&gt; 770 -&gt; "GL11.GL_SRC_ALPHA"
+     */
+    private final Map<String, TIntObjectHashMap<String>> calls = new HashMap<String, TIntObjectHashMap<String>>();
+
     public GLConstantFixer() throws IOException {
         String text = Resources.toString(Resources.getResource(GLConstantFixer.class, "gl.json"), Charset.defaultCharset());
-        json = JsonFactory.GSON.fromJson(text, new TypeToken<List<GLConstantGroup>>() {
+        List<GLConstantGroup> json = JsonFactory.GSON.fromJson(text, new TypeToken<List<GLConstantGroup>>() {
         }.getType());
+
+        // later groups win, as they did when the json was searched for every constant
+        for (GLConstantGroup group : json) {
+            for (Map.Entry<String, List<String>> functions : group.functions.entrySet()) {
+                for (String method : functions.getValue()) {
+                    String call = functions.getKey() + "." + method;
+                    TIntObjectHashMap<String> constants = calls.get(call);
+                    if (constants == null) {
+                        constants = new TIntObjectHashMap<String>();
+                        calls.put(call, constants);
+                    }
+
+                    for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet()) {
+                        for (Map.Entry<String, String> constant : entry.getValue().entrySet()) {
+                            constants.put(Integer.parseInt(constant.getKey()), entry.getKey() + "." + constant.getValue());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The table is only read once its built, so every thread can share this one.
+     *
+     * @return the shared fixer
+     * @throws IOException if gl.json could not be read
+     */
+    public static synchronized GLConstantFixer getInstance() throws IOException {
+        if (instance == null) {
+            instance = new GLConstantFixer();
+        }
+        return instance;
     }
 
     public String fixOGL(String text) {
@@ -82,62 +118,118 @@ public class GLConstantFixer {
         return text;
     }
 
+    /**
+     * Finds the same calls as {@code (GL11|GL12|...)\.([\w]+)\(.+\)}, which run up to the last ) of their line,
+     * and replaces the numbers in them that {@code (?<![-.\w])\d+(?![.\w])} finds, if the called method has a constant for them.
+     */
     private String annotateConstants(String text) {
-        Matcher rootMatch = CALL_REGEX.matcher(text);
-        String pack, method, fullCall;
-        StringBuffer out = new StringBuffer(text.length());
-        StringBuffer innerOut;
-
-        // search with regex.
-        while (rootMatch.find()) {
-            // helper variables
-            fullCall = rootMatch.group();
-            pack = rootMatch.group(1);
-            method = rootMatch.group(2);
-
-            Matcher constantMatcher = CONSTANT_REGEX.matcher(fullCall);
-            innerOut = new StringBuffer(fullCall.length());
-
-            // search for hardcoded numbers
-            while (constantMatcher.find()) {
-                // helper variables and return variable.
-                String constant = constantMatcher.group();
-                String answer = null;
-
-                // iterrate over the JSON
-                for (GLConstantGroup group : json) {
-
-                    // ensure that the package and method are defined
-                    if (group.functions.containsKey(pack) && group.functions.get(pack).contains(method)) {
-                        // itterrate through the map.
-                        for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet()) {
-                            // find the actual constant for the number from the regex
-                            if (entry.getValue().containsKey(constant)) {
-                                // construct the final line
-                                answer = entry.getKey() + "." + entry.getValue().get(constant);
-                            }
-                        }
-                    }
+        StringBuilder out = new StringBuilder(text.length() + 256);
+        int copied = 0;
+        int length = text.length();
+
+        for (int start = 0; start < length; start++) {
+            char c = text.charAt(start);
+            if (c != 'G' && c != 'A') {
+                continue;
+            }
 
+            String pack = null;
+            for (String candidate : PACKAGES) {
+                if (text.startsWith(candidate, start)) {
+                    pack = candidate;
+                    break;
                 }
+            }
 
-                // replace the final line.
-                if (answer != null) {
-                    constantMatcher.appendReplacement(innerOut, Matcher.quoteReplacement(answer));
-                }
+            int dot = start + (pack == null ? 0 : pack.length());
+            if (pack == null || dot >= length || text.charAt(dot) != '.') {
+                continue;
+            }
+
+            int paren = dot + 1;
+            while (paren < length && isWordChar(text.charAt(paren))) {
+                paren++;
+            }
+            if (paren == dot + 1 || paren >= length || text.charAt(paren) != '(') {
+                continue;
+            }
+
+            int lineEnd = paren + 1;
+            while (lineEnd < length && !isLineTerminator(text.charAt(lineEnd))) {
+                lineEnd++;
+            }
+            int close = text.lastIndexOf(')', lineEnd - 1);
+            if (close < paren + 2) {
+                continue;
             }
-            constantMatcher.appendTail(innerOut);
 
-            // replace the final line.
-            if (fullCall != null) {
-                rootMatch.appendReplacement(out, Matcher.quoteReplacement(innerOut.toString()));
+            TIntObjectHashMap<String> constants = calls.get(text.substring(start, paren));
+            if (constants != null) {
+                copied = replaceConstants(text, start, close + 1, constants, out, copied);
             }
+            start = close;
         }
-        rootMatch.appendTail(out);
 
+        if (copied == 0) {
+            return text;
+        }
+        out.append(text, copied, length);
         return out.toString();
     }
 
+    /**
+     * @return up to where the text was copied to out
+     */
+    private static int replaceConstants(String text, int start, int end, TIntObjectHashMap<String> constants, StringBuilder out, int copied) {
+        for (int i = start; i < end; i++) {
+            if (!isDigit(text.charAt(i))) {
+                continue;
+            }
+
+            int numberEnd = i + 1;
+            while (numberEnd < end && isDigit(text.charAt(numberEnd))) {
+                numberEnd++;
+            }
+
+            // the regex only ever saw the call, so what comes before and after it doesn't count
+            char before = i > start ? text.charAt(i - 1) : ' ';
+            char after = numberEnd < end ? text.charAt(numberEnd) : ' ';
+            String answer = null;
+            if (before != '-' && before != '.' && !isWordChar(before) && after != '.' && !isWordChar(after)) {
+                answer = lookup(text, i, numberEnd, constants);
+            }
+
+            if (answer != null) {
+                out.append(text, copied, i).append(answer);
+                copied = numberEnd;
+            }
+            i = numberEnd - 1;
+        }
+        return copied;
+    }
+
+    private static String lookup(String text, int start, int end, TIntObjectHashMap<String> constants) {
+        // the json has no leading zeros, and nothing outside of an int
+        if ((text.charAt(start) == '0' && end - start > 1) || end - start > 10) {
+            return null;
+        }
+
+        long value = Long.parseLong(text.substring(start, end));
+        return value > Integer.MAX_VALUE ? null : constants.get((int) value);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == 0x2028 || c == 0x2029;
+    }
+
     private static String updateImports(String text, String imp) {
         if (!text.contains("import " + imp + ";")) {
             text = text.replace(IMPORT_REPLACE, IMPORT_REPLACE + Constants.NEWLINE + "import " + imp + ";");
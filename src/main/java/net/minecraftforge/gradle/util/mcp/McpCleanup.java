@@ -23,6 +23,8 @@ package net.minecraftforge.gradle.util.mcp;
 import net.minecraftforge.gradle.common.Constants;
 
 import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -104,7 +106,7 @@ public class McpCleanup {
             throw new RuntimeException(e);
         }
 
-        text = COMMENTS_TRAILING.matcher(text).replaceAll("");
+        text = stripTrailing(text);
         text = COMMENTS_NEWLINES.matcher(text).replaceAll(Constants.NEWLINE);
 
         return text;
@@ -224,16 +226,58 @@ public class McpCleanup {
     // 5.8119...F to ((float)Math.PI * 185F / 100F)
     public static final Pattern CLEANUP_185pi100F = Pattern.compile("0\\.8119[0-9]*[Ff]");
 
+    // a decimal literal, which might be one of the constants above
+    private static final Pattern CLEANUP_decimal = Pattern.compile("(?:57|[0-9])\\.[0-9]+[DdFf]");
+
+    private static final Map<Pattern, String> CLEANUP_constants = new LinkedHashMap<Pattern, String>();
+
+    static {
+        CLEANUP_constants.put(CLEANUP_piD, "Math.PI");
+        CLEANUP_constants.put(CLEANUP_piF, "(float)Math.PI");
+        CLEANUP_constants.put(CLEANUP_2piD, "(Math.PI * 2D)");
+        CLEANUP_constants.put(CLEANUP_2piF, "((float)Math.PI * 2F)");
+        CLEANUP_constants.put(CLEANUP_pi2D, "(Math.PI / 2D)");
+        CLEANUP_constants.put(CLEANUP_pi2F, "((float)Math.PI / 2F)");
+        CLEANUP_constants.put(CLEANUP_3pi2D, "(Math.PI * 3D / 2D)");
+        CLEANUP_constants.put(CLEANUP_3pi2F, "((float)Math.PI * 3F / 2F)");
+        CLEANUP_constants.put(CLEANUP_pi4D, "(Math.PI / 4D)");
+        CLEANUP_constants.put(CLEANUP_pi4F, "((float)Math.PI / 4F)");
+        CLEANUP_constants.put(CLEANUP_pi5D, "(Math.PI / 5D)");
+        CLEANUP_constants.put(CLEANUP_pi5F, "((float)Math.PI / 5F)");
+        CLEANUP_constants.put(CLEANUP_180piD, "(180D / Math.PI)");
+        CLEANUP_constants.put(CLEANUP_180piF, "(180F / (float)Math.PI)");
+        CLEANUP_constants.put(CLEANUP_2pi9D, "(Math.PI * 2D / 9D)");
+        CLEANUP_constants.put(CLEANUP_2pi9F, "((float)Math.PI * 2F / 9F)");
+        CLEANUP_constants.put(CLEANUP_pi10D, "(Math.PI / 10D)");
+        CLEANUP_constants.put(CLEANUP_pi10F, "((float)Math.PI / 10F)");
+        CLEANUP_constants.put(CLEANUP_2pi5D, "(Math.PI * 2D / 5D)");
+        CLEANUP_constants.put(CLEANUP_2pi5F, "((float)Math.PI * 2F / 5F)");
+        CLEANUP_constants.put(CLEANUP_7pi100D, "(Math.PI * 7D / 100D)");
+        CLEANUP_constants.put(CLEANUP_7pi100F, "((float)Math.PI * 7F / 100F)");
+        CLEANUP_constants.put(CLEANUP_185pi100D, "(Math.PI * 185D / 100D)");
+        CLEANUP_constants.put(CLEANUP_185pi100F, "((float)Math.PI * 185F / 100F)");
+    }
+
+    /**
+     * Runs the cleanup regexes over the source, one after the other. Each one still goes over the whole file;
+     * only the slowest ones are done by hand, or by a cheaper search, giving the same output.
+     * Comments and imports are handled separately, by {@link #stripComments(String)} and {@link #fixImports(String)}.
+     *
+     * @param text Full file as a string
+     * @return Full file as a string, cleaned up
+     */
     public static String cleanup(String text) {
         // simple replacements
-        text = CLEANUP_header.matcher(text).replaceAll("");
-        text = CLEANUP_footer.matcher(text).replaceAll("");
-        text = CLEANUP_trailing.matcher(text).replaceAll("");
+        // the header, footer and trailing regexes are slow to match on a whole file, so they are done by hand
+        text = stripHeader(text);
+        text = stripFooter(text);
+        text = stripTrailing(text);
         text = CLEANUP_newlines.matcher(text).replaceAll(Constants.NEWLINE);
         text = CLEANUP_ifstarts.matcher(text).replaceAll("$1" + Constants.NEWLINE + "$2");
         text = CLEANUP_blockstarts.matcher(text).replaceAll("");
         text = CLEANUP_blockends.matcher(text).replaceAll("");
-        text = CLEANUP_gl.matcher(text).replaceAll("");
+        if (text.contains("GL_"))
+            text = CLEANUP_gl.matcher(text).replaceAll("");
         text = CLEANUP_maxD.matcher(text).replaceAll("Double.MAX_VALUE");
 
         // unicode chars
@@ -257,34 +301,102 @@ public class McpCleanup {
         text = CLEANUP_charval.matcher(text).replaceAll("$1"); // TESTING NEEDED
 
         //         pi?   true
-        text = CLEANUP_piD.matcher(text).replaceAll("Math.PI");
-        text = CLEANUP_piF.matcher(text).replaceAll("(float)Math.PI");
-        text = CLEANUP_2piD.matcher(text).replaceAll("(Math.PI * 2D)");
-        text = CLEANUP_2piF.matcher(text).replaceAll("((float)Math.PI * 2F)");
-        text = CLEANUP_pi2D.matcher(text).replaceAll("(Math.PI / 2D)");
-        text = CLEANUP_pi2F.matcher(text).replaceAll("((float)Math.PI / 2F)");
-        text = CLEANUP_3pi2D.matcher(text).replaceAll("(Math.PI * 3D / 2D)");
-        text = CLEANUP_3pi2F.matcher(text).replaceAll("((float)Math.PI * 3F / 2F)");
-        text = CLEANUP_pi4D.matcher(text).replaceAll("(Math.PI / 4D)");
-        text = CLEANUP_pi4F.matcher(text).replaceAll("((float)Math.PI / 4F)");
-        text = CLEANUP_pi5D.matcher(text).replaceAll("(Math.PI / 5D)");
-        text = CLEANUP_pi5F.matcher(text).replaceAll("((float)Math.PI / 5F)");
-        text = CLEANUP_180piD.matcher(text).replaceAll("(180D / Math.PI)");
-        text = CLEANUP_180piF.matcher(text).replaceAll("(180F / (float)Math.PI)");
-        text = CLEANUP_2pi9D.matcher(text).replaceAll("(Math.PI * 2D / 9D)");
-        text = CLEANUP_2pi9F.matcher(text).replaceAll("((float)Math.PI * 2F / 9F)");
-        text = CLEANUP_pi10D.matcher(text).replaceAll("(Math.PI / 10D)");
-        text = CLEANUP_pi10F.matcher(text).replaceAll("((float)Math.PI / 10F)");
-        text = CLEANUP_2pi5D.matcher(text).replaceAll("(Math.PI * 2D / 5D)");
-        text = CLEANUP_2pi5F.matcher(text).replaceAll("((float)Math.PI * 2F / 5F)");
-        text = CLEANUP_7pi100D.matcher(text).replaceAll("(Math.PI * 7D / 100D)");
-        text = CLEANUP_7pi100F.matcher(text).replaceAll("((float)Math.PI * 7F / 100F)");
-        text = CLEANUP_185pi100D.matcher(text).replaceAll("(Math.PI * 185D / 100D)");
-        text = CLEANUP_185pi100F.matcher(text).replaceAll("((float)Math.PI * 185F / 100F)");
+        // every constant is a decimal literal, so the literals are found once and then matched against the constants
+        {
+            Matcher matcher = CLEANUP_decimal.matcher(text);
+            StringBuffer buffer = new StringBuffer(text.length());
+
+            while (matcher.find()) {
+                String constant = getConstant(matcher.group());
+                if (constant != null) {
+                    matcher.appendReplacement(buffer, Matcher.quoteReplacement(constant));
+                }
+            }
+            matcher.appendTail(buffer);
+            text = buffer.toString();
+        }
 
         return text;
     }
 
+    private static String getConstant(String decimal) {
+        for (Map.Entry<Pattern, String> e : CLEANUP_constants.entrySet()) {
+            if (e.getKey().matcher(decimal).matches()) {
+                return e.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Does what {@link #CLEANUP_header} does.
+     */
+    private static String stripHeader(String text) {
+        int start = 0;
+        while (start < text.length() && isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        return text.substring(start);
+    }
+
+    /**
+     * Does what {@link #CLEANUP_footer} does. Like the regex, this keeps a last line separator that isn't whitespace.
+     */
+    private static String stripFooter(String text) {
+        int end = text.length();
+        if (end > 0 && isLineSeparator(text.charAt(end - 1)) && !isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+
+        int start = end;
+        while (start > 0 && isWhitespace(text.charAt(start - 1))) {
+            start--;
+        }
+        return start == end ? text : text.substring(0, start) + text.substring(end);
+    }
+
+    /**
+     * Does what {@link #CLEANUP_trailing} and {@link #COMMENTS_TRAILING} do.
+     */
+    private static String stripTrailing(String text) {
+        StringBuilder out = null;
+        int copied = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != ' ' && c != '\t') {
+                continue;
+            }
+
+            int end = i + 1;
+            while (end < text.length() && (text.charAt(end) == ' ' || text.charAt(end) == '\t')) {
+                end++;
+            }
+            if (end == text.length() || isLineSeparator(text.charAt(end))) {
+                if (out == null) {
+                    out = new StringBuilder(text.length());
+                }
+                out.append(text, copied, i);
+                copied = end;
+            }
+            i = end - 1;
+        }
+
+        if (out == null) {
+            return text;
+        }
+        return out.append(text, copied, text.length()).toString();
+    }
+
+    // what \s matches
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // where $ matches
+    private static boolean isLineSeparator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
     /**
      * Ensures that no class imports stuff from the package its in.
      *
@@ -27,6 +27,10 @@ import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.io.LineProcessor;
 import de.oceanlabs.mcp.mcinjector.StringUtil;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.util.caching.ArtifactCache;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
+import org.gradle.api.Project;
 import org.objectweb.asm.*;
 
 import java.io.*;
@@ -41,6 +45,8 @@ import java.util.zip.ZipInputStream;
 import static org.objectweb.asm.Opcodes.*;
 
 public class ReobfExceptor {
+    private static final int FORMAT_VERSION = 1;
+
     // info supplied.
     public File toReobfJar;
     public File deobfJar;
@@ -53,6 +59,33 @@ public class ReobfExceptor {
     Map<String, String> access = Maps.newHashMap();
 
 
+    /**
+     * Does {@link #doFirstThings()} and {@link #buildSrg(File, File)}, unless an SRG was already built
+     * from the same jars, exc config, CSVs and input SRG, in which case that one is copied instead.
+     *
+     * @param project any project of the build
+     * @param inSrg   the SRG to rewrite
+     * @param outSrg  where to write the rewritten SRG
+     * @throws IOException because it reads the srg and jar files
+     */
+    public void buildSrg(Project project, File inSrg, File outSrg) throws IOException {
+        FileHashIndex index = FileHashIndex.get(project);
+        ArtifactCache cache = ArtifactCache.get(project, Constants.CACHE_REOBF_SRGS, Constants.CACHE_REOBF_SRGS_SIZE);
+        String key = cache.key("reobfSrg", FORMAT_VERSION,
+                index.hash(deobfJar), index.hash(toReobfJar), index.hash(excConfig),
+                fieldCSV == null ? null : index.hash(fieldCSV),
+                methodCSV == null ? null : index.hash(methodCSV),
+                index.hash(inSrg));
+
+        if (cache.fetch(key, outSrg))
+            return;
+
+        doFirstThings();
+        buildSrg(inSrg, outSrg);
+
+        cache.publish(key, outSrg);
+    }
+
     public void buildSrg(File inSrg, File outSrg) throws IOException {
         // build the SRG
 
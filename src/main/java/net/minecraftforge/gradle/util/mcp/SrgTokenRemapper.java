@@ -0,0 +1,277 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+/**
+ * Replaces the SRG names of methods, fields and parameters in source code with their MCP names.
+ * <p>
+ * Finds the same tokens as the regex {@code func_[0-9]+_[a-zA-Z_]+|field_[0-9]+_[a-zA-Z_]+|p_[\w]+_\d+_\b}
+ * in a single pass over the text, and looks them up by their numeric id instead of hashing a substring.
+ * The tables are only written while the names are added, so one instance can remap several files at once.
+ * <p>
+ * The names either come from {@link CompiledMappings}, which are queried directly, or are added one by one.
+ */
+public final class SrgTokenRemapper {
+    /** null if the names are added to the tables */
+    private final CompiledMappings compiled;
+
+    /**
+     * numeric id -&gt; {srgName, mcpName, srgName, mcpName...}, as ids are not unique between different suffixes.
+     */
+    private final TIntObjectHashMap<String[]> methods = new TIntObjectHashMap<String[]>();
+    private final TIntObjectHashMap<String[]> fields = new TIntObjectHashMap<String[]>();
+    private final TIntObjectHashMap<String[]> params = new TIntObjectHashMap<String[]>();
+
+    /**
+     * Creates a remapper for the names added with {@link #putMethod(String, String)} and the other put methods.
+     */
+    public SrgTokenRemapper() {
+        this(null);
+    }
+
+    /**
+     * Creates a remapper that looks the names up in the compiled mappings, nothing can be added to it.
+     */
+    public SrgTokenRemapper(CompiledMappings compiled) {
+        this.compiled = compiled;
+    }
+
+    public void putMethod(String srg, String mcp) {
+        put(methods, srg, mcp);
+    }
+
+    public void putField(String srg, String mcp) {
+        put(fields, srg, mcp);
+    }
+
+    public void putParam(String srg, String mcp) {
+        put(params, srg, mcp);
+    }
+
+    private void put(TIntObjectHashMap<String[]> table, String srg, String mcp) {
+        if (compiled != null)
+            throw new IllegalStateException("The names are looked up in the compiled mappings");
+
+        int id = srgId(srg, 0, srg.length());
+        String[] names = table.get(id);
+        if (names == null) {
+            table.put(id, new String[] { srg, mcp });
+            return;
+        }
+
+        for (int i = 0; i < names.length; i += 2) {
+            if (names[i].equals(srg)) {
+                names[i + 1] = mcp;
+                return;
+            }
+        }
+
+        String[] grown = new String[names.length + 2];
+        System.arraycopy(names, 0, grown, 0, names.length);
+        grown[names.length] = srg;
+        grown[names.length + 1] = mcp;
+        table.put(id, grown);
+    }
+
+    /**
+     * Looks up a whole method name, like a member reference in a class file.
+     *
+     * @param srg the name
+     * @return the MCP name, or null if the name isn't known
+     */
+    public String getMethod(String srg) {
+        return compiled != null ? compiled.getMethod(srg) : lookup(methods, srg, 0, srg.length());
+    }
+
+    /**
+     * Looks up a whole field name, like a member reference in a class file.
+     *
+     * @param srg the name
+     * @return the MCP name, or null if the name isn't known
+     */
+    public String getField(String srg) {
+        return compiled != null ? compiled.getField(srg) : lookup(fields, srg, 0, srg.length());
+    }
+
+    /**
+     * Replaces all known SRG names in the text.
+     *
+     * @param text the text to remap
+     * @param buf  a buffer to build the result in, its contents are discarded
+     * @return the remapped text, or the same instance if nothing was replaced
+     */
+    public String remap(String text, StringBuilder buf) {
+        int len = text.length();
+        int copied = 0;
+        boolean replaced = false;
+
+        int i = text.indexOf('_');
+        // every token has an underscore at index 1, 4 or 5.
+        i = i < 0 ? len : Math.max(i - 5, 0);
+
+        while (i < len) {
+            char c = text.charAt(i);
+            int end = -1;
+            TIntObjectHashMap<String[]> table = null;
+
+            if (c == 'f') {
+                if (text.startsWith("func_", i)) {
+                    end = matchMemberToken(text, i + 5, len);
+                    table = methods;
+                } else if (text.startsWith("field_", i)) {
+                    end = matchMemberToken(text, i + 6, len);
+                    table = fields;
+                }
+            } else if (c == 'p' && i + 1 < len && text.charAt(i + 1) == '_') {
+                end = matchParamToken(text, i, len);
+                table = params;
+            }
+
+            if (end < 0) {
+                i++;
+                continue;
+            }
+
+            String mcp = compiled != null ? lookupCompiled(table, text, i, end) : lookup(table, text, i, end);
+            if (mcp != null) {
+                if (!replaced) {
+                    buf.setLength(0);
+                    replaced = true;
+                }
+                buf.append(text, copied, i).append(mcp);
+                copied = end;
+            }
+            i = end;
+        }
+
+        if (!replaced)
+            return text;
+
+        buf.append(text, copied, len);
+        return buf.toString();
+    }
+
+    /**
+     * Matches {@code [0-9]+_[a-zA-Z_]+}, the part after func_ and field_.
+     *
+     * @return the end of the token, or -1
+     */
+    private static int matchMemberToken(String text, int i, int len) {
+        int start = i;
+        while (i < len && isDigit(text.charAt(i)))
+            i++;
+        if (i == start || i >= len || text.charAt(i) != '_')
+            return -1;
+
+        start = ++i;
+        while (i < len && isLetterOrUnderscore(text.charAt(i)))
+            i++;
+        return i == start ? -1 : i;
+    }
+
+    /**
+     * Matches {@code p_[\w]+_\d+_\b}.
+     * The token has to end with the run of word characters it starts in, so its end is found first.
+     *
+     * @return the end of the token, or -1
+     */
+    private static int matchParamToken(String text, int start, int len) {
+        int end = start + 2;
+        while (end < len && isWordChar(text.charAt(end)))
+            end++;
+        // \b after the last underscore
+        if (end < len && isBoundaryWordChar(text.charAt(end)))
+            return -1;
+
+        int i = end - 1;
+        if (i <= start + 2 || text.charAt(i) != '_')
+            return -1;
+        i--;
+        int digitsEnd = i;
+        while (i > start + 2 && isDigit(text.charAt(i)))
+            i--;
+        // at least one digit, an underscore before them, and one more word character after p_
+        if (i == digitsEnd || text.charAt(i) != '_' || i < start + 3)
+            return -1;
+        return end;
+    }
+
+    /**
+     * @param table the table of the kind of token, only used to tell which kind it is
+     */
+    private String lookupCompiled(TIntObjectHashMap<String[]> table, String text, int start, int end) {
+        if (table == methods)
+            return compiled.getMethod(text, start, end);
+        if (table == fields)
+            return compiled.getField(text, start, end);
+        return compiled.getParam(text, start, end);
+    }
+
+    private static String lookup(TIntObjectHashMap<String[]> table, String text, int start, int end) {
+        String[] names = table.get(srgId(text, start, end));
+        if (names == null)
+            return null;
+
+        int len = end - start;
+        for (int i = 0; i < names.length; i += 2) {
+            String srg = names[i];
+            if (srg.length() == len && text.regionMatches(start, srg, 0, len))
+                return names[i + 1];
+        }
+        return null;
+    }
+
+    /**
+     * The first number in the name, which is the numeric id for func_, field_ and p_ (and p_i) names.
+     * Anything else just ends up sharing a bucket.
+     */
+    private static int srgId(String name, int start, int end) {
+        int i = start;
+        while (i < end && !isDigit(name.charAt(i)))
+            i++;
+
+        int id = 0;
+        while (i < end && isDigit(name.charAt(i)))
+            id = id * 10 + (name.charAt(i++) - '0');
+        return id;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetterOrUnderscore(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isWordChar(char c) {
+        return isLetterOrUnderscore(c) || isDigit(c);
+    }
+
+    /**
+     * What java regex considers part of a word for \b, which is wider than \w.
+     */
+    private static boolean isBoundaryWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+}
@@ -48,7 +48,9 @@ import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -87,6 +89,8 @@ public final class ContextualPatch {
     private String patchLine;
     private boolean patchLineRead;
     private int lastPatchedLine;    // the last line that was successfuly patched
+    private List<SinglePatch> parsedPatches; // kept from getTargetPaths() until the next patch()
+    private final Map<String, String> canonicalLines = new HashMap<String, String>();
 
     public static ContextualPatch create(File patchFile, File context) {
         return new ContextualPatch(patchFile, context);
@@ -131,6 +135,40 @@ public final class ContextualPatch {
      */
     public List<PatchReport> patch(boolean dryRun) throws PatchException, IOException {
         List<PatchReport> report = new ArrayList<PatchReport>();
+        List<SinglePatch> patches = parsedPatches != null ? parsedPatches : readPatches();
+        parsedPatches = null;
+        computeContext(patches);
+        for (SinglePatch patch : patches) {
+            try {
+                report.add(applyPatch(patch, dryRun));
+                //report.add(new PatchReport(patch.targetFile, computeBackup(patch.targetFile), patch.binary, PatchStatus.Patched, null));
+            } catch (Exception e) {
+                report.add(new PatchReport(patch.targetPath, patch.binary, PatchStatus.Failure, e, new ArrayList<HunkReport>()));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Reads the patch and returns the paths of the files it targets, in the order they appear.
+     * The parsed patch is kept for the next call to {@link #patch(boolean)}, so it is only read once.
+     *
+     * @return the target paths, as written in the patch
+     * @throws PatchException for a malformed patch file
+     * @throws IOException    because it reads the patch file
+     */
+    public List<String> getTargetPaths() throws PatchException, IOException {
+        if (parsedPatches == null) {
+            parsedPatches = readPatches();
+        }
+        List<String> ret = new ArrayList<String>(parsedPatches.size());
+        for (SinglePatch patch : parsedPatches) {
+            ret.add(patch.targetPath);
+        }
+        return ret;
+    }
+
+    private List<SinglePatch> readPatches() throws PatchException, IOException {
         init();
         try {
             patchLine = patchReader.readLine();
@@ -142,16 +180,7 @@ public final class ContextualPatch {
                 }
                 patches.add(patch);
             }
-            computeContext(patches);
-            for (SinglePatch patch : patches) {
-                try {
-                    report.add(applyPatch(patch, dryRun));
-                    //report.add(new PatchReport(patch.targetFile, computeBackup(patch.targetFile), patch.binary, PatchStatus.Patched, null));
-                } catch (Exception e) {
-                    report.add(new PatchReport(patch.targetPath, patch.binary, PatchStatus.Failure, e, new ArrayList<HunkReport>()));
-                }
-            }
-            return report;
+            return patches;
         } finally {
             if (patchReader != null) {
                 try {
@@ -340,8 +369,9 @@ public final class ContextualPatch {
     private HunkReport applyHunk(List<String> target, Hunk hunk, int hunkID) throws PatchException {
         int idx = -1;
         int fuzz = 0;
+        LineIndex index = new LineIndex(target);
         for (; idx == -1 && fuzz <= this.maxFuzz; fuzz++) {
-            idx = findHunkIndex(target, hunk, fuzz, hunkID);
+            idx = findHunkIndex(target, index, hunk, fuzz, hunkID);
             if (idx != -1) {
                 break;
             }
@@ -352,12 +382,36 @@ public final class ContextualPatch {
         return applyHunk(target, hunk, idx, false, fuzz, hunkID);
     }
 
-    private int findHunkIndex(List<String> target, Hunk hunk, int fuzz, int hunkID) throws PatchException {
+    private int findHunkIndex(List<String> target, LineIndex index, Hunk hunk, int fuzz, int hunkID) throws PatchException {
         int idx = hunk.modifiedStart;  // first guess from the hunk range specification
         if (idx >= lastPatchedLine && applyHunk(target, hunk, idx, true, fuzz, hunkID).getStatus().isSuccess()) {
             return idx;
-        } else {
-            // try to search for the context
+        }
+
+        // try to search for the context, only at the offsets where the rarest line of the hunk that has to match could line up.
+        String anchor = null;
+        int anchorOffset = 0;
+        int anchorCount = Integer.MAX_VALUE;
+        int offset = 0;
+        for (int hunkIdx = 0; hunkIdx < hunk.lines.size(); hunkIdx++) {
+            String hunkLine = hunk.lines.get(hunkIdx);
+            if (isAdditionLine(hunkLine)) {
+                continue;
+            }
+            if (fuzz == 0 || isRemovalLine(hunkLine) || (hunkIdx >= fuzz && hunkIdx < hunk.lines.size() - fuzz)) {
+                String key = canonicalize(hunkLine.substring(1));
+                int count = index.count(key);
+                if (count < anchorCount) {
+                    anchor = key;
+                    anchorOffset = offset;
+                    anchorCount = count;
+                }
+            }
+            offset++;
+        }
+
+        if (anchor == null) {
+            // every line may fuzz, nothing to anchor on.
             for (int i = idx - 1; i >= lastPatchedLine; i--) {
                 if (applyHunk(target, hunk, i, true, fuzz, hunkID).getStatus().isSuccess()) {
                     return i;
@@ -368,6 +422,22 @@ public final class ContextualPatch {
                     return i;
                 }
             }
+            return -1;
+        }
+
+        // candidates are ascending, check them in the same order the full scan would have
+        int[] candidates = index.positions(anchor);
+        for (int c = candidates.length - 1; c >= 0; c--) {
+            int i = candidates[c] - anchorOffset + 1;
+            if (i < idx && i >= lastPatchedLine && applyHunk(target, hunk, i, true, fuzz, hunkID).getStatus().isSuccess()) {
+                return i;
+            }
+        }
+        for (int candidate : candidates) {
+            int i = candidate - anchorOffset + 1;
+            if (i > idx && i < target.size() && applyHunk(target, hunk, i, true, fuzz, hunkID).getStatus().isSuccess()) {
+                return i;
+            }
         }
         return -1;
     }
@@ -975,6 +1045,13 @@ public final class ContextualPatch {
     }
 
     private boolean similar(String target, String hunk, char lineType) {
+        if (target.equals(hunk)) {
+            return true;
+        }
+        // lines that are similar always have the same canonical form, so this rules out most lines without splitting them
+        if (!canonicalize(target).equals(canonicalize(hunk))) {
+            return false;
+        }
         if (c14nAccess) {
             if (c14nWhitespace) {
                 target = target.replaceAll("[\t| ]+", " ");
@@ -1017,6 +1094,85 @@ public final class ContextualPatch {
         }
     }
 
+    /**
+     * Reduces a line to the parts {@link #similar(String, String, char)} actually compares.
+     * The results are cached, as the same lines come up again and again while searching for hunks.
+     */
+    private String canonicalize(String line) {
+        String ret = canonicalLines.get(line);
+        if (ret == null) {
+            ret = line;
+            if (c14nWhitespace) {
+                ret = ret.replaceAll("[\t| ]+", " ");
+            }
+            if (c14nAccess) {
+                StringBuilder builder = new StringBuilder(ret.length());
+                for (String part : ret.split(" ")) {
+                    if (isAccess(part)) {
+                        continue;
+                    }
+                    builder.append(isLabel(part) ? "label" : part).append(' ');
+                }
+                ret = builder.toString();
+            }
+            canonicalLines.put(line, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Maps the canonical form of every line of a target to the lines it appears on.
+     * Built on first use, and only valid until the target is modified.
+     */
+    private final class LineIndex {
+        private final List<String> target;
+        private Map<String, int[]> heads; // key -> {first line, count}
+        private int[] next;
+
+        LineIndex(List<String> target) {
+            this.target = target;
+        }
+
+        private void build() {
+            if (heads != null) {
+                return;
+            }
+            heads = new HashMap<String, int[]>();
+            next = new int[target.size()];
+            for (int i = target.size() - 1; i >= 0; i--) {
+                String key = canonicalize(target.get(i));
+                int[] head = heads.get(key);
+                if (head == null) {
+                    next[i] = -1;
+                    heads.put(key, new int[]{i, 1});
+                } else {
+                    next[i] = head[0];
+                    head[0] = i;
+                    head[1]++;
+                }
+            }
+        }
+
+        int count(String key) {
+            build();
+            int[] head = heads.get(key);
+            return head == null ? 0 : head[1];
+        }
+
+        int[] positions(String key) {
+            build();
+            int[] head = heads.get(key);
+            if (head == null) {
+                return new int[0];
+            }
+            int[] ret = new int[head[1]];
+            for (int i = head[0], x = 0; i != -1; i = next[i]) {
+                ret[x++] = i;
+            }
+            return ret;
+        }
+    }
+
     private boolean isAccess(String data) {
         return data.equalsIgnoreCase("public") ||
                 data.equalsIgnoreCase("private") ||
@@ -113,6 +113,98 @@ public class TestAbstractEditJarTask extends TaskTest<AbstractEditJarTask>
         }
     }
 
+    @Test
+    public void runTaskInParallel() throws Throwable
+    {
+        AbstractEditJarTask task = getTask(AbstractEditJarTaskParallel.class);
+        File inJar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+        File outJar = temporaryFolder.newFile("out.jar");
+        task.setInJar(inJar);
+        task.setOutJar(outJar);
+        // small enough that sources have to wait to be written
+        task.setMaxBufferedBytes(4096);
+        task.doTask();
+        try (JarFile inJarFile = new JarFile(inJar);
+             JarFile outJarFile = new JarFile(outJar)) {
+
+            for (ZipEntry e : (Iterable<JarEntry>) inJarFile.stream()::iterator) {
+                if (e.getName().startsWith("META-INF/"))
+                    continue;
+                ZipEntry other = outJarFile.getEntry(e.getName());
+                Assert.assertNotNull(other);
+                Assert.assertEquals(e.getSize(), other.getSize());
+            }
+
+            // written in order, no matter which source was done first
+            String last = "";
+            for (ZipEntry e : (Iterable<JarEntry>) outJarFile.stream()::iterator) {
+                Assert.assertTrue(e.getName() + " should come after " + last, e.getName().compareTo(last) > 0);
+                last = e.getName();
+            }
+        }
+    }
+
+    @Test
+    public void runTaskWithWriteHooks() throws Throwable
+    {
+        AbstractEditJarTaskWithHooks task = (AbstractEditJarTaskWithHooks) getTask(AbstractEditJarTaskWithHooks.class);
+        File inJar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+        File outJar = temporaryFolder.newFile("out.jar");
+        task.setInJar(inJar);
+        task.setOutJar(outJar);
+        task.doTask();
+        try (JarFile outJarFile = new JarFile(outJar)) {
+            ZipEntry added = outJarFile.getEntry("added.txt");
+            Assert.assertNotNull(added);
+            try (InputStream in = outJarFile.getInputStream(added)) {
+                Assert.assertEquals("added", new BufferedReader(new InputStreamReader(in)).readLine());
+            }
+
+            Set<String> names = new HashSet<>();
+            for (ZipEntry e : (Iterable<JarEntry>) outJarFile.stream()::iterator) {
+                names.add(e.getName());
+            }
+            names.remove("added.txt");
+            Assert.assertEquals(names, task.written);
+        }
+    }
+
+    static class AbstractEditJarTaskWithHooks extends AbstractEditJarTaskDoNothing
+    {
+        final Set<String> written = new HashSet<>();
+
+        public AbstractEditJarTaskWithHooks()
+        {
+            super();
+        }
+
+        @Override
+        protected void postWriteEntry(JarWriter jarOut, String entryName) throws IOException
+        {
+            written.add(entryName);
+        }
+
+        @Override
+        protected void postWrite(JarWriter jarOut) throws IOException
+        {
+            jarOut.addEntry("added.txt", "added\n".getBytes());
+        }
+    }
+
+    static class AbstractEditJarTaskParallel extends AbstractEditJarTaskDoNothing
+    {
+        public AbstractEditJarTaskParallel()
+        {
+            super();
+        }
+
+        @Override
+        protected boolean canReadInParallel()
+        {
+            return true;
+        }
+    }
+
     static class AbstractEditJarTaskDoNothing extends AbstractEditJarTask
     {
         public AbstractEditJarTaskDoNothing()
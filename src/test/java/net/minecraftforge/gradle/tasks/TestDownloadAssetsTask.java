@@ -0,0 +1,138 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpServer;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.testsupport.TaskTest;
+import net.minecraftforge.gradle.util.delayed.DelayedFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestDownloadAssetsTask extends TaskTest<DownloadAssetsTask>
+{
+    private final Map<String, byte[]> objects = new HashMap<String, byte[]>();
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+    private final Set<String> failOnce = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath().substring(1);
+            requests.computeIfAbsent(path, k -> new AtomicInteger()).incrementAndGet();
+            byte[] data = objects.get(path);
+
+            if (data == null || failOnce.remove(path))
+            {
+                exchange.sendResponseHeaders(data == null ? 404 : 500, -1);
+            }
+            else
+            {
+                exchange.sendResponseHeaders(200, data.length);
+                exchange.getResponseBody().write(data);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer()
+    {
+        server.stop(0);
+    }
+
+    private String addObject(String content)
+    {
+        byte[] data = content.getBytes(Charsets.UTF_8);
+        String hash = Constants.hash(data, "SHA1");
+        objects.put(hash.substring(0, 2) + "/" + hash, data);
+        return hash;
+    }
+
+    private static String entry(String name, String hash, int size)
+    {
+        return "\"" + name + "\": {\"hash\": \"" + hash + "\", \"size\": " + size + "}";
+    }
+
+    private int totalRequests()
+    {
+        int total = 0;
+        for (AtomicInteger count : requests.values())
+            total += count.get();
+        return total;
+    }
+
+    @Test
+    public void downloadsVerifiesAndRetries() throws Exception
+    {
+        String first = addObject("first asset");
+        String second = addObject("second asset");
+        String firstPath = first.substring(0, 2) + "/" + first;
+        failOnce.add(firstPath);
+
+        File assetsDir = temporaryFolder.newFolder("assets");
+        File index = temporaryFolder.newFile("1.7.10.json");
+        Files.write(index.toPath(), ("{\"virtual\": true, \"objects\": {"
+                + entry("sounds/first.ogg", first, 11) + ", "
+                + entry("sounds/copy.ogg", first, 11) + ", "
+                + entry("lang/second.lang", second, 12)
+                + "}}").getBytes(Charsets.UTF_8));
+
+        DownloadAssetsTask task = getTask(DownloadAssetsTask.class);
+        task.setAssetsDir(new DelayedFile(TestDownloadAssetsTask.class, assetsDir));
+        task.setAssetsIndex(new DelayedFile(TestDownloadAssetsTask.class, index));
+        task.setMinecraftDir(temporaryFolder.newFolder("minecraft"));
+        task.setAssetsUrl("http://127.0.0.1:" + server.getAddress().getPort());
+        task.setMaxConnections(2);
+        task.doTask();
+
+        // the object shared by two names is only fetched once, and once more after the failure
+        Assert.assertEquals(2, requests.get(firstPath).get());
+        Assert.assertEquals(3, totalRequests());
+        Assert.assertEquals("first asset", new String(Files.readAllBytes(new File(assetsDir, "objects/" + firstPath).toPath()), Charsets.UTF_8));
+        Assert.assertEquals("first asset", new String(Files.readAllBytes(new File(assetsDir, "virtual/1.7.10/sounds/copy.ogg").toPath()), Charsets.UTF_8));
+        Assert.assertEquals("second asset", new String(Files.readAllBytes(new File(assetsDir, "virtual/1.7.10/lang/second.lang").toPath()), Charsets.UTF_8));
+
+        // nothing changed, so nothing is downloaded again
+        task.doTask();
+        Assert.assertEquals(3, totalRequests());
+
+        // a corrupted object is noticed and replaced
+        Files.write(new File(assetsDir, "objects/" + firstPath).toPath(), "first assex".getBytes(Charsets.UTF_8));
+        task.doTask();
+        Assert.assertEquals(3, requests.get(firstPath).get());
+        Assert.assertEquals("first asset", new String(Files.readAllBytes(new File(assetsDir, "objects/" + firstPath).toPath()), Charsets.UTF_8));
+    }
+}
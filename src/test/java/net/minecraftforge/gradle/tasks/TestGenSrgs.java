@@ -24,6 +24,7 @@ import com.google.common.base.Charsets;
 import net.minecraftforge.gradle.testsupport.TaskTest;
 import net.minecraftforge.gradle.testsupport.TestResource;
 import net.minecraftforge.gradle.util.delayed.DelayedFile;
+import net.minecraftforge.gradle.util.mcp.CompiledMappings;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -62,9 +63,12 @@ public class TestGenSrgs extends TaskTest<GenSrgs>
         File inExc = temporaryFolder.newFile("in.exc");
         File statics = temporaryFolder.newFile("statics.exc");
 
+        File methodsCsv = TestResource.METHODS_CSV.getFile(temporaryFolder);
+        File fieldsCsv = TestResource.FIELDS_CSV.getFile(temporaryFolder);
+
         GenSrgs task = getTask(GenSrgs.class);
-        task.setMethodsCsv(delayed(TestResource.METHODS_CSV));
-        task.setFieldsCsv(delayed(TestResource.FIELDS_CSV));
+        task.setMethodsCsv(delayed(methodsCsv));
+        task.setFieldsCsv(delayed(fieldsCsv));
         task.setInSrg(delayed(TestResource.OBFUSCATE_SRG));
         task.setNotchToSrg(delayed(notchToSrg));
         task.setNotchToMcp(delayed(notchToMcp));
@@ -82,5 +86,12 @@ public class TestGenSrgs extends TaskTest<GenSrgs>
         assertMatches(mcpToNotch, "MD: test/actual/NonDepUser/method1_unsrg ()V test/actual/NonDepUser/doStuffObf ()V");
         assertMatches(mcpToSrg, "MD: test/actual/NonDepUser/method1_unsrg ()V test/actual/NonDepUser/method1 ()V");
         assertMatches(srgToMcp, "MD: test/actual/NonDepUser/method1 ()V test/actual/NonDepUser/method1_unsrg ()V");
+
+        CompiledMappings names = CompiledMappings.open(task.getProject(), methodsCsv, fieldsCsv, null);
+        Assert.assertNotNull("The CSVs should have been compiled", names);
+        Assert.assertEquals("method1_unsrg", names.getMethod("method1"));
+        Assert.assertEquals("human readable name of srg name method1", names.getMethodDoc("method1"));
+        Assert.assertNull(names.getMethod("method2"));
+        Assert.assertNull(names.getField("method1"));
     }
 }
@@ -20,13 +20,27 @@
  */
 package net.minecraftforge.gradle.tasks;
 
+import com.google.common.io.ByteStreams;
 import groovy.lang.Closure;
 import net.minecraftforge.fml.relauncher.Side;
 import net.minecraftforge.fml.relauncher.SideOnly;
 import net.minecraftforge.gradle.testsupport.TaskTest;
 import net.minecraftforge.gradle.testsupport.TestResource;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
 
 import java.io.*;
 import java.util.*;
@@ -83,6 +97,202 @@ public class TestMergeJars extends TaskTest<MergeJars>
         }
     }
 
+    @Test
+    public void mergesLikeSerialMerge() throws IOException
+    {
+        // client has i % 3 == 0 and 1, server has i % 3 == 0 and 2. Far more classes than are merged ahead of the one being written.
+        Map<String, byte[]> client = new LinkedHashMap<>();
+        Map<String, byte[]> server = new LinkedHashMap<>();
+        client.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes());
+        client.put("pkg/", null);
+        client.put("assets/client.txt", "client".getBytes());
+        client.put("stored.txt", "stored".getBytes());
+        client.put("shared.txt", "client shared".getBytes());
+        server.put("shared.txt", "server shared".getBytes());
+        server.put("assets/server.txt", "server".getBytes());
+        for (int i = 119; i >= 0; i--)
+        {
+            String name = String.format("pkg/C%03d", i);
+            // some classes already have annotations, the side goes after them
+            boolean deprecated = i % 4 == 0;
+            if (i % 3 != 2)
+                client.put(name + ".class", classBytes(name, deprecated, "both", "client"));
+            if (i % 3 != 1)
+                server.put(name + ".class", classBytes(name, deprecated, "both", "server"));
+        }
+
+        File clientJar = writeJar("client.jar", client);
+        File serverJar = writeJar("server.jar", server);
+        File out = temporaryFolder.newFile("merged.jar");
+
+        MergeJars mergeJars = getTask(MergeJars.class);
+        mergeJars.setClient(fileClosure(clientJar));
+        mergeJars.setServer(serverJar);
+        mergeJars.setOutJar(out);
+        mergeJars.doTask();
+
+        // what merging one class after the other, with the whole class read into a tree, gives
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        expected.put("assets/client.txt", client.get("assets/client.txt"));
+        expected.put("stored.txt", client.get("stored.txt"));
+        expected.put("shared.txt", client.get("shared.txt"));
+        expected.put("assets/server.txt", server.get("assets/server.txt"));
+        TreeSet<String> classes = new TreeSet<>();
+        classes.addAll(client.keySet());
+        classes.addAll(server.keySet());
+        for (String name : classes)
+        {
+            if (!name.endsWith(".class"))
+                continue;
+            byte[] c = client.get(name);
+            byte[] s = server.get(name);
+            expected.put(name, c != null && s != null ? mergeJars.processClass(c, s) : addSideOnly(c != null ? c : s, c != null));
+        }
+        expected.put(zipName(SideOnly.class), null);
+        expected.put(zipName(Side.class), null);
+
+        try (ZipFile outJar = new ZipFile(out))
+        {
+            List<String> names = new ArrayList<>();
+            for (ZipArchiveEntry entry : Collections.list(outJar.getEntriesInPhysicalOrder()))
+                names.add(entry.getName());
+            Assert.assertEquals(new ArrayList<>(expected.keySet()), names);
+
+            for (Map.Entry<String, byte[]> e : expected.entrySet())
+            {
+                if (e.getValue() == null)
+                    continue;
+                byte[] actual;
+                try (InputStream in = outJar.getInputStream(outJar.getEntry(e.getKey())))
+                {
+                    actual = ByteStreams.toByteArray(in);
+                }
+                if (e.getKey().endsWith(".class"))
+                    Assert.assertEquals(e.getKey(), describe(e.getValue()), describe(actual));
+                else
+                    Assert.assertArrayEquals(e.getKey(), e.getValue(), actual);
+            }
+
+            // resources are copied as they are
+            Assert.assertEquals(ZipArchiveEntry.STORED, outJar.getEntry("stored.txt").getMethod());
+            Assert.assertEquals(ZipArchiveEntry.DEFLATED, outJar.getEntry("assets/client.txt").getMethod());
+        }
+    }
+
+    /**
+     * Times the merge of a real client/server pair, e.g. the 1.12.2 jars from the gradle cache:
+     * {@code -DmergeJars.client=.../minecraft-1.12.2.jar -DmergeJars.server=.../minecraft_server-1.12.2.jar}
+     */
+    @Test
+    public void benchmarkRealJars() throws IOException
+    {
+        String client = System.getProperty("mergeJars.client");
+        String server = System.getProperty("mergeJars.server");
+        Assume.assumeTrue("no client/server jars given", client != null && server != null);
+
+        MergeJars mergeJars = getTask(MergeJars.class);
+        mergeJars.setClient(fileClosure(new File(client)));
+        mergeJars.setServer(new File(server));
+
+        for (int i = 0; i < 5; i++)
+        {
+            File out = temporaryFolder.newFile("merged" + i + ".jar");
+            mergeJars.setOutJar(out);
+
+            long start = System.nanoTime();
+            mergeJars.doTask();
+            System.out.println("MergeJars run " + i + ": " + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+    }
+
+    private File writeJar(String name, Map<String, byte[]> entries) throws IOException
+    {
+        File jar = temporaryFolder.newFile(name);
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(jar))
+        {
+            for (Map.Entry<String, byte[]> e : entries.entrySet())
+            {
+                ZipArchiveEntry entry = new ZipArchiveEntry(e.getKey());
+                if (e.getKey().startsWith("stored"))
+                    entry.setMethod(ZipArchiveEntry.STORED);
+                out.putArchiveEntry(entry);
+                if (e.getValue() != null)
+                    out.write(e.getValue());
+                out.closeArchiveEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static byte[] classBytes(String name, boolean deprecated, String... members)
+    {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        if (deprecated)
+            writer.visitAnnotation("Ljava/lang/Deprecated;", true).visitEnd();
+        for (String member : members)
+        {
+            writer.visitField(Opcodes.ACC_PUBLIC, member, "I", null, null).visitEnd();
+            MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, member, "()V", null, null);
+            method.visitCode();
+            method.visitInsn(Opcodes.RETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * How the merge used to mark classes of one side, by adding the annotation to the tree of the class.
+     */
+    private static byte[] addSideOnly(byte[] data, boolean isClientOnly)
+    {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(data).accept(classNode, 0);
+        if (classNode.visibleAnnotations == null)
+            classNode.visibleAnnotations = new ArrayList<>();
+        AnnotationNode ann = new AnnotationNode(Type.getDescriptor(SideOnly.class));
+        ann.values = new ArrayList<>();
+        ann.values.add("value");
+        ann.values.add(new String[] { Type.getDescriptor(Side.class), isClientOnly ? "CLIENT" : "SERVER" });
+        classNode.visibleAnnotations.add(ann);
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        classNode.accept(writer);
+        return writer.toByteArray();
+    }
+
+    /**
+     * The parts of a class the merge changes, the constant pools of the classes don't have to match.
+     */
+    private static String describe(byte[] data)
+    {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(data).accept(classNode, 0);
+        StringBuilder builder = new StringBuilder(classNode.name).append(annotations(classNode.visibleAnnotations)).append('\n');
+        for (FieldNode field : classNode.fields)
+            builder.append(field.name).append(' ').append(field.desc).append(annotations(field.visibleAnnotations)).append('\n');
+        for (MethodNode method : classNode.methods)
+            builder.append(method.name).append(method.desc).append(annotations(method.visibleAnnotations)).append(' ').append(method.instructions.size()).append('\n');
+        return builder.toString();
+    }
+
+    private static String annotations(List<AnnotationNode> annotations)
+    {
+        StringBuilder builder = new StringBuilder();
+        if (annotations != null)
+        {
+            for (AnnotationNode ann : annotations)
+            {
+                builder.append(" @").append(ann.desc);
+                if (ann.values != null)
+                    builder.append(ann.values.stream().map(it -> it instanceof String[] ? Arrays.toString((String[]) it) : String.valueOf(it)).collect(Collectors.toList()));
+            }
+        }
+        return builder.toString();
+    }
+
     /**
      * directory entries are not required by the zip spec so it's fine if those aren't matching
      */
@@ -0,0 +1,186 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.ByteStreams;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.testsupport.TaskTest;
+import net.minecraftforge.gradle.util.patching.ContextualPatch;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.*;
+
+public class TestPatchSourcesTask extends TaskTest<PatchSourcesTask>
+{
+    private static String source(String name)
+    {
+        return "package pkg;\n\npublic class " + name + " {\n    int a;\n    int b;\n    int c;\n}\n";
+    }
+
+    private static String section(String file, String... hunk)
+    {
+        return "diff -r -U 3 " + file + "\n--- ../src-base/minecraft/" + file + "\n+++ ../src-work/minecraft/" + file + "\n" + Joiner.on('\n').join(hunk) + "\n";
+    }
+
+    @Test
+    public void patchesLikeSerialPatching() throws Throwable
+    {
+        // many independent files, and patches that depend on each other across files
+        Map<String, String> sources = new LinkedHashMap<>();
+        Map<String, String> patches = new LinkedHashMap<>();
+        for (int i = 0; i < 40; i++)
+        {
+            String name = String.format("F%02d", i);
+            sources.put("pkg/" + name + ".java", source(name));
+            patches.put(name + ".patch", section("pkg/" + name + ".java",
+                    "@@ -4,3 +4,3 @@", "     int a;", "-    int b;", "+    int b" + i + ";", "     int c;"));
+        }
+        sources.put("pkg/A.java", source("A"));
+        sources.put("pkg/B.java", source("B"));
+        sources.put("pkg/Untouched.java", source("Untouched"));
+
+        // the same file patched several times, every patch needs the ones before it
+        patches.put("A1.patch", section("pkg/A.java", "@@ -4,2 +4,3 @@", "     int a;", "+    int a1;", "     int b;"));
+        patches.put("A2.patch", section("pkg/A.java", "@@ -5,2 +5,3 @@", "     int a1;", "+    int a2;", "     int b;"));
+        patches.put("B1.patch", section("pkg/B.java", "@@ -4,2 +4,3 @@", "     int a;", "+    int b1;", "     int b;"));
+        // joins the patches of A and B
+        patches.put("C.patch", section("pkg/A.java", "@@ -6,2 +6,3 @@", "     int a2;", "+    int both;", "     int b;")
+                + section("pkg/B.java", "@@ -5,2 +5,3 @@", "     int b1;", "+    int both;", "     int b;"));
+        // patches that don't apply, which are reported in the order the patches are loaded
+        patches.put("R1.patch", section("pkg/F05.java", "@@ -4,2 +4,3 @@", "     int missing;", "+    int x;", "     int b5;"));
+        patches.put("R2.patch", section("pkg/F20.java", "@@ -4,2 +4,3 @@", "     int missing;", "+    int x;", "     int b20;"));
+        patches.put("R3.patch", section("pkg/A.java", "@@ -4,2 +4,3 @@", "     int missing;", "+    int x;", "     int a1;"));
+
+        File inJar = temporaryFolder.newFile("in.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(inJar)))
+        {
+            for (Map.Entry<String, String> e : sources.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.write(e.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+        File patchDir = temporaryFolder.newFolder("patches");
+        for (Map.Entry<String, String> e : patches.entrySet())
+            Files.write(new File(patchDir, e.getKey()).toPath(), e.getValue().getBytes(StandardCharsets.UTF_8));
+
+        RecordingPatchSourcesTask task = (RecordingPatchSourcesTask) getTask(RecordingPatchSourcesTask.class);
+        File outJar = temporaryFolder.newFile("out.jar");
+        task.setInJar(inJar);
+        task.setOutJar(outJar);
+        task.setPatches(patchDir);
+        task.doTask();
+
+        // apply the patches one after the other, in the order the task loads them
+        Map<String, List<String>> lines = new HashMap<>();
+        List<String> expectedFailures = new ArrayList<>();
+        List<String> expectedRejects = new ArrayList<>();
+        ContextualPatch.IContextProvider provider = new ContextualPatch.IContextProvider()
+        {
+            @Override
+            public List<String> getData(String target)
+            {
+                String name = target.substring("../src-base/minecraft/".length());
+                List<String> data = lines.get(name);
+                if (data == null && sources.containsKey(name))
+                    data = new ArrayList<>(Arrays.asList(sources.get(name).split("\r\n|\r|\n")));
+                return data == null ? null : new ArrayList<>(data);
+            }
+
+            @Override
+            public void setData(String target, List<String> data)
+            {
+                lines.put(target.substring("../src-base/minecraft/".length()), data);
+            }
+        };
+        for (File patch : task.getProject().fileTree(patchDir))
+        {
+            if (!patch.getName().endsWith("patch"))
+                continue;
+            for (ContextualPatch.PatchReport report : ContextualPatch.create(new String(Files.readAllBytes(patch.toPath()), StandardCharsets.UTF_8), provider).setAccessC14N(true).setMaxFuzz(0).patch(false))
+            {
+                if (!report.getStatus().isSuccess())
+                {
+                    expectedFailures.add(report.getTarget().substring("../src-base/minecraft/".length()));
+                    expectedRejects.add(patch.getName() + ".rej");
+                }
+            }
+        }
+        Map<String, String> expected = new TreeMap<>(sources);
+        for (Map.Entry<String, List<String>> e : lines.entrySet())
+            expected.put(e.getKey(), Joiner.on(Constants.NEWLINE).join(e.getValue()));
+
+        Map<String, String> actual = new TreeMap<>();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(outJar)))
+        {
+            ZipEntry e;
+            while ((e = in.getNextEntry()) != null)
+                actual.put(e.getName(), new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+
+        Assert.assertEquals(expected, actual);
+        // the patches are loaded in the order of the directory listing, so only the ones that never apply are known to fail
+        Assert.assertTrue(expectedFailures.toString(), expectedRejects.containsAll(Arrays.asList("R1.patch.rej", "R2.patch.rej", "R3.patch.rej")));
+        Assert.assertEquals(expectedFailures, task.failures);
+        for (String reject : expectedRejects)
+            Assert.assertTrue(reject, new File(patchDir, reject).isFile());
+    }
+
+    /**
+     * Remembers the files the task reports as failed, in the order it reports them.
+     */
+    public static class RecordingPatchSourcesTask extends PatchSourcesTask
+    {
+        final List<String> failures = new ArrayList<>();
+        private final Logger logger = (Logger) Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[] { Logger.class }, (proxy, method, args) -> {
+            if (method.getName().equals("log") && args.length == 3 && args[0] == LogLevel.ERROR && "Patching failed: {} {}".equals(args[1]))
+                failures.add((String) ((Object[]) args[2])[0]);
+            if (method.getName().equals("hashCode"))
+                return System.identityHashCode(proxy);
+            if (method.getName().equals("equals"))
+                return proxy == args[0];
+            if (method.getName().equals("toString"))
+                return "RecordingLogger";
+            return method.getReturnType() == boolean.class ? false : null;
+        });
+
+        public RecordingPatchSourcesTask()
+        {
+            super();
+        }
+
+        @Override
+        public Logger getLogger()
+        {
+            return logger;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import net.minecraftforge.gradle.testsupport.TaskTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.security.CodeSigner;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.*;
+import java.util.jar.*;
+
+public class TestSignJar extends TaskTest<SignJar>
+{
+    private static final String PASSWORD = "password";
+    // long enough that its manifest section needs continuation lines, with characters that take several bytes
+    private static final String LONG_NAME = "assets/some/deeply/nested/directory/of/assets/with/a/very/long/name/éèêëéèêë/resource.txt";
+    private static final String EXCLUDED = "excluded/notSigned.txt";
+
+    @Test
+    public void signsWithRsaKey() throws Exception
+    {
+        signAndVerify("RSA", 2048);
+    }
+
+    @Test
+    public void signsWithEcKey() throws Exception
+    {
+        signAndVerify("EC", 256);
+    }
+
+    private void signAndVerify(String algorithm, int keySize) throws Exception
+    {
+        File keyStore = generateKey(algorithm, keySize);
+        File inJar = writeJar();
+        File outJar = new File(temporaryFolder.getRoot(), "signed.jar");
+
+        SignJar task = getTask(SignJar.class);
+        task.setInputFile(inJar);
+        task.setOutputFile(outJar);
+        task.setKeyStore(keyStore);
+        task.setAlias("testkey");
+        task.setStorePass(PASSWORD);
+        task.setKeyPass(PASSWORD);
+        task.exclude("excluded/**");
+        task.doTask();
+
+        Certificate expected = loadCertificate(keyStore);
+        Set<String> seen = new HashSet<>();
+        try (JarFile jar = new JarFile(outJar, true))
+        {
+            Assert.assertEquals("test.Main", jar.getManifest().getMainAttributes().getValue("Main-Class"));
+
+            for (JarEntry entry : Collections.list(jar.entries()))
+            {
+                // the signers are only known once the entry was read, which throws if it doesn't match its digest
+                try (InputStream in = jar.getInputStream(entry))
+                {
+                    byte[] buffer = new byte[1024];
+                    while (in.read(buffer) != -1)
+                        ;
+                }
+                seen.add(entry.getName());
+
+                if (entry.isDirectory() || JarSignature.isSignatureRelated(entry.getName()))
+                    continue;
+
+                CodeSigner[] signers = entry.getCodeSigners();
+                if (entry.getName().equals(EXCLUDED))
+                {
+                    Assert.assertNull(entry.getName() + " should not be signed", signers);
+                    continue;
+                }
+
+                Assert.assertNotNull(entry.getName() + " should be signed", signers);
+                Assert.assertEquals(1, signers.length);
+                Assert.assertEquals(expected, signers[0].getSignerCertPath().getCertificates().get(0));
+            }
+        }
+
+        Assert.assertTrue(seen.containsAll(Arrays.asList("test/Main.class", LONG_NAME, EXCLUDED, "META-INF/TESTKEY.SF", "META-INF/TESTKEY." + algorithm)));
+    }
+
+    private File writeJar() throws IOException
+    {
+        File file = new File(temporaryFolder.getRoot(), "input.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, "test.Main");
+
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file), manifest))
+        {
+            for (String name : new String[] { "test/Main.class", LONG_NAME, EXCLUDED })
+            {
+                out.putNextEntry(new JarEntry(name));
+                out.write(("contents of " + name).getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Makes a key store with a self-signed key, the same way a user would.
+     */
+    private File generateKey(String algorithm, int keySize) throws IOException, InterruptedException
+    {
+        File keyStore = new File(temporaryFolder.getRoot(), "keystore");
+        String keytool = new File(System.getProperty("java.home"), "bin/keytool").getPath();
+        Process process = new ProcessBuilder(keytool, "-genkeypair",
+                "-alias", "testkey", "-keyalg", algorithm, "-keysize", String.valueOf(keySize),
+                "-dname", "CN=Test", "-validity", "1",
+                "-keystore", keyStore.getPath(), "-storetype", KeyStore.getDefaultType(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .start();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = process.getInputStream())
+        {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                output.write(buffer, 0, read);
+        }
+        Assert.assertEquals(output.toString(), 0, process.waitFor());
+        return keyStore;
+    }
+
+    private static Certificate loadCertificate(File keyStore) throws Exception
+    {
+        KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream in = new FileInputStream(keyStore))
+        {
+            store.load(in, PASSWORD.toCharArray());
+        }
+        return store.getCertificate("testkey");
+    }
+}
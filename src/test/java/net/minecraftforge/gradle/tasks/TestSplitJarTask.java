@@ -0,0 +1,109 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks;
+
+import net.minecraftforge.gradle.testsupport.TaskTest;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.specs.Spec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+public class TestSplitJarTask extends TaskTest<SplitJarTask>
+{
+    @Test
+    public void splitsByPattern() throws IOException
+    {
+        SplitJarTask task = setupTask();
+        task.include("a/**");
+        task.doTask();
+
+        // the leading slash isn't part of the path a pattern sees, but the entry keeps its name
+        Assert.assertEquals(Arrays.asList("a/First.class", "a/data.txt", "/a/leading.txt"), readNames(task.getOutFirst()));
+        Assert.assertEquals(Arrays.asList("b/Second.class", "b/data.txt"), readNames(task.getOutSecond()));
+    }
+
+    @Test
+    public void splitsBySpecOnContents() throws IOException
+    {
+        SplitJarTask task = setupTask();
+        task.include(new Spec<FileTreeElement>() {
+            @Override
+            public boolean isSatisfiedBy(FileTreeElement element)
+            {
+                try
+                {
+                    return element.isDirectory() || new String(Files.readAllBytes(element.getFile().toPath()), StandardCharsets.UTF_8).contains("data");
+                }
+                catch (IOException e)
+                {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        task.doTask();
+
+        Assert.assertEquals(Arrays.asList("a/data.txt", "b/data.txt"), readNames(task.getOutFirst()));
+        Assert.assertEquals(Arrays.asList("a/First.class", "b/Second.class", "/a/leading.txt"), readNames(task.getOutSecond()));
+        // the entries the spec read are deleted again
+        String[] left = task.getTemporaryDir().list();
+        Assert.assertEquals(Arrays.asList(), left == null ? Arrays.asList() : Arrays.asList(left));
+    }
+
+    private SplitJarTask setupTask() throws IOException
+    {
+        File inJar = new File(temporaryFolder.getRoot(), "input.jar");
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(inJar))
+        {
+            for (String name : new String[] { "a/", "a/First.class", "b/Second.class", "a/data.txt", "b/data.txt", "/a/leading.txt" })
+            {
+                out.putArchiveEntry(new ZipArchiveEntry(name));
+                if (!name.endsWith("/"))
+                    out.write(("contents of " + name).getBytes(StandardCharsets.UTF_8));
+                out.closeArchiveEntry();
+            }
+        }
+
+        SplitJarTask task = getTask(SplitJarTask.class);
+        task.setInJar(inJar);
+        task.setOutFirst(new File(temporaryFolder.getRoot(), "first.jar"));
+        task.setOutSecond(new File(temporaryFolder.getRoot(), "second.jar"));
+        return task;
+    }
+
+    private static List<String> readNames(File jar) throws IOException
+    {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar))
+        {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntriesInPhysicalOrder()))
+                names.add(entry.getName());
+        }
+        return names;
+    }
+}
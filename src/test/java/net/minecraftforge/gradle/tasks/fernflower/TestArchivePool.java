@@ -0,0 +1,131 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import com.google.common.io.ByteStreams;
+import net.minecraftforge.gradle.testsupport.TestResource;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class TestArchivePool
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void opensEachArchiveOnce() throws IOException
+    {
+        File jar = TestResource.ACTUAL_CLEAN_JAR.getFile(temporaryFolder);
+        List<String> classes = listClasses(jar);
+        Assert.assertFalse(classes.isEmpty());
+
+        try (ArchivePool archives = new ArchivePool();
+             ZipFile zip = new ZipFile(jar))
+        {
+            ByteCodeProvider provider = new ByteCodeProvider(archives);
+            for (String name : classes)
+            {
+                try (InputStream in = zip.getInputStream(zip.getEntry(name)))
+                {
+                    Assert.assertArrayEquals(name, ByteStreams.toByteArray(in), provider.getBytecode(jar.getAbsolutePath(), name));
+                }
+            }
+            Assert.assertEquals(1, archives.getOpenCount());
+
+            // still usable after closing, it just opens them again
+            archives.close();
+            provider.getBytecode(jar.getAbsolutePath(), classes.get(0));
+            Assert.assertEquals(2, archives.getOpenCount());
+        }
+    }
+
+    /**
+     * Compares reading every class of a jar the way FernFlower does, with and without the pool.
+     * Run with -DarchivePool.jar=path/to/a/big.jar
+     */
+    @Test
+    public void benchmarkOpenCalls() throws IOException
+    {
+        String path = System.getProperty("archivePool.jar");
+        Assume.assumeTrue("no jar given", path != null);
+        File jar = new File(path).getAbsoluteFile();
+        List<String> classes = listClasses(jar);
+
+        for (int run = 0; run < 5; run++)
+        {
+            int opens = 0;
+            long start = System.nanoTime();
+            for (String name : classes)
+            {
+                try (ZipFile zip = new ZipFile(jar))
+                {
+                    opens++;
+                    try (InputStream in = zip.getInputStream(zip.getEntry(name)))
+                    {
+                        ByteStreams.toByteArray(in);
+                    }
+                }
+            }
+            long unpooled = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int pooledOpens;
+            try (ArchivePool archives = new ArchivePool())
+            {
+                ByteCodeProvider provider = new ByteCodeProvider(archives);
+                for (String name : classes)
+                    provider.getBytecode(jar.getPath(), name);
+                pooledOpens = archives.getOpenCount();
+            }
+            long pooled = System.nanoTime() - start;
+
+            System.out.println("run " + run + ": " + classes.size() + " classes, "
+                    + "unpooled " + opens + " opens " + unpooled / 1000000 + " ms, "
+                    + "pooled " + pooledOpens + " opens " + pooled / 1000000 + " ms");
+        }
+    }
+
+    private static List<String> listClasses(File jar) throws IOException
+    {
+        List<String> classes = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(jar))
+        {
+            for (ZipEntry entry : Collections.list(zip.entries()))
+            {
+                if (entry.getName().endsWith(".class"))
+                    classes.add(entry.getName());
+            }
+        }
+        return classes;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.tasks.fernflower;
+
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.testsupport.UsesTemporaryFiles;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.*;
+
+public class TestDecompileCache implements UsesTemporaryFiles
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void groupsInnerClassesWithTheirOuterClass()
+    {
+        Map<String, byte[]> classes = new TreeMap<>();
+        for (String name : new String[] { "a/A.class", "a/A$1.class", "a/A$B$C.class", "a/B$C.class", "a$b/D.class" })
+            classes.put(name, name.getBytes(Constants.CHARSET));
+
+        Map<String, ClassGroup> groups = ClassGroup.group(classes);
+
+        Assert.assertEquals(Arrays.asList("a$b/D", "a/A", "a/B$C"), new ArrayList<>(groups.keySet()));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a/A.class", "a/A$1.class", "a/A$B$C.class")), groups.get("a/A").getClasses().keySet());
+    }
+
+    @Test
+    public void splitsIntoEvenShards()
+    {
+        Map<String, byte[]> classes = new TreeMap<>();
+        int[] sizes = { 50, 40, 30, 20, 10, 10, 5, 5 };
+        for (int i = 0; i < sizes.length; i++)
+            classes.put("C" + i + ".class", new byte[sizes[i]]);
+        Collection<ClassGroup> groups = ClassGroup.group(classes).values();
+
+        List<List<ClassGroup>> shards = ClassGroup.split(groups, 3);
+        Assert.assertEquals(3, shards.size());
+        int count = 0;
+        for (List<ClassGroup> shard : shards)
+        {
+            long size = 0;
+            for (ClassGroup group : shard)
+                size += group.getSize();
+            Assert.assertTrue("Shard of " + size + " bytes should be about a third of 170", size >= 50 && size <= 65);
+            count += shard.size();
+        }
+        Assert.assertEquals(sizes.length, count);
+
+        // never more shards than groups
+        Assert.assertEquals(1, ClassGroup.split(ClassGroup.group(Collections.singletonMap("A.class", new byte[1])).values(), 4).size());
+        Assert.assertTrue(ClassGroup.split(Collections.<ClassGroup>emptyList(), 4).isEmpty());
+    }
+
+    @Test
+    public void storesSourcesByClassBytes() throws Exception
+    {
+        Map<String, byte[]> classes = new TreeMap<>();
+        classes.put("a/A.class", new byte[] { 1, 2, 3 });
+        ClassGroup group = ClassGroup.group(classes).get("a/A");
+
+        DecompileCache cache = new DecompileCache(temporaryFolder.getRoot(), "salt", Long.MAX_VALUE);
+        String key = cache.getKey(group);
+        Assert.assertNull(cache.get(key));
+
+        Map<String, String> sources = Collections.singletonMap("a/A.java", "package a;\n\npublic class A {\n}");
+        cache.put(key, sources);
+        Assert.assertEquals(sources, cache.get(key));
+
+        // anything that changes the output for every class changes the key
+        Assert.assertNotEquals(key, new DecompileCache(temporaryFolder.getRoot(), "other salt", Long.MAX_VALUE).getKey(group));
+
+        classes.put("a/A.class", new byte[] { 1, 2, 4 });
+        Assert.assertNotEquals(key, cache.getKey(ClassGroup.group(classes).get("a/A")));
+    }
+
+    @Test
+    public void trimsLeastRecentlyUsedEntries() throws Exception
+    {
+        DecompileCache cache = new DecompileCache(temporaryFolder.getRoot(), "salt", Long.MAX_VALUE);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+        {
+            Map<String, byte[]> classes = Collections.singletonMap("a/A" + i + ".class", new byte[] { (byte) i });
+            String key = cache.getKey(ClassGroup.group(classes).get("a/A" + i));
+            cache.put(key, Collections.singletonMap("a/A" + i + ".java", "class A" + i + " {}"));
+            keys.add(key);
+        }
+
+        // only room for one of them, and the first one was just used
+        long time = System.currentTimeMillis();
+        long largest = 0;
+        for (File dir : temporaryFolder.getRoot().listFiles())
+            if (dir.isDirectory())
+                for (File file : dir.listFiles())
+                {
+                    file.setLastModified(time - 60000);
+                    largest = Math.max(largest, file.length());
+                }
+        Assert.assertNotNull(cache.get(keys.get(0)));
+
+        cache = new DecompileCache(temporaryFolder.getRoot(), "salt", largest * 3 / 2);
+        cache.trim();
+        Assert.assertNotNull(cache.get(keys.get(0)));
+        Assert.assertNull(cache.get(keys.get(1)));
+        Assert.assertNull(cache.get(keys.get(2)));
+    }
+}
@@ -20,12 +20,23 @@
  */
 package net.minecraftforge.gradle.user;
 
+import com.google.common.io.ByteStreams;
 import net.minecraftforge.gradle.testsupport.TaskTest;
 import net.minecraftforge.gradle.testsupport.TestResource;
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+
 import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.jar.*;
 import java.util.zip.*;
 
@@ -65,4 +76,194 @@ public class TestTaskRecompileMc extends TaskTest<TaskRecompileMc>
             Assert.assertNotEquals("output jar '" + outJarFile + "' should not be empty", 0, outJarFile.size());
         }
     }
+
+    @Test
+    public void runTaskAgain() throws IOException
+    {
+        File sourceJar = TestResource.ORG_EXAMPLE_EXAMPLE_SRC_JAR.getFile(temporaryFolder);
+        File outJar = temporaryFolder.newFile("out.jar");
+
+        TaskRecompileMc task = getTask(TaskRecompileMc.class);
+        task.setInSources(sourceJar);
+        task.setOutJar(outJar);
+        task.getProject().getConfigurations().maybeCreate("test_configuration");
+        task.setClasspath("test_configuration");
+        task.doStuff();
+
+        byte[] expected = readEntry(outJar, "org/example/Example.class");
+
+        // nothing changed, so the classes of the previous run are reused
+        Assert.assertTrue("output jar should be deleted", outJar.delete());
+        task.doStuff();
+
+        Assert.assertArrayEquals(expected, readEntry(outJar, "org/example/Example.class"));
+        Assert.assertNotNull(readEntry(outJar, "org/example/package-info.class"));
+    }
+
+    @Test
+    public void editRecompilesDirectDependents() throws Exception
+    {
+        Map<String, String> sources = getSources();
+        TaskRecompileMc task = getSourcesTask();
+        writeSources(task, sources);
+        task.doStuff();
+        markClasses(task);
+
+        // B calls A, C calls B, D is on its own
+        sources.put("test/A.java", "package test; public class A { public static final int X = 1; public int a() { return 2; } }");
+        writeSources(task, sources);
+        task.doStuff();
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("test/A", "test/B")), getRecompiled(task));
+        Assert.assertEquals(2, call(task, "test.C", "c"));
+    }
+
+    @Test
+    public void signatureChangeRecompilesTransitiveDependents() throws Exception
+    {
+        Map<String, String> sources = getSources();
+        TaskRecompileMc task = getSourcesTask();
+        writeSources(task, sources);
+        task.doStuff();
+        markClasses(task);
+
+        sources.put("test/A.java", "package test; public class A { public static final int X = 1; public Integer a() { return 3; } }");
+        writeSources(task, sources);
+        task.doStuff();
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("test/A", "test/B", "test/C")), getRecompiled(task));
+        Assert.assertEquals(3, call(task, "test.C", "c"));
+    }
+
+    @Test
+    public void constantChangeRecompilesEverything() throws Exception
+    {
+        Map<String, String> sources = getSources();
+        TaskRecompileMc task = getSourcesTask();
+        writeSources(task, sources);
+        task.doStuff();
+        markClasses(task);
+
+        sources.put("test/A.java", "package test; public class A { public static final int X = 5; public int a() { return 1; } }");
+        writeSources(task, sources);
+        task.doStuff();
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("test/A", "test/B", "test/C", "test/D")), getRecompiled(task));
+        // C inlined a constant of B, which inlined one of A
+        Assert.assertEquals(6, call(task, "test.C", "y"));
+    }
+
+    private static Map<String, String> getSources()
+    {
+        Map<String, String> sources = new TreeMap<>();
+        sources.put("test/A.java", "package test; public class A { public static final int X = 1; public int a() { return 1; } }");
+        sources.put("test/B.java", "package test; public class B { public static final int Y = A.X + 1; public int b() { return new A().a(); } }");
+        sources.put("test/C.java", "package test; public class C { public int c() { return new B().b(); } public int y() { return B.Y; } }");
+        sources.put("test/D.java", "package test; public class D { public int d() { return 4; } }");
+        return sources;
+    }
+
+    private TaskRecompileMc getSourcesTask() throws IOException
+    {
+        TaskRecompileMc task = getTask(TaskRecompileMc.class);
+        task.setInSources(new File(temporaryFolder.getRoot(), "sources.jar"));
+        task.setOutJar(new File(temporaryFolder.getRoot(), "out.jar"));
+        task.getProject().getConfigurations().maybeCreate("test_configuration");
+        task.setClasspath("test_configuration");
+        return task;
+    }
+
+    private static void writeSources(TaskRecompileMc task, Map<String, String> sources) throws IOException
+    {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(task.getInSources())))
+        {
+            for (Map.Entry<String, String> e : sources.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.write(e.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Adds a field to every class kept between runs, which the ones that are compiled again won't have.
+     */
+    private static void markClasses(TaskRecompileMc task) throws IOException
+    {
+        File classesJar = new File(task.getTemporaryDir(), "classes.jar");
+        Map<String, byte[]> classes = new TreeMap<>();
+        try (JarFile jar = new JarFile(classesJar))
+        {
+            for (JarEntry entry : Collections.list(jar.entries()))
+            {
+                ClassNode node = new ClassNode();
+                try (InputStream in = jar.getInputStream(entry))
+                {
+                    new ClassReader(ByteStreams.toByteArray(in)).accept(node, 0);
+                }
+                node.fields.add(new FieldNode(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, "marker", "I", null, null));
+                ClassWriter writer = new ClassWriter(0);
+                node.accept(writer);
+                classes.put(entry.getName(), writer.toByteArray());
+            }
+        }
+
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(classesJar)))
+        {
+            for (Map.Entry<String, byte[]> e : classes.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * @return the classes of the output that were compiled in the last run
+     */
+    private static Set<String> getRecompiled(TaskRecompileMc task) throws IOException
+    {
+        Set<String> recompiled = new HashSet<>();
+        try (JarFile jar = new JarFile(task.getOutJar()))
+        {
+            for (JarEntry entry : Collections.list(jar.entries()))
+            {
+                if (!entry.getName().endsWith(".class"))
+                    continue;
+
+                ClassNode node = new ClassNode();
+                try (InputStream in = jar.getInputStream(entry))
+                {
+                    new ClassReader(ByteStreams.toByteArray(in)).accept(node, ClassReader.SKIP_CODE);
+                }
+                if (node.fields.stream().noneMatch(f -> f.name.equals("marker")))
+                    recompiled.add(node.name);
+            }
+        }
+        return recompiled;
+    }
+
+    private static int call(TaskRecompileMc task, String cls, String method) throws Exception
+    {
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { task.getOutJar().toURI().toURL() }, null))
+        {
+            Class<?> clazz = loader.loadClass(cls);
+            return ((Number) clazz.getMethod(method).invoke(clazz.newInstance())).intValue();
+        }
+    }
+
+    private static byte[] readEntry(File jar, String name) throws IOException
+    {
+        try (JarFile jarFile = new JarFile(jar))
+        {
+            ZipEntry entry = jarFile.getEntry(name);
+            Assert.assertNotNull("Entry " + name + " should exist", entry);
+            try (InputStream in = jarFile.getInputStream(entry))
+            {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+    }
 }
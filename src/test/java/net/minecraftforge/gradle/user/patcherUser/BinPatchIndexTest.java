@@ -0,0 +1,124 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.user.patcherUser;
+
+import net.minecraftforge.gradle.user.patcherUser.TaskApplyBinPatches.ClassPatch;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BinPatchIndexTest
+{
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static List<ClassPatch> patches()
+    {
+        List<ClassPatch> patches = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+        {
+            byte[] bytes = new byte[i * 37];
+            Arrays.fill(bytes, (byte) i);
+            patches.add(new ClassPatch("a" + i, "a" + i, "net.minecraft.A" + i, i % 2 == 0, i * 31, bytes));
+        }
+        // a patch without any bytes
+        patches.add(new ClassPatch("b", "pkg.b", "net.minecraft.B", false, 0, new byte[0]));
+        return patches;
+    }
+
+    private static void assertIndex(List<ClassPatch> expected, BinPatchIndex index) throws IOException
+    {
+        Assert.assertEquals(expected.size(), index.size());
+        for (ClassPatch patch : expected)
+        {
+            String entryName = BinPatchIndex.getEntryName(patch.sourceClassName);
+            Assert.assertTrue(index.getEntryNames().contains(entryName));
+
+            ClassPatch read = index.get(entryName);
+            Assert.assertEquals(patch.name, read.name);
+            Assert.assertEquals(patch.sourceClassName, read.sourceClassName);
+            Assert.assertEquals(patch.targetClassName, read.targetClassName);
+            Assert.assertEquals(patch.existsAtTarget, read.existsAtTarget);
+            Assert.assertEquals(patch.inputChecksum, read.inputChecksum);
+            Assert.assertArrayEquals(patch.patch, read.patch);
+        }
+        Assert.assertNull(index.get("a20.class"));
+        Assert.assertNull(index.get("pkg/c.class"));
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException
+    {
+        List<ClassPatch> patches = patches();
+        File file = new File(temporaryFolder.getRoot(), "cache/patches.bin");
+
+        Assert.assertTrue(BinPatchIndex.write(file, patches));
+        Assert.assertEquals("only the index is left", 1, file.getParentFile().list().length);
+
+        try (BinPatchIndex index = BinPatchIndex.open(file))
+        {
+            Assert.assertNotNull(index);
+            assertIndex(patches, index);
+        }
+    }
+
+    @Test
+    public void keepsPatchesInMemory() throws IOException
+    {
+        List<ClassPatch> patches = patches();
+        try (BinPatchIndex index = BinPatchIndex.of(patches))
+        {
+            assertIndex(patches, index);
+        }
+    }
+
+    @Test
+    public void missingOrBrokenIndexIsNotOpened() throws IOException
+    {
+        File file = temporaryFolder.newFile("patches.bin");
+        Assert.assertNull(BinPatchIndex.open(new File(temporaryFolder.getRoot(), "missing.bin")));
+        Assert.assertNull("empty file", BinPatchIndex.open(file));
+
+        Assert.assertTrue(BinPatchIndex.write(file, patches()));
+        // cut the file off in the middle of the index
+        try (FileOutputStream out = new FileOutputStream(file, true))
+        {
+            out.getChannel().truncate(20);
+        }
+        Assert.assertNull("truncated file", BinPatchIndex.open(file));
+    }
+
+    @Test
+    public void failedWriteIsReported() throws IOException
+    {
+        // the parent directory is a file, so nothing can be written beneath it
+        File parent = temporaryFolder.newFile("notADirectory");
+        Assert.assertFalse(BinPatchIndex.write(new File(parent, "patches.bin"), patches()));
+    }
+}
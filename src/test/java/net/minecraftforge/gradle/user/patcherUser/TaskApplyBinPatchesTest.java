@@ -24,6 +24,8 @@ import com.google.common.io.ByteStreams;
 import com.nothome.delta.Delta;
 import lzma.streams.LzmaOutputStream;
 import net.minecraftforge.gradle.testsupport.TaskTest;
+import net.minecraftforge.gradle.user.patcherUser.TaskApplyBinPatches.ClassPatch;
+import net.minecraftforge.gradle.util.caching.FileHashIndex;
 import net.minecraftforge.gradle.util.patching.BinPatches;
 import org.junit.Assert;
 import org.junit.Test;
@@ -143,4 +145,114 @@ public class TaskApplyBinPatchesTest extends TaskTest<TaskApplyBinPatches>
         }
         Assert.assertArrayEquals(expectedBytes, contents.get(PATCHED_FILE_NAME_IN_JAR_WITH_EXTENSION));
     }
+
+    private static byte[] classBytes(String name, String version)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+            builder.append(name).append(' ').append(version).append(' ').append(i).append('\n');
+        return builder.toString().getBytes();
+    }
+
+    private static void writeJar(File file, Map<String, byte[]> entries) throws IOException
+    {
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(file)))
+        {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet())
+            {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+            }
+        }
+    }
+
+    @Test
+    public void patchesInEntryOrder() throws Exception
+    {
+        File inputJar = temporaryFolder.newFile("in.jar");
+        File outputJar = temporaryFolder.newFile("out.jar");
+        File patchJar = temporaryFolder.newFile("patches.jar.pack200.lzma");
+        File classJar = temporaryFolder.newFile("classes.jar");
+        File resourceJar = temporaryFolder.newFile("resources.jar");
+
+        // far more patched classes than are patched ahead of the entry being written
+        Map<String, byte[]> in = new LinkedHashMap<>();
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        List<ClassPatch> patches = new ArrayList<>();
+        in.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes());
+        in.put("pkg/", new byte[0]);
+        for (int i = 0; i < 300; i++)
+        {
+            String name = String.format("pkg/C%03d", i);
+            byte[] clean = classBytes(name, "clean");
+            in.put(name + ".class", clean);
+            if (i % 3 == 0)
+            {
+                // unpatched classes and resources in between
+                expected.put(name + ".class", clean);
+                in.put(name + ".txt", name.getBytes());
+                expected.put(name + ".txt", name.getBytes());
+                continue;
+            }
+
+            byte[] patched = classBytes(name, "patched");
+            Adler32 checksum = new Adler32();
+            checksum.update(clean);
+            patches.add(new ClassPatch(name, name.replace('/', '.'), "srg." + name.replace('/', '.'), true, (int) checksum.getValue(), new Delta().compute(clean, patched)));
+            expected.put(name + ".class", patched);
+        }
+        writeJar(inputJar, in);
+        // reorder the expected entries to the order they are in the input
+        Map<String, byte[]> expectedInOrder = new LinkedHashMap<>();
+        expectedInOrder.put("pkg/", new byte[0]);
+        for (String name : in.keySet())
+        {
+            if (expected.containsKey(name))
+                expectedInOrder.put(name, expected.get(name));
+        }
+
+        // entries already in the patched jar aren't added again
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put("pkg/C001.class", "extra".getBytes());
+        classes.put("extra/Extra.class", "extra".getBytes());
+        writeJar(classJar, classes);
+        expectedInOrder.put("extra/Extra.class", "extra".getBytes());
+
+        Map<String, byte[]> resources = new LinkedHashMap<>();
+        resources.put("pkg/C000.txt", "resource".getBytes());
+        resources.put("assets/lang.txt", "resource".getBytes());
+        writeJar(resourceJar, resources);
+        expectedInOrder.put("assets/lang.txt", "resource".getBytes());
+
+        try (OutputStream out = new FileOutputStream(patchJar))
+        {
+            out.write("not decoded, the patches are cached".getBytes());
+        }
+
+        TaskApplyBinPatches task = getTask(TaskApplyBinPatches.class);
+        task.setInJar(inputJar);
+        task.setClassJar(classJar);
+        task.setPatches(patchJar);
+        task.setOutJar(outputJar);
+        task.setResourceJar(resourceJar);
+
+        File cacheFile = new File(task.getProject().getGradle().getGradleUserHomeDir(), "caches/minecraft/binpatches/" + FileHashIndex.get(task.getProject()).hash(patchJar) + ".bin");
+        Assert.assertTrue(BinPatchIndex.write(cacheFile, patches));
+
+        task.doTask();
+
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new FileInputStream(outputJar)))
+        {
+            ZipEntry e;
+            while ((e = zipInputStream.getNextEntry()) != null)
+            {
+                contents.put(e.getName(), ByteStreams.toByteArray(zipInputStream));
+            }
+        }
+
+        Assert.assertEquals(new ArrayList<>(expectedInOrder.keySet()), new ArrayList<>(contents.keySet()));
+        for (Map.Entry<String, byte[]> entry : expectedInOrder.entrySet())
+            Assert.assertArrayEquals(entry.getKey(), entry.getValue(), contents.get(entry.getKey()));
+    }
 }
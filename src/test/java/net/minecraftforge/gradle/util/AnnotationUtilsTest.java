@@ -0,0 +1,133 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import net.minecraftforge.gradle.util.AnnotationUtils.Annotation;
+import net.minecraftforge.gradle.util.AnnotationUtils.JarInfo;
+import net.minecraftforge.gradle.util.AnnotationUtils.TargetType;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+public class AnnotationUtilsTest
+{
+    private static final int CLASSES = 64;
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void nestedAnnotationIdsFollowTheJar() throws IOException
+    {
+        File jar = writeJar();
+
+        String first = null;
+        for (int run = 0; run < 5; run++)
+        {
+            JarInfo info;
+            try (ZipFile in = new ZipFile(jar))
+            {
+                info = AnnotationUtils.processJar(in, null, name -> true);
+            }
+
+            // every class has a single annotation with a nested annotation and an array of two, in that order
+            for (int i = 0; i < CLASSES; i++)
+            {
+                int firstId = i * 3 + 1;
+                for (Annotation anno : info.asm_info.get(className(i)).annotations)
+                {
+                    if (anno.type == TargetType.CLASS)
+                    {
+                        Assert.assertEquals(String.valueOf(firstId), anno.values.get("inner").value);
+                        Assert.assertEquals(Arrays.asList(String.valueOf(firstId + 1), String.valueOf(firstId + 2)), anno.values.get("list").values);
+                    }
+                    else
+                    {
+                        Assert.assertTrue(anno.id >= firstId && anno.id <= firstId + 2);
+                    }
+                }
+            }
+
+            StringWriter json = new StringWriter();
+            AnnotationUtils.writeJson(info.asm_info, json);
+            if (first == null)
+                first = json.toString();
+            else
+                Assert.assertEquals(first, json.toString());
+        }
+    }
+
+    private File writeJar() throws IOException
+    {
+        File jar = temporaryFolder.newFile("annotated.jar");
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(jar))
+        {
+            for (int i = 0; i < CLASSES; i++)
+            {
+                out.putArchiveEntry(new ZipArchiveEntry(className(i) + ".class"));
+                out.write(writeClass(className(i), i));
+                out.closeArchiveEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static String className(int i)
+    {
+        return String.format("test/Annotated%02d", i);
+    }
+
+    private static byte[] writeClass(String name, int i)
+    {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+
+        AnnotationVisitor outer = writer.visitAnnotation("Ltest/Outer;", true);
+        AnnotationVisitor inner = outer.visitAnnotation("inner", "Ltest/Inner;");
+        inner.visit("x", i);
+        inner.visitEnd();
+        AnnotationVisitor list = outer.visitArray("list");
+        for (int j = 0; j < 2; j++)
+        {
+            AnnotationVisitor element = list.visitAnnotation(null, "Ltest/Inner;");
+            element.visit("x", j);
+            element.visitEnd();
+        }
+        list.visitEnd();
+        outer.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import com.google.common.io.Files;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.testsupport.UsesTemporaryFiles;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+public class ArtifactCacheTest implements UsesTemporaryFiles
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void fetchesWhatWasPublished() throws IOException
+    {
+        ArtifactCache cache = new ArtifactCache(temporaryFolder.newFolder("cache"), Long.MAX_VALUE, "salt");
+        String key = cache.key("test", 1, "input");
+        File target = new File(temporaryFolder.getRoot(), "out/target.jar");
+
+        Assert.assertFalse(cache.fetch(key, target));
+        Assert.assertFalse(target.exists());
+
+        cache.publish(key, write("first.jar", "first"));
+        Assert.assertTrue(cache.fetch(key, target));
+        Assert.assertEquals("first", Files.toString(target, Constants.CHARSET));
+
+        // entries are never replaced
+        cache.publish(key, write("second.jar", "second"));
+        Assert.assertTrue(cache.fetch(key, target));
+        Assert.assertEquals("first", Files.toString(target, Constants.CHARSET));
+    }
+
+    @Test
+    public void keysAreSalted()
+    {
+        File dir = temporaryFolder.getRoot();
+        ArtifactCache cache = new ArtifactCache(dir, Long.MAX_VALUE, "salt");
+
+        Assert.assertEquals(cache.key("a", 1), new ArtifactCache(dir, Long.MAX_VALUE, "salt").key("a", 1));
+        Assert.assertNotEquals(cache.key("a", 1), new ArtifactCache(dir, Long.MAX_VALUE, "other salt").key("a", 1));
+        Assert.assertNotEquals(cache.key("a", 1), cache.key("a", 2));
+        // parts are length prefixed
+        Assert.assertNotEquals(cache.key("ab", "c"), cache.key("a", "bc"));
+    }
+
+    @Test
+    public void skipsPublishingWhileLocked() throws IOException
+    {
+        File dir = temporaryFolder.newFolder("cache");
+        ArtifactCache cache = new ArtifactCache(dir, Long.MAX_VALUE, "salt");
+        String key = cache.key("test");
+        File source = write("source.jar", "content");
+        File target = new File(temporaryFolder.getRoot(), "target.jar");
+
+        try (RandomAccessFile lockFile = new RandomAccessFile(new File(dir, ".lock"), "rw");
+             FileChannel channel = lockFile.getChannel();
+             FileLock lock = channel.lock())
+        {
+            // held by someone else in this process, so it is skipped instead of failing the build
+            cache.publish(key, source);
+            Assert.assertFalse(cache.fetch(key, target));
+        }
+
+        cache.publish(key, source);
+        Assert.assertTrue(cache.fetch(key, target));
+        Assert.assertEquals("content", Files.toString(target, Constants.CHARSET));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException
+    {
+        File dir = temporaryFolder.newFolder("cache");
+        // room for two entries of 10 bytes
+        ArtifactCache cache = new ArtifactCache(dir, 25, "salt");
+        File target = new File(temporaryFolder.getRoot(), "target.jar");
+
+        String[] keys = new String[3];
+        for (int i = 0; i < keys.length; i++)
+        {
+            keys[i] = cache.key("entry", i);
+            cache.publish(keys[i], write("source" + i + ".jar", "0123456789"));
+            age(dir);
+        }
+
+        // the oldest one went to make room for the third
+        Assert.assertFalse(cache.fetch(keys[0], target));
+        Assert.assertTrue(cache.fetch(keys[1], target));
+        Assert.assertTrue(cache.fetch(keys[2], target));
+
+        // a hit counts as a use, so the second one is kept over the third
+        age(dir);
+        Assert.assertTrue(cache.fetch(keys[1], target));
+
+        String newest = cache.key("entry", 3);
+        cache.publish(newest, write("source3.jar", "0123456789"));
+        Assert.assertTrue(cache.fetch(newest, target));
+        Assert.assertTrue(cache.fetch(keys[1], target));
+        Assert.assertFalse(cache.fetch(keys[2], target));
+    }
+
+    @Test
+    public void deletesStaleTempFiles() throws IOException
+    {
+        File dir = temporaryFolder.newFolder("cache");
+        ArtifactCache cache = new ArtifactCache(dir, Long.MAX_VALUE, "salt");
+        String key = cache.key("test");
+
+        File sub = new File(dir, "xx");
+        sub.mkdirs();
+        File stale = new File(sub, "left.behind.tmp");
+        File fresh = new File(sub, "in.progress.tmp");
+        Files.write("stale", stale, Constants.CHARSET);
+        Files.write("fresh", fresh, Constants.CHARSET);
+        stale.setLastModified(System.currentTimeMillis() - 2 * 24 * 60 * 60 * 1000L);
+
+        cache.publish(key, write("source.jar", "content"));
+        Assert.assertFalse(stale.exists());
+        Assert.assertTrue(fresh.exists());
+    }
+
+    /**
+     * Makes every entry a minute older, so the order in which they were used doesn't depend on the mtime resolution.
+     */
+    private static void age(File dir)
+    {
+        for (File sub : dir.listFiles())
+            if (sub.isDirectory())
+                for (File file : sub.listFiles())
+                    file.setLastModified(file.lastModified() - 60000);
+    }
+
+    private File write(String name, String content) throws IOException
+    {
+        File file = new File(temporaryFolder.getRoot(), name);
+        Files.write(content, file, Constants.CHARSET);
+        return file;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import com.google.common.io.Files;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.testsupport.UsesTemporaryFiles;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class FileHashIndexTest implements UsesTemporaryFiles
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void matchesConstantsHash() throws IOException
+    {
+        File file = writeOld("a.txt", "some content");
+        FileHashIndex index = new FileHashIndex(temporaryFolder.newFile("index.bin"));
+
+        Assert.assertEquals(Constants.hash(file), index.hash(file));
+    }
+
+    @Test
+    public void unchangedStatSkipsHashing() throws IOException
+    {
+        File indexFile = new File(temporaryFolder.getRoot(), "index.bin");
+        File file = writeOld("a.txt", "aaaa");
+        long modified = file.lastModified();
+
+        FileHashIndex index = new FileHashIndex(indexFile);
+        String first = index.hash(file);
+        index.save();
+
+        // same size, same mtime: the persisted digest is trusted without reading the file
+        Files.write("bbbb", file, Constants.CHARSET);
+        file.setLastModified(modified);
+        Assert.assertEquals(first, new FileHashIndex(indexFile).hash(file));
+
+        // touching the file invalidates the entry
+        file.setLastModified(modified - 10000);
+        Assert.assertEquals(Constants.hash(file), new FileHashIndex(indexFile).hash(file));
+        Assert.assertNotEquals(first, Constants.hash(file));
+    }
+
+    @Test
+    public void freshFilesAreNotTrusted() throws IOException
+    {
+        File indexFile = new File(temporaryFolder.getRoot(), "index.bin");
+        File file = temporaryFolder.newFile("a.txt");
+        Files.write("aaaa", file, Constants.CHARSET);
+
+        FileHashIndex index = new FileHashIndex(indexFile);
+        index.hash(file);
+        index.save();
+
+        Files.write("bbbb", file, Constants.CHARSET);
+        Assert.assertEquals(Constants.hash(file), new FileHashIndex(indexFile).hash(file));
+    }
+
+    @Test
+    public void savingDropsMissingFiles() throws IOException
+    {
+        File indexFile = new File(temporaryFolder.getRoot(), "index.bin");
+        File kept = writeOld("kept.txt", "kept");
+        File deleted = writeOld("deleted.txt", "deleted");
+
+        FileHashIndex index = new FileHashIndex(indexFile);
+        index.hash(kept);
+        index.hash(deleted);
+        index.save();
+        Assert.assertEquals(2, new FileHashIndex(indexFile).size());
+
+        Assert.assertTrue(deleted.delete());
+        index.hash(writeOld("other.txt", "other"));
+        index.save();
+        Assert.assertEquals(2, new FileHashIndex(indexFile).size());
+    }
+
+    @Test
+    public void savingKeepsWhatOthersSaved() throws IOException
+    {
+        File indexFile = new File(temporaryFolder.getRoot(), "index.bin");
+        File a = writeOld("a.txt", "aaaa");
+        File b = writeOld("b.txt", "bbbb");
+
+        // like two builds sharing the index
+        FileHashIndex first = new FileHashIndex(indexFile);
+        FileHashIndex second = new FileHashIndex(indexFile);
+        first.hash(a);
+        second.hash(b);
+        first.save();
+        second.save();
+
+        Assert.assertEquals(2, new FileHashIndex(indexFile).size());
+    }
+
+    private File writeOld(String name, String content) throws IOException
+    {
+        File file = temporaryFolder.newFile(name);
+        Files.write(content, file, Constants.CHARSET);
+        file.setLastModified(System.currentTimeMillis() - 60000);
+        return file;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.caching;
+
+import com.google.common.io.Files;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.provider.InheritanceProvider;
+import net.minecraftforge.gradle.common.Constants;
+import net.minecraftforge.gradle.testsupport.UsesTemporaryFiles;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class MappingCacheTest implements UsesTemporaryFiles
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private Project project;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        project = ProjectBuilder.builder().withProjectDir(temporaryFolder.newFolder("projectDir")).build();
+    }
+
+    @Test
+    public void jarMappingsAreIndependentCopies() throws IOException
+    {
+        File srg = write("test.srg",
+                "PK: . net/minecraft/src\n" +
+                "CL: a net/minecraft/src/Block\n" +
+                "FD: a/a net/minecraft/src/Block/field_1_a\n" +
+                "MD: a/a ()V net/minecraft/src/Block/func_1_a ()V\n");
+
+        JarMapping first = MappingCache.getJarMapping(project, Collections.singletonList(srg));
+        JarMapping expected = new JarMapping();
+        expected.loadMappings(srg);
+        Assert.assertEquals(expected.classes, first.classes);
+        Assert.assertEquals(expected.fields, first.fields);
+        Assert.assertEquals(expected.methods, first.methods);
+        Assert.assertEquals(expected.packages, first.packages);
+
+        // what one task does to its mapping doesn't reach the others
+        first.classes.put("b", "net/minecraft/src/Item");
+        first.fields.clear();
+        first.methods.put("a/a ()V", "changed");
+
+        JarMapping second = MappingCache.getJarMapping(project, Collections.singletonList(srg));
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(expected.classes, second.classes);
+        Assert.assertEquals(expected.fields, second.fields);
+        Assert.assertEquals(expected.methods, second.methods);
+    }
+
+    @Test
+    public void csvRenamesFollowTheFiles() throws IOException
+    {
+        File methods = write("methods.csv",
+                "searge,name,side,desc\n" +
+                "func_1_a,doStuff,2,\n" +
+                "func_2_b,doOtherStuff,2,\n");
+        File fields = write("fields.csv",
+                "searge,name,side,desc\n" +
+                "field_1_a,stuff,2,\n");
+
+        Map<String, String> renames = MappingCache.getCsvRenames(project, methods, fields);
+        Assert.assertEquals("doStuff", renames.get("func_1_a"));
+        Assert.assertEquals("doOtherStuff", renames.get("func_2_b"));
+        Assert.assertEquals("stuff", renames.get("field_1_a"));
+        Assert.assertFalse(renames.containsKey("searge"));
+        Assert.assertEquals(renames, MappingCache.getCsvRenames(project, methods, fields));
+
+        // null files are skipped
+        Assert.assertEquals(Collections.singletonMap("field_1_a", "stuff"), MappingCache.getCsvRenames(project, null, fields));
+
+        // a changed file is read again
+        write("methods.csv",
+                "searge,name,side,desc\n" +
+                "func_1_a,doRenamedStuff,2,\n");
+        methods.setLastModified(methods.lastModified() - 10000);
+        renames = MappingCache.getCsvRenames(project, methods, fields);
+        Assert.assertEquals("doRenamedStuff", renames.get("func_1_a"));
+        Assert.assertFalse(renames.containsKey("func_2_b"));
+    }
+
+    @Test
+    public void classpathAsksTheSystemFirst() throws IOException
+    {
+        File jar = new File(temporaryFolder.getRoot(), "lib.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar)))
+        {
+            // a class loader would never load these from the library
+            addClass(out, "java/lang/String", "a/Parent");
+            addClass(out, "a/Child", "a/Parent");
+        }
+
+        InheritanceProvider provider = MappingCache.getClasspathProvider(project, Collections.singletonList(jar));
+        Assert.assertFalse(provider.getParents("java/lang/String").contains("a/Parent"));
+        Assert.assertEquals(Collections.singletonList("a/Parent"), new ArrayList<>(provider.getParents("a/Child")));
+        Assert.assertNull(provider.getParents("a/Missing"));
+    }
+
+    @Test
+    public void jarsAreReadOnFirstLookup() throws IOException
+    {
+        // not a jar at all, which only matters once a lookup gets to it
+        File jar = write("broken.jar", "not a zip");
+        InheritanceProvider provider = MappingCache.getClasspathProvider(project, Collections.singletonList(jar));
+
+        Assert.assertNotNull(provider.getParents("java/util/ArrayList"));
+        try
+        {
+            provider.getParents("a/Child");
+            Assert.fail("The broken jar should have been read");
+        }
+        catch (RuntimeException e)
+        {
+            Assert.assertTrue(e.getMessage().contains(jar.getName()));
+        }
+    }
+
+    private static void addClass(ZipOutputStream out, String name, String superName) throws IOException
+    {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, null);
+        writer.visitEnd();
+        out.putNextEntry(new ZipEntry(name + ".class"));
+        out.write(writer.toByteArray());
+        out.closeEntry();
+    }
+
+    private File write(String name, String content) throws IOException
+    {
+        File file = new File(temporaryFolder.getRoot(), name);
+        Files.write(content, file, Constants.CHARSET);
+        return file;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.minecraftforge.gradle.util.json.GLConstantGroup;
+import net.minecraftforge.gradle.util.json.JsonFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import com.google.gson.reflect.TypeToken;
+
+public class GLConstantFixerTest
+{
+    // what GLConstantFixer used to do
+    private static final Pattern CALL_REGEX = Pattern.compile("(GL11|GL12|GL13|GL14|GL15|GL20|GL21|ARBMultitexture|ARBOcclusionQuery|ARBVertexBufferObject|ARBShaderObjects)\\.([\\w]+)\\(.+\\)");
+    private static final Pattern CONSTANT_REGEX = Pattern.compile("(?<![-.\\w])\\d+(?![.\\w])");
+
+    private static String annotateConstantsRegex(List<GLConstantGroup> json, String text)
+    {
+        Matcher rootMatch = CALL_REGEX.matcher(text);
+        StringBuffer out = new StringBuffer(text.length());
+        while (rootMatch.find())
+        {
+            String fullCall = rootMatch.group();
+            String pack = rootMatch.group(1);
+            String method = rootMatch.group(2);
+
+            Matcher constantMatcher = CONSTANT_REGEX.matcher(fullCall);
+            StringBuffer innerOut = new StringBuffer(fullCall.length());
+            while (constantMatcher.find())
+            {
+                String constant = constantMatcher.group();
+                String answer = null;
+                for (GLConstantGroup group : json)
+                {
+                    if (group.functions.containsKey(pack) && group.functions.get(pack).contains(method))
+                    {
+                        for (Map.Entry<String, Map<String, String>> entry : group.constants.entrySet())
+                        {
+                            if (entry.getValue().containsKey(constant))
+                                answer = entry.getKey() + "." + entry.getValue().get(constant);
+                        }
+                    }
+                }
+                if (answer != null)
+                    constantMatcher.appendReplacement(innerOut, Matcher.quoteReplacement(answer));
+            }
+            constantMatcher.appendTail(innerOut);
+            rootMatch.appendReplacement(out, Matcher.quoteReplacement(innerOut.toString()));
+        }
+        rootMatch.appendTail(out);
+        return out.toString();
+    }
+
+    @Test
+    public void testFixOGL() throws IOException
+    {
+        String text = "import org.lwjgl.opengl.GL11;\n"
+                + "GL11.glBlendFunc(770, 771);\n"
+                + "GL11.glEnable(-3042); GL11.glEnable(3042.0F); GL11.glEnable(03042);\n"
+                + "GL11.glDrawArrays(7, 0, 4); GL11.glTexParameteri(3553, 10241, 9728);\n";
+
+        Assert.assertEquals("import org.lwjgl.opengl.GL11;\n"
+                + "GL11.glBlendFunc(GL11.GL_SRC_ALPHA, GL11.GL_ONE_MINUS_SRC_ALPHA);\n"
+                + "GL11.glEnable(-3042); GL11.glEnable(3042.0F); GL11.glEnable(03042);\n"
+                // the call runs up to the last ) of the line, so the second call gets the constants of the first
+                + "GL11.glDrawArrays(GL11.GL_QUADS, 0, GL11.GL_TRIANGLES); GL11.glTexParameteri(3553, 10241, 9728);\n",
+                GLConstantFixer.getInstance().fixOGL(text));
+        Assert.assertSame(GLConstantFixer.getInstance(), GLConstantFixer.getInstance());
+    }
+
+    @Test
+    public void testMatchesRegex() throws IOException
+    {
+        String text = Resources.toString(Resources.getResource(GLConstantFixer.class, "gl.json"), Charsets.UTF_8);
+        List<GLConstantGroup> json = JsonFactory.GSON.fromJson(text, new TypeToken<List<GLConstantGroup>>() {}.getType());
+        GLConstantFixer fixer = GLConstantFixer.getInstance();
+
+        Random random = new Random(42);
+        String[] parts = { "GL11.", "GL12.", "GL15.", "ARBShaderObjects.", "XGL11.", "glBlendFunc", "glEnable", "glDrawArrays", "glBindBuffer",
+                "glGetObjectParameterARB", "(", ")", "(", ")", ", ", "770", "3042", "7", "0", "4", "34962", "35716", "-", ".", "F", "_", "a", " ", "\n", "\r\n" };
+        for (int i = 0; i < 20000; i++)
+        {
+            StringBuilder source = new StringBuilder("import org.lwjgl.opengl.GL11;\n");
+            int length = random.nextInt(30);
+            for (int j = 0; j < length; j++)
+                source.append(parts[random.nextInt(parts.length)]);
+
+            String expected = annotateConstantsRegex(json, source.toString());
+            // fixOGL then adds the imports the same way it always has
+            Assert.assertEquals(source.toString(), fixOGLImports(expected), fixer.fixOGL(source.toString()));
+        }
+    }
+
+    private static String fixOGLImports(String text)
+    {
+        String[] packages = { "GL11", "GL12", "GL13", "GL14", "GL15", "GL20", "GL21", "ARBMultitexture", "ARBOcclusionQuery", "ARBVertexBufferObject", "ARBShaderObjects" };
+        for (String pack : packages)
+        {
+            String imp = "org.lwjgl.opengl." + pack;
+            if (text.contains(pack + ".") && !text.contains("import " + imp + ";"))
+                text = text.replace("import org.lwjgl.opengl.GL11;", "import org.lwjgl.opengl.GL11;" + net.minecraftforge.gradle.common.Constants.NEWLINE + "import " + imp + ";");
+        }
+        return text;
+    }
+}
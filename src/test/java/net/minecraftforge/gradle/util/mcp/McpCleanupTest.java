@@ -0,0 +1,219 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import net.minecraftforge.gradle.common.Constants;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+import static net.minecraftforge.gradle.util.mcp.McpCleanup.*;
+
+public class McpCleanupTest
+{
+    // real decompiled sources, and the odd cases of StripCommentsTest
+    private static final String[] RESOURCES = { "TestClass", "AnonymousTest", "JavadocInserterTest", "StripComments", "UnendedString" };
+
+    private static final String[] TOKENS = {
+            "\n", "\n", "\n", "\r\n", " ", "  ", "\t", "{", "}", ";", "if", "    if (a)", "foo", "x = 3.14159265D;", "0.7853981F", "10.7853D",
+            "1.7976931348623157E+308D", "'\\u00a7'", "'\\u1234'", "'\\u0100'.2831D", "'\\u0d05'.1415D", "Character.valueOf('x')", "Character.valueOf('\\u1234')",
+            "//c", "/*c*/", "/* GL_FOO */", "\"s/*x*/\"", "\"str\"", "'c'", "package a.b;", "import a.b.C;", "import a.b.D;", "import x.Y;",
+            "/**\n * doc\n */", "57.2957795F", "157.2957795F", "0.78531.5707D", "0.8119F", "5.8119D", "0.21991D", "1.5F", "\\", "\"", "'", "*", "/",
+            "\r", "\f", "\u000B", "\u0085", "\u2028", "\u2029"
+    };
+
+    /**
+     * What {@link McpCleanup#cleanup(String)} did before, one regex after another.
+     */
+    private static String cleanupRegex(String text)
+    {
+        text = CLEANUP_header.matcher(text).replaceAll("");
+        text = CLEANUP_footer.matcher(text).replaceAll("");
+        text = CLEANUP_trailing.matcher(text).replaceAll("");
+        text = CLEANUP_newlines.matcher(text).replaceAll(Constants.NEWLINE);
+        text = CLEANUP_ifstarts.matcher(text).replaceAll("$1" + Constants.NEWLINE + "$2");
+        text = CLEANUP_blockstarts.matcher(text).replaceAll("");
+        text = CLEANUP_blockends.matcher(text).replaceAll("");
+        text = CLEANUP_gl.matcher(text).replaceAll("");
+        text = CLEANUP_maxD.matcher(text).replaceAll("Double.MAX_VALUE");
+
+        Matcher matcher = CLEANUP_unicode.matcher(text);
+        StringBuffer buffer = new StringBuffer(text.length());
+        while (matcher.find())
+        {
+            int val = Integer.parseInt(matcher.group(1), 16);
+            if (val > 255)
+                matcher.appendReplacement(buffer, Matcher.quoteReplacement("" + val));
+        }
+        matcher.appendTail(buffer);
+        text = buffer.toString();
+
+        text = CLEANUP_charval.matcher(text).replaceAll("$1");
+
+        text = CLEANUP_piD.matcher(text).replaceAll("Math.PI");
+        text = CLEANUP_piF.matcher(text).replaceAll("(float)Math.PI");
+        text = CLEANUP_2piD.matcher(text).replaceAll("(Math.PI * 2D)");
+        text = CLEANUP_2piF.matcher(text).replaceAll("((float)Math.PI * 2F)");
+        text = CLEANUP_pi2D.matcher(text).replaceAll("(Math.PI / 2D)");
+        text = CLEANUP_pi2F.matcher(text).replaceAll("((float)Math.PI / 2F)");
+        text = CLEANUP_3pi2D.matcher(text).replaceAll("(Math.PI * 3D / 2D)");
+        text = CLEANUP_3pi2F.matcher(text).replaceAll("((float)Math.PI * 3F / 2F)");
+        text = CLEANUP_pi4D.matcher(text).replaceAll("(Math.PI / 4D)");
+        text = CLEANUP_pi4F.matcher(text).replaceAll("((float)Math.PI / 4F)");
+        text = CLEANUP_pi5D.matcher(text).replaceAll("(Math.PI / 5D)");
+        text = CLEANUP_pi5F.matcher(text).replaceAll("((float)Math.PI / 5F)");
+        text = CLEANUP_180piD.matcher(text).replaceAll("(180D / Math.PI)");
+        text = CLEANUP_180piF.matcher(text).replaceAll("(180F / (float)Math.PI)");
+        text = CLEANUP_2pi9D.matcher(text).replaceAll("(Math.PI * 2D / 9D)");
+        text = CLEANUP_2pi9F.matcher(text).replaceAll("((float)Math.PI * 2F / 9F)");
+        text = CLEANUP_pi10D.matcher(text).replaceAll("(Math.PI / 10D)");
+        text = CLEANUP_pi10F.matcher(text).replaceAll("((float)Math.PI / 10F)");
+        text = CLEANUP_2pi5D.matcher(text).replaceAll("(Math.PI * 2D / 5D)");
+        text = CLEANUP_2pi5F.matcher(text).replaceAll("((float)Math.PI * 2F / 5F)");
+        text = CLEANUP_7pi100D.matcher(text).replaceAll("(Math.PI * 7D / 100D)");
+        text = CLEANUP_7pi100F.matcher(text).replaceAll("((float)Math.PI * 7F / 100F)");
+        text = CLEANUP_185pi100D.matcher(text).replaceAll("(Math.PI * 185D / 100D)");
+        text = CLEANUP_185pi100F.matcher(text).replaceAll("((float)Math.PI * 185F / 100F)");
+
+        return text;
+    }
+
+    private static String process(String text)
+    {
+        return fixImports(stripComments(text));
+    }
+
+    @Test
+    public void testResources() throws IOException
+    {
+        for (String name : RESOURCES)
+        {
+            String text = readResource(name);
+            for (String source : new String[] { text, text.replace("\r\n", "\n").replace("\n", "\r\n") })
+            {
+                String stripped = process(source);
+                Assert.assertEquals(name, cleanupRegex(stripped), cleanup(stripped));
+                // with the comments still there
+                Assert.assertEquals(name, cleanupRegex(source), cleanup(source));
+            }
+        }
+    }
+
+    @Test
+    public void testFixConstants()
+    {
+        Assert.assertEquals("double d = Math.PI + Double.MAX_VALUE; float f = ((float)Math.PI / 4F) - 1((float)Math.PI / 4F);",
+                cleanup("double d = 3.14159265358979D + 1.7976931348623157E+308D; float f = 0.7853982F - 10.7853982F;"));
+        Assert.assertEquals("char c = 'x'; int i = 4660; char s = '\\u00a7'; float g = (180F / (float)Math.PI) + 1.5F;",
+                cleanup("char c = Character.valueOf('x'); int i = '\\u1234'; char s = '\\u00a7'; float g = 57.29578F + 1.5F;"));
+    }
+
+    @Test
+    public void testMatchesRegexes()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++)
+        {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++)
+                text.append(TOKENS[random.nextInt(TOKENS.length)]);
+
+            Assert.assertEquals(text.toString(), cleanupRegex(text.toString()), cleanup(text.toString()));
+        }
+    }
+
+    /**
+     * Compares the cleanup with the regexes it replaced on a zip of sources, like the decompiled Minecraft sources,
+     * given with -DmcpCleanup.sources=&lt;zip&gt;.
+     */
+    @Test
+    public void benchmarkCleanup() throws IOException
+    {
+        String path = System.getProperty("mcpCleanup.sources");
+        Assume.assumeTrue("no sources given", path != null);
+
+        List<String> sources = new ArrayList<String>();
+        try (ZipFile zip = new ZipFile(new File(path)))
+        {
+            for (ZipEntry entry : Collections.list(zip.entries()))
+            {
+                if (!entry.getName().endsWith(".java"))
+                    continue;
+                try (InputStream in = zip.getInputStream(entry))
+                {
+                    String source = new String(ByteStreams.toByteArray(in), Constants.CHARSET);
+                    try
+                    {
+                        sources.add(process(source));
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // unended comments
+                    }
+                }
+            }
+        }
+
+        long chars = 0;
+        for (String source : sources)
+        {
+            chars += source.length();
+            Assert.assertEquals(cleanupRegex(source), cleanup(source));
+        }
+
+        for (int run = 0; run < 5; run++)
+        {
+            long start = System.nanoTime();
+            for (String source : sources)
+                cleanupRegex(source);
+            long regex = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String source : sources)
+                cleanup(source);
+            long current = System.nanoTime() - start;
+
+            System.out.println("run " + run + ": " + sources.size() + " files, " + chars + " chars, "
+                    + "regexes " + regex / 1000000 + " ms, cleanup " + current / 1000000 + " ms");
+        }
+    }
+
+    private String readResource(String name) throws IOException
+    {
+        InputStream stream = this.getClass().getClassLoader().getResourceAsStream(name);
+        return new String(ByteStreams.toByteArray(stream));
+    }
+}
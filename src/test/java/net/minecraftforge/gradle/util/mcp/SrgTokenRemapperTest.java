@@ -0,0 +1,188 @@
+/*
+ * A Gradle plugin for the creation of Minecraft mods and MinecraftForge plugins.
+ * Copyright (C) 2013-2019 Minecraft Forge
+ * Copyright (C) 2020-2022 anatawa12 and other contributors
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ * USA
+ */
+package net.minecraftforge.gradle.util.mcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SrgTokenRemapperTest
+{
+    // what RemapSources used to do
+    private static final Pattern SRG_FINDER = Pattern.compile("func_[0-9]+_[a-zA-Z_]+|field_[0-9]+_[a-zA-Z_]+|p_[\\w]+_\\d+_\\b");
+    private static final String[] PARTS = { "func_", "field_", "p_", "p_i", "_", "_", "1", "23", "a", "Z", " ", "(", ".", "\u00e9" };
+
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRemap()
+    {
+        SrgTokenRemapper remapper = new SrgTokenRemapper();
+        remapper.putMethod("func_71410_x", "getMinecraft");
+        remapper.putField("field_71439_g", "player");
+        remapper.putParam("p_i1234_1_", "world");
+        remapper.putParam("p_1234_1_", "pos");
+        StringBuilder buf = new StringBuilder();
+
+        Assert.assertEquals("this.player = Minecraft.getMinecraft(world, pos);",
+                remapper.remap("this.field_71439_g = Minecraft.func_71410_x(p_i1234_1_, p_1234_1_);", buf));
+        // unknown names and other suffixes are left alone
+        Assert.assertEquals("func_71410_y(p_1234_2_) + func_71410_xy", remapper.remap("func_71410_y(p_1234_2_) + func_71410_xy", buf));
+        // params have to end on a word boundary
+        Assert.assertEquals("p_1234_1_a", remapper.remap("p_1234_1_a", buf));
+
+        String unchanged = "int i = 0;";
+        Assert.assertSame(unchanged, remapper.remap(unchanged, buf));
+    }
+
+    @Test
+    public void testLookup()
+    {
+        SrgTokenRemapper remapper = new SrgTokenRemapper();
+        remapper.putMethod("func_71410_x", "getMinecraft");
+        remapper.putMethod("func_71410_y", "getOther");
+        remapper.putField("field_71439_g", "player");
+
+        Assert.assertEquals("getMinecraft", remapper.getMethod("func_71410_x"));
+        Assert.assertEquals("getOther", remapper.getMethod("func_71410_y"));
+        Assert.assertEquals("player", remapper.getField("field_71439_g"));
+        // only whole names match
+        Assert.assertNull(remapper.getMethod("func_71410_xy"));
+        Assert.assertNull(remapper.getMethod("field_71439_g"));
+        Assert.assertNull(remapper.getField("toString"));
+    }
+
+    @Test
+    public void testMatchesRegex()
+    {
+        Random random = new Random(42);
+        Map<String, String> names = new HashMap<String, String>();
+        SrgTokenRemapper remapper = new SrgTokenRemapper();
+        for (int i = 0; i < 500; i++)
+        {
+            int id = random.nextInt(30);
+            String method = "func_" + id + "_" + (char) ('a' + random.nextInt(3));
+            String field = "field_" + id + "_" + (char) ('a' + random.nextInt(3)) + "_";
+            String param = "p_" + (random.nextBoolean() ? "i" : "") + id + "_" + random.nextInt(3) + "_";
+            names.put(method, "m" + i);
+            names.put(field, "f" + i);
+            names.put(param, "p" + i);
+            remapper.putMethod(method, "m" + i);
+            remapper.putField(field, "f" + i);
+            remapper.putParam(param, "p" + i);
+        }
+        String[] srgNames = names.keySet().toArray(new String[0]);
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+        {
+            StringBuilder line = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--)
+                line.append(random.nextInt(4) == 0 ? srgNames[random.nextInt(srgNames.length)] : PARTS[random.nextInt(PARTS.length)]);
+
+            Assert.assertEquals(line.toString(), remapWithRegex(line.toString(), names), remapper.remap(line.toString(), buf));
+        }
+    }
+
+    @Test
+    public void testCompiledMatchesTables() throws IOException
+    {
+        Random random = new Random(42);
+        File methodsCsv = temporaryFolder.newFile("methods.csv");
+        File fieldsCsv = temporaryFolder.newFile("fields.csv");
+        File paramsCsv = temporaryFolder.newFile("params.csv");
+        SrgTokenRemapper tables = new SrgTokenRemapper();
+        Map<String, String> names = new HashMap<String, String>();
+        try (PrintWriter methods = new PrintWriter(methodsCsv, "UTF-8");
+             PrintWriter fields = new PrintWriter(fieldsCsv, "UTF-8");
+             PrintWriter params = new PrintWriter(paramsCsv, "UTF-8"))
+        {
+            methods.println("searge,name,side,desc");
+            fields.println("searge,name,side,desc");
+            params.println("param,name,side");
+            for (int i = 0; i < 500; i++)
+            {
+                int id = random.nextInt(30);
+                String method = "func_" + id + "_" + (char) ('a' + random.nextInt(3));
+                String field = "field_" + id + "_" + (char) ('a' + random.nextInt(3)) + "_";
+                String param = "p_" + (random.nextBoolean() ? "i" : "") + id + "_" + random.nextInt(3) + "_";
+                methods.println(method + ",m" + i + ",0,");
+                fields.println(field + ",f" + i + ",0,");
+                params.println(param + ",p" + i + ",0");
+                tables.putMethod(method, "m" + i);
+                tables.putField(field, "f" + i);
+                tables.putParam(param, "p" + i);
+                names.put(method, "m" + i);
+                names.put(field, "f" + i);
+                names.put(param, "p" + i);
+            }
+        }
+
+        Project project = ProjectBuilder.builder().withProjectDir(temporaryFolder.newFolder("project")).build();
+        CompiledMappings.compile(project, methodsCsv, fieldsCsv, paramsCsv, new File(temporaryFolder.getRoot(), CompiledMappings.FILE_NAME));
+        CompiledMappings compiled = CompiledMappings.open(project, methodsCsv, fieldsCsv, paramsCsv);
+        Assert.assertNotNull(compiled);
+        SrgTokenRemapper remapper = new SrgTokenRemapper(compiled);
+
+        for (String name : names.keySet())
+        {
+            Assert.assertEquals(tables.getMethod(name), remapper.getMethod(name));
+            Assert.assertEquals(tables.getField(name), remapper.getField(name));
+        }
+
+        StringBuilder buf = new StringBuilder();
+        String[] srgNames = names.keySet().toArray(new String[0]);
+        for (int i = 0; i < 20000; i++)
+        {
+            StringBuilder line = new StringBuilder();
+            for (int j = random.nextInt(12); j > 0; j--)
+                line.append(random.nextInt(4) == 0 ? srgNames[random.nextInt(srgNames.length)] : PARTS[random.nextInt(PARTS.length)]);
+
+            Assert.assertEquals(line.toString(), tables.remap(line.toString(), buf), remapper.remap(line.toString(), buf));
+        }
+    }
+
+    private static String remapWithRegex(String line, Map<String, String> names)
+    {
+        StringBuffer buf = new StringBuffer();
+        Matcher matcher = SRG_FINDER.matcher(line);
+        while (matcher.find())
+        {
+            String name = names.get(matcher.group());
+            matcher.appendReplacement(buf, name == null ? matcher.group() : name);
+        }
+        matcher.appendTail(buf);
+        return buf.toString();
+    }
+}